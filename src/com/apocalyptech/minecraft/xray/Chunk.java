@@ -26,19 +26,24 @@
  */
 package com.apocalyptech.minecraft.xray;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.lang.Math;
-import java.util.Map;
 import java.util.Random;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.PatternSyntaxException;
 
 import com.apocalyptech.minecraft.xray.enums.*;
-import org.lwjgl.opengl.GL11;
 
-import com.apocalyptech.minecraft.xray.dtf.CompoundTag;
+import com.apocalyptech.minecraft.xray.dtf.DTFProjection;
+import com.apocalyptech.minecraft.xray.dtf.DTFBufferReader;
+import com.apocalyptech.minecraft.xray.dtf.DTFVisitor;
 import com.apocalyptech.minecraft.xray.dtf.StringTag;
-import com.apocalyptech.minecraft.xray.dtf.ListTag;
+import com.apocalyptech.minecraft.xray.dtf.ByteTag;
 import com.apocalyptech.minecraft.xray.dtf.IntTag;
 import com.apocalyptech.minecraft.xray.dtf.Tag;
 
@@ -63,19 +68,19 @@ import static com.apocalyptech.minecraft.xray.MinecraftConstants.*;
  * that much of the rendering code would be improved by moving to those if possible.
  */
 public abstract class Chunk {
-	private HashMap<Integer, Integer> displayListNums;
-	private HashMap<Integer, Integer> nonstandardListNums;
-	private HashMap<Integer, Integer> glassListNums;
-	private HashMap<Integer, Integer> selectedDisplayListNums;
+	private HashMap<Integer, MeshBuffer> solidMeshes;
+	private HashMap<Integer, MeshBuffer> nonstandardMeshes;
+	private HashMap<Integer, MeshBuffer> glassMeshes;
+	private HashMap<Integer, MeshBuffer> selectedMeshes;
+	private MeshBuffer paintingMesh;
+	private MeshBuffer borderMesh;
+	private MeshBuffer slimeMesh;
 	public Point point = new Point();
 	public Point chunkOffset = new Point();
-	public HashMap<Integer, Boolean> isDirty;
-	public HashMap<Integer, Boolean> isSelectedDirty;
+	public boolean isDirty;
+	public boolean isSelectedDirty;
 	public boolean isOnMinimap;
-	private CompoundTag chunkData;
-	private ArrayList<PaintingEntity> paintings;
-	/* TODO: Make sure that storing levelTag like this isn't chewing up memory. */
-	protected CompoundTag levelTag;
+	private List<PaintingEntity> paintings;
 
 	// These are vars used while looping over our set of blocks
 	protected Point l = new Point();
@@ -95,38 +100,181 @@ public abstract class Chunk {
 
 	public HashMap<Integer, Boolean> usedTextureSheets;
 
-	private Fence fence = new Fence();
+	// What finishConstructor() found out about our blocks
+	protected ChunkAnalysis analysis;
+
+	// Estimated heap used by this chunk, in bytes; see getMemoryUsage()
+	private int memoryUsage;
+
+	// Modification time of the file we were read from, as of just before we
+	// read it; see MinecraftEnvironment.getChunkModified()
+	protected long sourceModified;
+
+	private static final Fence fence = new Fence();
+
+	// The facings a solid block can show, in the order we draw them
+	private static final FACING[] SOLID_FACINGS = { FACING.TOP, FACING.BOTTOM, FACING.NORTH, FACING.SOUTH, FACING.WEST, FACING.EAST };
+	private static final int ALL_FACES = (1 << SOLID_FACINGS.length) - 1;
+
+	/**
+	 * The corners of a block-sized face for each FACING, in the order
+	 * renderBlockFace() draws them
+	 */
+	static final float[][][] BLOCK_FACES = {
+		// TOP
+		{ { -0.5f, +0.5f, +0.5f }, { -0.5f, +0.5f, -0.5f }, { +0.5f, +0.5f, +0.5f }, { +0.5f, +0.5f, -0.5f } },
+		// BOTTOM
+		{ { -0.5f, -0.5f, +0.5f }, { -0.5f, -0.5f, -0.5f }, { +0.5f, -0.5f, +0.5f }, { +0.5f, -0.5f, -0.5f } },
+		// NORTH
+		{ { -0.5f, +0.5f, -0.5f }, { +0.5f, +0.5f, -0.5f }, { -0.5f, -0.5f, -0.5f }, { +0.5f, -0.5f, -0.5f } },
+		// SOUTH
+		{ { -0.5f, +0.5f, +0.5f }, { +0.5f, +0.5f, +0.5f }, { -0.5f, -0.5f, +0.5f }, { +0.5f, -0.5f, +0.5f } },
+		// WEST
+		{ { -0.5f, +0.5f, +0.5f }, { -0.5f, +0.5f, -0.5f }, { -0.5f, -0.5f, +0.5f }, { -0.5f, -0.5f, -0.5f } },
+		// EAST
+		{ { +0.5f, +0.5f, +0.5f }, { +0.5f, +0.5f, -0.5f }, { +0.5f, -0.5f, +0.5f }, { +0.5f, -0.5f, -0.5f } }
+	};
+
+	// What our render helpers are currently drawing into; see renderWorld()
+	protected MeshBuilder mesh;
+
+	// Set while renderWorld() is collecting solid faces for greedy meshing
+	private GreedyMesher greedy;
+	private int greedySheet;
+
+	// Set while we're rebuilding our meshes; see startMeshing()
+	private boolean meshing;
+	private PaddedSection paddedSection;
+	private int paddedSectionNum;
 	
-	public Chunk(MinecraftLevel level, Tag data) {
+	/**
+	 * The tags which every chunk needs, regardless of format.  Implementing
+	 * classes add their own block data paths to this with DTFProjection.with()
+	 * and then hand the result to readChunkData().  Only the handful of entity
+	 * tags which paintings use are pulled in; the rest of each entity (and
+	 * TileEntities, lighting, etc) is skipped in the stream.
+	 */
+	protected static final DTFProjection PROJECTION = new DTFProjection(
+			"Level/xPos",
+			"Level/zPos",
+			"Level/Entities/*/id",
+			"Level/Entities/*/TileX",
+			"Level/Entities/*/TileY",
+			"Level/Entities/*/TileZ",
+			"Level/Entities/*/Motive",
+			"Level/Entities/*/Dir");
+
+	private boolean foundX;
+	private boolean foundZ;
+
+	// Entity values collected while we're inside an Entities compound
+	private String entityId;
+	private int entityTileX;
+	private int entityTileY;
+	private int entityTileZ;
+	private String entityMotive;
+	private byte entityDir;
+
+	public Chunk(MinecraftLevel level) {
 		
 		this.level = level;
-		this.chunkData = (CompoundTag) data;
 		this.isOnMinimap = false;
+		// Most chunks have no paintings at all; loadCompoundEnd() swaps in a
+		// real list if we find one.
+		this.paintings = Collections.emptyList();
+	}
 
-		//this.levelTag = (CompoundTag) chunkData.value.get(0); // first tag
-		//Thaumcraft's new way store its aura data in region file cause exeption, so we use name now
-		this.levelTag = (CompoundTag) chunkData.getTagWithName("Level");
-		
-		IntTag xPosTag = (IntTag) levelTag.getTagWithName("xPos");
-		IntTag zPosTag = (IntTag) levelTag.getTagWithName("zPos");
-		
-		paintings = new ArrayList<PaintingEntity>();
-		ListTag entities = (ListTag)levelTag.getTagWithName("Entities");
-		StringTag entity_id;
-		CompoundTag ct;
-		for (Tag t : entities.value)
-		{
-			ct = (CompoundTag)t;
-			entity_id = (StringTag) ct.getTagWithName("id");
-			if (entity_id.value.equalsIgnoreCase("painting"))
+	/**
+	 * Reads our chunk data in, passing the projected tags along to
+	 * loadTag(), loadCompoundStart() and loadCompoundEnd().  This is called from
+	 * the implementing class's constructor (once its own fields are set up),
+	 * rather than from ours.
+	 *
+	 * Thaumcraft stores its aura data alongside "Level" in the region files,
+	 * which is why everything is looked up by name underneath "Level".
+	 */
+	protected void readChunkData(ByteBuffer data, DTFProjection projection)
+		throws IOException
+	{
+		if (!DTFBufferReader.visitTagData(data, projection, new Loader()))
+		{
+			throw new IOException("No chunk data found");
+		}
+		if (!this.foundX || !this.foundZ)
+		{
+			throw new IOException("Chunk data has no position");
+		}
+
+		// Don't hang on to anything from the parse itself
+		this.entityId = null;
+		this.entityMotive = null;
+
+		this.finishPosition();
+	}
+
+	/**
+	 * Writes out what we'd need to build this chunk again without going back
+	 * to the region file: our position, paintings, blocks and analysis.  Used
+	 * by ChunkCache.
+	 *
+	 * @throws java.nio.BufferOverflowException if the buffer isn't big enough
+	 */
+	public void writeSnapshot(ByteBuffer out)
+	{
+		out.putInt(this.point.x);
+		out.putInt(this.point.z);
+		out.putShort((short) this.paintings.size());
+		for (PaintingEntity p : this.paintings)
+		{
+			byte[] name = p.name.getBytes(StandardCharsets.UTF_8);
+			out.putShort((short) name.length);
+			out.put(name);
+			out.put(p.dir);
+			out.putInt((int) p.tile_x);
+			out.putInt((int) p.tile_y);
+			out.putInt((int) p.tile_z);
+		}
+		this.writeBlockSnapshot(out);
+		this.analysis.writeSnapshot(out);
+	}
+
+	/**
+	 * Reads back the start of a snapshot.  Implementing classes call this from
+	 * their snapshot constructors, then read their blocks, then call
+	 * finishSnapshot().
+	 */
+	protected void readSnapshot(ByteBuffer in)
+	{
+		this.point.x = in.getInt();
+		this.point.z = in.getInt();
+		int count = in.getShort();
+		if (count > 0)
+		{
+			this.paintings = new ArrayList<PaintingEntity>(count);
+			for (int i = 0; i < count; i++)
 			{
-				paintings.add(new PaintingEntity(ct));
+				byte[] name = new byte[in.getShort()];
+				in.get(name);
+				byte dir = in.get();
+				int tile_x = in.getInt();
+				int tile_y = in.getInt();
+				int tile_z = in.getInt();
+				this.paintings.add(new PaintingEntity(new String(name, StandardCharsets.UTF_8), dir, tile_x, tile_y, tile_z));
 			}
 		}
-		
-		this.point.x = xPosTag.value;
-		this.point.z = zPosTag.value;
+		this.finishPosition();
+	}
+
+	/**
+	 * Writes our block storage out for writeSnapshot()
+	 */
+	protected abstract void writeBlockSnapshot(ByteBuffer out);
 
+	/**
+	 * Works out the things which just depend on where we are
+	 */
+	private void finishPosition()
+	{
 		this.chunkOffset.x = this.point.x * 16;
 		this.chunkOffset.z = this.point.z * 16;
 
@@ -142,53 +290,267 @@ public abstract class Chunk {
 	}
 
 	/**
-	 * Tasks in the constructor which need to be done after the implementing class has
-	 * finished loading in their chunks.
+	 * Called for each tag requested by our projection.  Implementing classes
+	 * should handle their own paths and pass anything else up to us.
 	 */
-	protected void finishConstructor()
+	protected void loadTag(String path, Tag tag)
 	{
-		// Compute which texture sheets are in-use by this chunk
-		// Also we'll be populating our light source object in here
-		// highlight will key off of
-		this.usedTextureSheets = new HashMap<Integer, Boolean>();
-		this.rewindLoop();
-		short t = 0;
-		while (t != -2)
+		if (path.equals("Level/xPos"))
 		{
-			t = this.nextBlock();
-			if(t < 1) {
-				continue;
+			this.point.x = ((IntTag) tag).value;
+			this.foundX = true;
+		}
+		else if (path.equals("Level/zPos"))
+		{
+			this.point.z = ((IntTag) tag).value;
+			this.foundZ = true;
+		}
+		else if (path.startsWith("Level/Entities/*/"))
+		{
+			String name = path.substring(17);
+			if (name.equals("id"))
+			{
+				this.entityId = ((StringTag) tag).value;
 			}
-			if (exploredBlocks.containsKey(t))
+			else if (name.equals("TileX"))
 			{
-				this.level.lightSources.add(this.chunkOffset.x + this.l.x, this.l.y, this.chunkOffset.z + this.l.z);
+				this.entityTileX = ((IntTag) tag).value;
 			}
-			BlockType block = blockArray[t];
-			if (block == null)
+			else if (name.equals("TileY"))
 			{
-				block = BLOCK_UNKNOWN;
+				this.entityTileY = ((IntTag) tag).value;
+			}
+			else if (name.equals("TileZ"))
+			{
+				this.entityTileZ = ((IntTag) tag).value;
+			}
+			else if (name.equals("Motive"))
+			{
+				this.entityMotive = ((StringTag) tag).value;
+			}
+			else if (name.equals("Dir"))
+			{
+				this.entityDir = ((ByteTag) tag).value;
+			}
+		}
+	}
+
+	/**
+	 * Called when we enter a compound along one of our projected paths.
+	 */
+	protected void loadCompoundStart(String path)
+	{
+		if (path.equals("Level/Entities/*"))
+		{
+			this.entityId = null;
+			this.entityMotive = null;
+		}
+	}
+
+	/**
+	 * Called when we leave a compound along one of our projected paths.
+	 */
+	protected void loadCompoundEnd(String path)
+	{
+		if (path.equals("Level/Entities/*"))
+		{
+			if (this.entityId != null && this.entityMotive != null && this.entityId.equalsIgnoreCase("painting"))
+			{
+				if (this.paintings.isEmpty())
+				{
+					this.paintings = new ArrayList<PaintingEntity>(1);
+				}
+				this.paintings.add(new PaintingEntity(this.entityMotive, this.entityDir,
+							this.entityTileX, this.entityTileY, this.entityTileZ));
+			}
+		}
+	}
+
+	/**
+	 * Passes visitor events along to our load* methods, so that they don't
+	 * have to be part of our public interface.
+	 */
+	private class Loader implements DTFVisitor
+	{
+		public void startCompound(String path)
+		{
+			loadCompoundStart(path);
+		}
+
+		public void endCompound(String path)
+		{
+			loadCompoundEnd(path);
+		}
+
+		public void startList(String path, int length)
+		{
+		}
+
+		public void endList(String path)
+		{
+		}
+
+		public void visitTag(String path, Tag tag)
+		{
+			loadTag(path, tag);
+		}
+	}
+
+	/**
+	 * Tasks in the constructor which need to be done after the implementing class has
+	 * finished loading in their chunks.  Like the rest of the constructor, this doesn't
+	 * touch OpenGL or anything shared on the level, so chunks can be built on a loader
+	 * thread; activate() does the rest once the chunk is handed to the render thread.
+	 */
+	protected void finishConstructor()
+	{
+		// One walk over our blocks gets us our texture sheets, the light
+		// sources which our "explored" highlight will key off of, our minimap
+		// and so on.
+		this.analysis = ChunkAnalysis.analyze(this);
+		this.finishAnalysis();
+	}
+
+	/**
+	 * Finishes setting up a chunk rebuilt from a ChunkCache snapshot, reading
+	 * our analysis back out of it rather than walking our blocks again.  Like
+	 * finishConstructor(), this is for the end of an implementing class's
+	 * snapshot constructor, once its blocks have been read.
+	 */
+	protected void finishSnapshot(ByteBuffer in)
+	{
+		this.analysis = ChunkAnalysis.readSnapshot(in);
+		this.finishAnalysis();
+	}
+
+	/**
+	 * Sets up our per-sheet bookkeeping from our analysis
+	 */
+	private void finishAnalysis()
+	{
+		this.usedTextureSheets = new HashMap<Integer, Boolean>();
+		for (int sheet : this.analysis.getUsedSheets())
+		{
+			this.usedTextureSheets.put(sheet, true);
+		}
+		this.isDirty = true;
+		this.isSelectedDirty = true;
+
+		this.memoryUsage = this.estimateMemoryUsage();
+	}
+
+	/**
+	 * Adds up roughly how much heap we're going to be using once activated.
+	 * None of this changes after we're built, so it's only done once.  Our
+	 * vertex data lives in GL buffers on the driver side, so it isn't
+	 * counted here.
+	 */
+	private int estimateMemoryUsage()
+	{
+		int sheets = this.usedTextureSheets.size();
+
+		// Ourselves, our Points and the like
+		int bytes = 160;
+
+		// Our sheet map, plus the four mesh maps we'll get in activate()
+		// and the MeshBuffers in them
+		bytes += 5 * (64 + (sheets * 48));
+		bytes += 4 * sheets * 56;
+
+		// Paintings which survived the parse
+		bytes += this.paintings.size() * 96;
+
+		bytes += this.analysis.getMemoryUsage();
+		bytes += this.getBlockMemoryUsage();
+		return bytes;
+	}
+
+	/**
+	 * Estimated bytes of heap which this chunk is holding on to: its block
+	 * storage, what we worked out about it, and what's left of its NBT.
+	 */
+	public int getMemoryUsage()
+	{
+		return this.memoryUsage;
+	}
+
+	/**
+	 * Estimated bytes of heap used by our block storage
+	 */
+	protected abstract int getBlockMemoryUsage();
+
+	/**
+	 * Finishes setting the chunk up once it's being added to the level: registers
+	 * our light sources and sets up our meshes.  Has to be called from the
+	 * render thread.
+	 */
+	public void activate()
+	{
+		// Chunks rebuilt from a ChunkCache snapshot have had theirs registered
+		// already
+		if (this.analysis.getLightSources() != null)
+		{
+			for (Block b : this.analysis.getLightSources())
+			{
+				this.level.lightSources.add(b.x, b.y, b.z);
 			}
-			this.usedTextureSheets.put(block.getTexSheet(), true);
+			this.analysis.clearLightSources();
 		}
 
-		// And create all our necessary GL Lists (and other structures)
-		displayListNums = new HashMap<Integer, Integer>();
-		nonstandardListNums = new HashMap<Integer, Integer>();
-		glassListNums = new HashMap<Integer, Integer>();
-		selectedDisplayListNums = new HashMap<Integer, Integer>();
-		this.isDirty = new HashMap<Integer, Boolean>();
-		this.isSelectedDirty = new HashMap<Integer, Boolean>();
+		solidMeshes = new HashMap<Integer, MeshBuffer>();
+		nonstandardMeshes = new HashMap<Integer, MeshBuffer>();
+		glassMeshes = new HashMap<Integer, MeshBuffer>();
+		selectedMeshes = new HashMap<Integer, MeshBuffer>();
 		for (int sheet : this.usedTextureSheets.keySet())
 		{
-			displayListNums.put(sheet, GL11.glGenLists(1));
-			selectedDisplayListNums.put(sheet, GL11.glGenLists(1));
-			glassListNums.put(sheet, GL11.glGenLists(1));
-			nonstandardListNums.put(sheet, GL11.glGenLists(1));
-			this.isDirty.put(sheet, true);
-			this.isSelectedDirty.put(sheet, true);
+			solidMeshes.put(sheet, new MeshBuffer());
+			selectedMeshes.put(sheet, new MeshBuffer());
+			glassMeshes.put(sheet, new MeshBuffer());
+			nonstandardMeshes.put(sheet, new MeshBuffer());
+		}
+	}
+
+	/**
+	 * Hands our GL buffers back once the chunk has been dropped from the level.
+	 * The chunk can't be rendered after this.  Has to be called from the render
+	 * thread.
+	 */
+	public void dispose()
+	{
+		if (this.solidMeshes == null)
+		{
+			return;
+		}
+		disposeMeshes(this.solidMeshes);
+		disposeMeshes(this.selectedMeshes);
+		disposeMeshes(this.glassMeshes);
+		disposeMeshes(this.nonstandardMeshes);
+		this.solidMeshes = null;
+		this.selectedMeshes = null;
+		this.glassMeshes = null;
+		this.nonstandardMeshes = null;
+		this.paintingMesh = disposeMesh(this.paintingMesh);
+		this.borderMesh = disposeMesh(this.borderMesh);
+		this.slimeMesh = disposeMesh(this.slimeMesh);
+	}
+
+	private static void disposeMeshes(HashMap<Integer, MeshBuffer> meshes)
+	{
+		for (MeshBuffer buffer : meshes.values())
+		{
+			buffer.dispose();
 		}
 	}
 
+	private static MeshBuffer disposeMesh(MeshBuffer buffer)
+	{
+		if (buffer != null)
+		{
+			buffer.dispose();
+		}
+		return null;
+	}
+
 	/**
 	 * Returns whether or not this chunk contains blocks which use the specified sheet
 	 */
@@ -198,35 +560,66 @@ public abstract class Chunk {
 	}
 
 	/**
-	 * Marks a our lists as dirty
+	 * Returns whether any of this chunk might be visible through the given
+	 * frustum.  Our blocks stop at maxHeight, but slime boxes and borders go
+	 * up to our ceiling, so pass toCeiling if those are being drawn.  We pad
+	 * the box by a block, for the odd shape that pokes out of its space.
+	 */
+	public boolean isInFrustum(ViewFrustum frustum, boolean toCeiling)
+	{
+		float top = (toCeiling ? this.ceilingHeight : this.maxHeight) + 1.5f;
+		float x = this.point.x*16;
+		float z = this.point.z*16;
+		return frustum.intersects(x - 1.5f, -1.5f, z - 1.5f, x + 16.5f, top, z + 16.5f);
+	}
+
+	/**
+	 * Marks a our meshes as dirty
 	 */
 	public void setDirty()
 	{
-		for (Map.Entry<Integer, Boolean> entry : this.isDirty.entrySet())
-		{
-			entry.setValue(true);
-		}
+		this.isDirty = true;
 	}
 
 	/**
-	 * Marks a our selected lists as dirty
+	 * Marks a our selected meshes as dirty
 	 */
 	public void setSelectedDirty()
 	{
-		for (Map.Entry<Integer, Boolean> entry : this.isSelectedDirty.entrySet())
-		{
-			entry.setValue(true);
-		}
+		this.isSelectedDirty = true;
 	}
 	
 	/**
 	 * Will return an array of values which are suitable for feeding into a
-	 * minimap.
+	 * minimap.  This is shared, so don't modify it.
 	 */
-	public abstract short[][] getMinimapValues();
+	public short[][] getMinimapValues()
+	{
+		return this.analysis.getMinimapValues();
+	}
 
-	public CompoundTag getChunkData() {
-		return this.chunkData;
+	/**
+	 * Returns whether this chunk has any of the ores we're highlighting
+	 */
+	private boolean hasSelected(boolean[] selectedMap)
+	{
+		for (int i = 0; i < selectedMap.length; i++)
+		{
+			if (selectedMap[i] && this.analysis.hasBlock(level.HIGHLIGHT_ORES[i]))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the given section (y/16) has no blocks in it at all.  Block
+	 * loops can skip these.
+	 */
+	protected boolean isSectionEmpty(int section)
+	{
+		return this.analysis != null && this.analysis.isSectionEmpty(section);
 	}
 
 	/**
@@ -234,7 +627,76 @@ public abstract class Chunk {
 	 * load in the adjacent chunk, if needed.  Will return -1 if that adjacent
 	 * chunk can't be found.
 	 */
-	protected abstract short getAdjBlockId(int x, int y, int z, FACING facing, int blockOffset);
+	protected short getAdjBlockId(int x, int y, int z, FACING facing, int blockOffset)
+	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockId(x, y & 15, z, facing);
+		}
+		return this.getUnpaddedAdjBlockId(x, y, z, facing, blockOffset);
+	}
+
+	/**
+	 * Gets the Block ID of the block immediately to the given facing, from our
+	 * own data or the neighbouring chunk's.  Implementing classes provide this;
+	 * getAdjBlockId() uses it when we're not meshing, and PaddedSection uses it
+	 * to fill in the top and bottom of its border.
+	 */
+	protected abstract short getUnpaddedAdjBlockId(int x, int y, int z, FACING facing, int blockOffset);
+
+	/**
+	 * Returns the blockOffset which getUnpaddedAdjBlockId() expects for the
+	 * given coordinates.
+	 */
+	protected abstract int getBlockOffset(int x, int y, int z);
+
+	/**
+	 * Gets the data value at the given coordinates, or 0 if they're above or
+	 * below what this chunk can hold.
+	 */
+	protected byte getUnpaddedData(int x, int y, int z)
+	{
+		if (y < 0 || y > this.ceilingHeight)
+		{
+			return 0;
+		}
+		return this.getData(x, y, z);
+	}
+
+	/**
+	 * Starts a rebuild of our meshes: until finishMeshing(), neighbour
+	 * lookups come out of padded copies of our sections rather than going
+	 * through the level for every face.
+	 */
+	protected void startMeshing()
+	{
+		this.meshing = true;
+		this.paddedSection = null;
+		this.paddedSectionNum = -1;
+	}
+
+	/**
+	 * Ends a rebuild of our meshes.  The level keeps the padded copies
+	 * around, so they're reused if we're meshed again before anything else is.
+	 */
+	protected void finishMeshing()
+	{
+		this.meshing = false;
+		this.paddedSection = null;
+	}
+
+	/**
+	 * Returns the padded copy of the given section, while we're meshing
+	 */
+	private PaddedSection getPaddedSection(int section)
+	{
+		if (section != this.paddedSectionNum)
+		{
+			this.paddedSection = this.level.getPaddedSection(this, section);
+			this.paddedSectionNum = section;
+		}
+		return this.paddedSection;
+	}
 
 	/**
 	 * Gets the data value of the block immediately to the west.  This might
@@ -243,6 +705,10 @@ public abstract class Chunk {
 	 */
 	private byte getAdjWestBlockData(int x, int y, int z)
 	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockData(x, y & 15, z, FACING.WEST);
+		}
 		if (x > 0)
 		{
 			return getData(x-1, y, z);
@@ -268,6 +734,10 @@ public abstract class Chunk {
 	 */
 	private byte getAdjEastBlockData(int x, int y, int z)
 	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockData(x, y & 15, z, FACING.EAST);
+		}
 		if (x < 15)
 		{
 			return getData(x+1, y, z);
@@ -293,6 +763,10 @@ public abstract class Chunk {
 	 */
 	private byte getAdjNorthBlockData(int x, int y, int z)
 	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockData(x, y & 15, z, FACING.NORTH);
+		}
 		if (z > 0)
 		{
 			return getData(x, y, z-1);
@@ -318,6 +792,10 @@ public abstract class Chunk {
 	 */
 	private byte getAdjSouthBlockData(int x, int y, int z)
 	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockData(x, y & 15, z, FACING.SOUTH);
+		}
 		if (z < 15)
 		{
 			return getData(x, y, z+1);
@@ -341,6 +819,10 @@ public abstract class Chunk {
 	 */
 	private byte getAdjUpBlockData(int x, int y, int z)
 	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockData(x, y & 15, z, FACING.TOP);
+		}
 		return getData(x, y+1, z);
 	}
 
@@ -349,6 +831,10 @@ public abstract class Chunk {
 	 */
 	private byte getAdjDownBlockData(int x, int y, int z)
 	{
+		if (this.meshing)
+		{
+			return this.getPaddedSection(y >> 4).getAdjBlockData(x, y & 15, z, FACING.BOTTOM);
+		}
 		return getData(x, y-1, z);
 	}
 	
@@ -362,36 +848,21 @@ public abstract class Chunk {
 	 * @param facing The face that should be drawn
 	 */
 	public void renderBlockFace(int t, float x, float y, float z, FACING facing) {
-		final float blockFaces[][][] = {
-			// TOP
-			{ { -0.5f, +0.5f, +0.5f }, { -0.5f, +0.5f, -0.5f }, { +0.5f, +0.5f, +0.5f }, { +0.5f, +0.5f, -0.5f } },
-			// BOTTOM
-			{ { -0.5f, -0.5f, +0.5f }, { -0.5f, -0.5f, -0.5f }, { +0.5f, -0.5f, +0.5f }, { +0.5f, -0.5f, -0.5f } },
-			// NORTH
-			{ { -0.5f, +0.5f, -0.5f }, { +0.5f, +0.5f, -0.5f }, { -0.5f, -0.5f, -0.5f }, { +0.5f, -0.5f, -0.5f } },
-			// SOUTH
-			{ { -0.5f, +0.5f, +0.5f }, { +0.5f, +0.5f, +0.5f }, { -0.5f, -0.5f, +0.5f }, { +0.5f, -0.5f, +0.5f } },
-			// WEST
-			{ { -0.5f, +0.5f, +0.5f }, { -0.5f, +0.5f, -0.5f }, { -0.5f, -0.5f, +0.5f }, { -0.5f, -0.5f, -0.5f } },
-			// EAST
-			{ { +0.5f, +0.5f, +0.5f }, { +0.5f, +0.5f, -0.5f }, { +0.5f, -0.5f, +0.5f }, { +0.5f, -0.5f, -0.5f } }
-		};
-
-		float curFace[][] = blockFaces[facing.ordinal()];
-
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(precalcSpriteSheetToTextureX[t], precalcSpriteSheetToTextureY[t]);
-			GL11.glVertex3f(x+curFace[0][0], y+curFace[0][1], z+curFace[0][2]);
+		float curFace[][] = BLOCK_FACES[facing.ordinal()];
+
+		this.mesh.beginStrip();
+			this.mesh.texCoord(precalcSpriteSheetToTextureX[t], precalcSpriteSheetToTextureY[t]);
+			this.mesh.vertex(x+curFace[0][0], y+curFace[0][1], z+curFace[0][2]);
 	
-			GL11.glTexCoord2f(precalcSpriteSheetToTextureX[t]+TEX16, precalcSpriteSheetToTextureY[t]);
-			GL11.glVertex3f(x+curFace[1][0], y+curFace[1][1], z+curFace[1][2]);
+			this.mesh.texCoord(precalcSpriteSheetToTextureX[t]+TEX16, precalcSpriteSheetToTextureY[t]);
+			this.mesh.vertex(x+curFace[1][0], y+curFace[1][1], z+curFace[1][2]);
 	
-			GL11.glTexCoord2f(precalcSpriteSheetToTextureX[t], precalcSpriteSheetToTextureY[t]+TEX32);
-			GL11.glVertex3f(x+curFace[2][0], y+curFace[2][1], z+curFace[2][2]);
+			this.mesh.texCoord(precalcSpriteSheetToTextureX[t], precalcSpriteSheetToTextureY[t]+TEX32);
+			this.mesh.vertex(x+curFace[2][0], y+curFace[2][1], z+curFace[2][2]);
 	
-			GL11.glTexCoord2f(precalcSpriteSheetToTextureX[t]+TEX16, precalcSpriteSheetToTextureY[t]+TEX32);
-			GL11.glVertex3f(x+curFace[3][0], y+curFace[3][1], z+curFace[3][2]);
-		GL11.glEnd();
+			this.mesh.texCoord(precalcSpriteSheetToTextureX[t]+TEX16, precalcSpriteSheetToTextureY[t]+TEX32);
+			this.mesh.vertex(x+curFace[3][0], y+curFace[3][1], z+curFace[3][2]);
+		this.mesh.endStrip();
 	}
 
 	/**
@@ -442,19 +913,19 @@ public abstract class Chunk {
 				break;
 		}
 		
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(x1, y1);
-			GL11.glVertex3f(x-scale, y-scale, z+scale);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(x1, y1);
+			this.mesh.vertex(x-scale, y-scale, z+scale);
 	
-			GL11.glTexCoord2f(x2, y2);
-			GL11.glVertex3f(x-scale, y-scale, z-scale);
+			this.mesh.texCoord(x2, y2);
+			this.mesh.vertex(x-scale, y-scale, z-scale);
 	
-			GL11.glTexCoord2f(x3, y3);
-			GL11.glVertex3f(x+scale, y-scale, z+scale);
+			this.mesh.texCoord(x3, y3);
+			this.mesh.vertex(x+scale, y-scale, z+scale);
 	
-			GL11.glTexCoord2f(x4, y4);
-			GL11.glVertex3f(x+scale, y-scale, z-scale);
-		GL11.glEnd();
+			this.mesh.texCoord(x4, y4);
+			this.mesh.vertex(x+scale, y-scale, z-scale);
+		this.mesh.endStrip();
 		
 	}
 
@@ -487,19 +958,19 @@ public abstract class Chunk {
 		float tdx = TEX256*tex_width;
 		float tdy = TEX512*tex_height;
 
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(bx, by);
-			GL11.glVertex3f(x1, y+height, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(bx, by);
+			this.mesh.vertex(x1, y+height, z1);
 	
-			GL11.glTexCoord2f(bx+tdx, by);
-			GL11.glVertex3f(x2, y+height, z2);
+			this.mesh.texCoord(bx+tdx, by);
+			this.mesh.vertex(x2, y+height, z2);
 	
-			GL11.glTexCoord2f(bx, by+tdy);
-			GL11.glVertex3f(x1, y, z1);
+			this.mesh.texCoord(bx, by+tdy);
+			this.mesh.vertex(x1, y, z1);
 	
-			GL11.glTexCoord2f(bx+tdx, by+tdy);
-			GL11.glVertex3f(x2, y, z2);
-		GL11.glEnd();
+			this.mesh.texCoord(bx+tdx, by+tdy);
+			this.mesh.vertex(x2, y, z2);
+		this.mesh.endStrip();
 	}
 	
 	/**
@@ -522,19 +993,19 @@ public abstract class Chunk {
 	 */
 	public void renderNonstandardVertical(float tx, float ty, float tdx, float tdy, float x1, float y1, float z1, float x2, float y2, float z2)
 	{
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(tx, ty);
-			GL11.glVertex3f(x1, y1, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(tx, ty);
+			this.mesh.vertex(x1, y1, z1);
 			
-			GL11.glTexCoord2f(tx+tdx, ty);
-			GL11.glVertex3f(x2, y1, z2);
+			this.mesh.texCoord(tx+tdx, ty);
+			this.mesh.vertex(x2, y1, z2);
 			
-			GL11.glTexCoord2f(tx, ty+tdy);
-			GL11.glVertex3f(x1, y2, z1);
+			this.mesh.texCoord(tx, ty+tdy);
+			this.mesh.vertex(x1, y2, z1);
 			
-			GL11.glTexCoord2f(tx+tdx, ty+tdy);
-			GL11.glVertex3f(x2, y2, z2);
-		GL11.glEnd();
+			this.mesh.texCoord(tx+tdx, ty+tdy);
+			this.mesh.vertex(x2, y2, z2);
+		this.mesh.endStrip();
 	}
 	
 	/**
@@ -560,19 +1031,19 @@ public abstract class Chunk {
 	 */
 	public void renderNonstandardVerticalTexRotate(float tx, float ty, float tdx, float tdy, float x1, float y1, float z1, float x2, float y2, float z2)
 	{
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(tx+tdx, ty);
-			GL11.glVertex3f(x1, y1, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(tx+tdx, ty);
+			this.mesh.vertex(x1, y1, z1);
 			
-			GL11.glTexCoord2f(tx+tdx, ty+tdy);
-			GL11.glVertex3f(x2, y1, z2);
+			this.mesh.texCoord(tx+tdx, ty+tdy);
+			this.mesh.vertex(x2, y1, z2);
 			
-			GL11.glTexCoord2f(tx, ty);
-			GL11.glVertex3f(x1, y2, z1);
+			this.mesh.texCoord(tx, ty);
+			this.mesh.vertex(x1, y2, z1);
 			
-			GL11.glTexCoord2f(tx, ty+tdy);
-			GL11.glVertex3f(x2, y2, z2);
-		GL11.glEnd();
+			this.mesh.texCoord(tx, ty+tdy);
+			this.mesh.vertex(x2, y2, z2);
+		this.mesh.endStrip();
 	}
 
 	/**
@@ -602,37 +1073,37 @@ public abstract class Chunk {
 		float tdx = TEX256*tex_width;
 		float tdy = TEX512*tex_height;
 
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
+		this.mesh.beginStrip();
 			
 			if (flip_tex)
 			{
-				GL11.glTexCoord2f(bx, by);
-				GL11.glVertex3f(x1, y, z2);
+				this.mesh.texCoord(bx, by);
+				this.mesh.vertex(x1, y, z2);
 		
-				GL11.glTexCoord2f(bx+tdx, by);
-				GL11.glVertex3f(x2, y, z2);
+				this.mesh.texCoord(bx+tdx, by);
+				this.mesh.vertex(x2, y, z2);
 		
-				GL11.glTexCoord2f(bx, by+tdy);
-				GL11.glVertex3f(x1, y, z1);
+				this.mesh.texCoord(bx, by+tdy);
+				this.mesh.vertex(x1, y, z1);
 		
-				GL11.glTexCoord2f(bx+tdx, by+tdy);
-				GL11.glVertex3f(x2, y, z1);
+				this.mesh.texCoord(bx+tdx, by+tdy);
+				this.mesh.vertex(x2, y, z1);
 			}
 			else
 			{
-				GL11.glTexCoord2f(bx, by);
-				GL11.glVertex3f(x1, y, z1);
+				this.mesh.texCoord(bx, by);
+				this.mesh.vertex(x1, y, z1);
 		
-				GL11.glTexCoord2f(bx+tdx, by);
-				GL11.glVertex3f(x1, y, z2);
+				this.mesh.texCoord(bx+tdx, by);
+				this.mesh.vertex(x1, y, z2);
 		
-				GL11.glTexCoord2f(bx, by+tdy);
-				GL11.glVertex3f(x2, y, z1);
+				this.mesh.texCoord(bx, by+tdy);
+				this.mesh.vertex(x2, y, z1);
 		
-				GL11.glTexCoord2f(bx+tdx, by+tdy);
-				GL11.glVertex3f(x2, y, z2);
+				this.mesh.texCoord(bx+tdx, by+tdy);
+				this.mesh.vertex(x2, y, z2);
 			}
-		GL11.glEnd();
+		this.mesh.endStrip();
 	}
 	
 	/**
@@ -655,19 +1126,19 @@ public abstract class Chunk {
 		float bx = precalcSpriteSheetToTextureX[t];
 		float by = precalcSpriteSheetToTextureY[t];
 
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(bx, by);
-			GL11.glVertex3f(x1, y, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(bx, by);
+			this.mesh.vertex(x1, y, z1);
 	
-			GL11.glTexCoord2f(bx+TEX16, by);
-			GL11.glVertex3f(x2, y, z2);
+			this.mesh.texCoord(bx+TEX16, by);
+			this.mesh.vertex(x2, y, z2);
 	
-			GL11.glTexCoord2f(bx, by+TEX32);
-			GL11.glVertex3f(x3, y, z3);
+			this.mesh.texCoord(bx, by+TEX32);
+			this.mesh.vertex(x3, y, z3);
 	
-			GL11.glTexCoord2f(bx+TEX16, by+TEX32);
-			GL11.glVertex3f(x4, y, z4);
-		GL11.glEnd();
+			this.mesh.texCoord(bx+TEX16, by+TEX32);
+			this.mesh.vertex(x4, y, z4);
+		this.mesh.endStrip();
 	}
 	
 	/**
@@ -686,19 +1157,19 @@ public abstract class Chunk {
 	 * @param y
 	 */
 	public void renderNonstandardHorizontal(float tx, float ty, float tdx, float tdy, float x1, float z1, float x2, float z2, float y) {
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(tx, ty);
-			GL11.glVertex3f(x1, y, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(tx, ty);
+			this.mesh.vertex(x1, y, z1);
 	
-			GL11.glTexCoord2f(tx+tdx, ty);
-			GL11.glVertex3f(x1, y, z2);
+			this.mesh.texCoord(tx+tdx, ty);
+			this.mesh.vertex(x1, y, z2);
 	
-			GL11.glTexCoord2f(tx, ty+tdy);
-			GL11.glVertex3f(x2, y, z1);
+			this.mesh.texCoord(tx, ty+tdy);
+			this.mesh.vertex(x2, y, z1);
 	
-			GL11.glTexCoord2f(tx+tdx, ty+tdy);
-			GL11.glVertex3f(x2, y, z2);
-		GL11.glEnd();
+			this.mesh.texCoord(tx+tdx, ty+tdy);
+			this.mesh.vertex(x2, y, z2);
+		this.mesh.endStrip();
 	}
 
 	/**
@@ -720,19 +1191,19 @@ public abstract class Chunk {
 	 * @param y
 	 */
 	public void renderNonstandardHorizontalTexRotate(float tx, float ty, float tdx, float tdy, float x1, float z1, float x2, float z2, float y) {
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(tx+tdx, ty);
-			GL11.glVertex3f(x1, y, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(tx+tdx, ty);
+			this.mesh.vertex(x1, y, z1);
 	
-			GL11.glTexCoord2f(tx+tdx, ty+tdy);
-			GL11.glVertex3f(x1, y, z2);
+			this.mesh.texCoord(tx+tdx, ty+tdy);
+			this.mesh.vertex(x1, y, z2);
 	
-			GL11.glTexCoord2f(tx, ty);
-			GL11.glVertex3f(x2, y, z1);
+			this.mesh.texCoord(tx, ty);
+			this.mesh.vertex(x2, y, z1);
 	
-			GL11.glTexCoord2f(tx, ty+tdy);
-			GL11.glVertex3f(x2, y, z2);
-		GL11.glEnd();
+			this.mesh.texCoord(tx, ty+tdy);
+			this.mesh.vertex(x2, y, z2);
+		this.mesh.endStrip();
 	}
 
 	/**
@@ -761,19 +1232,19 @@ public abstract class Chunk {
 		float tx = precalcSpriteSheetToTextureX[t];
 		float ty = precalcSpriteSheetToTextureY[t];
 
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
-			GL11.glTexCoord2f(tx, ty);
-			GL11.glVertex3f(x1, y1, z1);
+		this.mesh.beginStrip();
+			this.mesh.texCoord(tx, ty);
+			this.mesh.vertex(x1, y1, z1);
 	
-			GL11.glTexCoord2f(tx+TEX16, ty);
-			GL11.glVertex3f(x2, y2, z2);
+			this.mesh.texCoord(tx+TEX16, ty);
+			this.mesh.vertex(x2, y2, z2);
 	
-			GL11.glTexCoord2f(tx, ty+TEX32);
-			GL11.glVertex3f(x3, y3, z3);
+			this.mesh.texCoord(tx, ty+TEX32);
+			this.mesh.vertex(x3, y3, z3);
 	
-			GL11.glTexCoord2f(tx+TEX16, ty+TEX32);
-			GL11.glVertex3f(x4, y4, z4);
-		GL11.glEnd();
+			this.mesh.texCoord(tx+TEX16, ty+TEX32);
+			this.mesh.vertex(x4, y4, z4);
+		this.mesh.endStrip();
 		
 	}
 	
@@ -811,27 +1282,27 @@ public abstract class Chunk {
 		
 		float xoff=0.5f;
 		
-		GL11.glBegin(GL11.GL_TRIANGLE_STRIP);
+		this.mesh.beginStrip();
 		
-			GL11.glTexCoord2f(bx, by+TEX32);
-			GL11.glVertex3f(x+xoff, y-0.5f, z-0.5f);
+			this.mesh.texCoord(bx, by+TEX32);
+			this.mesh.vertex(x+xoff, y-0.5f, z-0.5f);
 	
-			GL11.glTexCoord2f(bx, by+TEX64);
-			GL11.glVertex3f(x+xoff, y, z-0.5f);
+			this.mesh.texCoord(bx, by+TEX64);
+			this.mesh.vertex(x+xoff, y, z-0.5f);
 			
-			GL11.glTexCoord2f(bx+TEX16, by+TEX32);
-			GL11.glVertex3f(x-xoff, y-0.5f, z-0.5f);
+			this.mesh.texCoord(bx+TEX16, by+TEX32);
+			this.mesh.vertex(x-xoff, y-0.5f, z-0.5f);
 	
-			GL11.glTexCoord2f(bx+TEX32, by+TEX64);
-			GL11.glVertex3f(x, y, z-0.5f);
+			this.mesh.texCoord(bx+TEX32, by+TEX64);
+			this.mesh.vertex(x, y, z-0.5f);
 	
-			GL11.glTexCoord2f(bx+TEX16, by);
-			GL11.glVertex3f(x-xoff, y+0.5f, z-0.5f);
+			this.mesh.texCoord(bx+TEX16, by);
+			this.mesh.vertex(x-xoff, y+0.5f, z-0.5f);
 			
-			GL11.glTexCoord2f(bx+TEX32, by);
-			GL11.glVertex3f(x, y+0.5f, z-0.5f);
+			this.mesh.texCoord(bx+TEX32, by);
+			this.mesh.vertex(x, y+0.5f, z-0.5f);
 
-		GL11.glEnd();
+		this.mesh.endStrip();
 	}	
 	
 	/**
@@ -1111,14 +1582,14 @@ public abstract class Chunk {
 			top_tex_height = tex_height;
 		}
 
-		// Math is for suckers; let's let the video hardware take care of rotation
+		// Math is for suckers; let's let the mesh's matrix take care of rotation
 		// Relatedly, is this how I should be drawing *everything?*  Draw relative
 		// to the origin for the actual verticies, and then translate?
 		if (do_rotate)
 		{
-			GL11.glPushMatrix();
-			GL11.glTranslatef(tx, ty, tz);
-			GL11.glRotatef((float)rotate_degrees, rotate_x, 0f, rotate_z);
+			this.mesh.pushMatrix();
+			this.mesh.translate(tx, ty, tz);
+			this.mesh.rotate((float)rotate_degrees, rotate_x, 0f, rotate_z);
 		}
 		
 		// First draw the borders
@@ -1143,7 +1614,7 @@ public abstract class Chunk {
 
 		if (do_rotate)
 		{
-			GL11.glPopMatrix();
+			this.mesh.popMatrix();
 		}
 	}
 	
@@ -1553,24 +2024,24 @@ public abstract class Chunk {
 		data &= 0x3;
 
 		// Use GL to rotate these properly
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// We're drawing the bed with the head facing East (direction 2)
 		if (data == 0)
 		{
 			// Pointing West
-			GL11.glRotatef(180f, 0f, 1f, 0f);
+			this.mesh.rotate(180f, 0f, 1f, 0f);
 		}
 		else if (data == 1)
 		{
 			// Pointing South
-			GL11.glRotatef(90f, 0f, 1f, 0f);
+			this.mesh.rotate(90f, 0f, 1f, 0f);
 		}
 		else if (data == 3)
 		{
 			// Pointing North
-			GL11.glRotatef(-90f, 0f, 1f, 0f);
+			this.mesh.rotate(-90f, 0f, 1f, 0f);
 		}
 
 		float end_tex_x, end_tex_y;
@@ -1608,7 +2079,7 @@ public abstract class Chunk {
 		this.renderNonstandardVertical(end_tex_x, end_tex_y, TEX16, bed_tex_height, side_part, bed_height-side_full, end_z, -side_part, -side_full, end_z);
 
 		// Pop the matrix
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 	
 	/**
@@ -1741,29 +2212,29 @@ public abstract class Chunk {
 		float tex_dy = TEX32 * twidth;
 
 		// Use GL to rotate these properly
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 		if (swung)
 		{
 			if (dir == 0)
 			{
 				// South
-				GL11.glRotatef(-90f, 1f, 0f, 0f);
+				this.mesh.rotate(-90f, 1f, 0f, 0f);
 			}
 			else if (dir == 1)
 			{
 				// North
-				GL11.glRotatef(90f, 1f, 0f, 0f);
+				this.mesh.rotate(90f, 1f, 0f, 0f);
 			}
 			else if (dir == 2)
 			{
 				// East
-				GL11.glRotatef(90f, 0f, 0f, 1f);
+				this.mesh.rotate(90f, 0f, 0f, 1f);
 			}
 			else
 			{
 				// West
-				GL11.glRotatef(-90f, 0f, 0f, 1f);
+				this.mesh.rotate(-90f, 0f, 0f, 1f);
 			}
 		}
 		
@@ -1785,7 +2256,7 @@ public abstract class Chunk {
 				-.5f+toff, -.5f+toff,       -.5f+toff,
 				.5f-toff, -.5f+toff+twidth, -.5f+toff);
 
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 
 	/**
@@ -2045,8 +2516,8 @@ public abstract class Chunk {
 		float y = yyy;
 
 		// GL stuff; only draw one way
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 		
 		byte data = getData(xxx, yyy, zzz);
 		boolean top = ((data & 0x4) == 0x4);
@@ -2069,7 +2540,7 @@ public abstract class Chunk {
 		{
 			case 0:
 				// Ascending to the east, descending to the west
-				GL11.glRotatef(180f, 0f, 1f, 0f);
+				this.mesh.rotate(180f, 0f, 1f, 0f);
 				left_id = getAdjBlockId(xxx, yyy, zzz, FACING.SOUTH, blockOffset);
 				left_data = getAdjSouthBlockData(xxx, yyy, zzz);
 				right_id = getAdjBlockId(xxx, yyy, zzz, FACING.NORTH, blockOffset);
@@ -2092,7 +2563,7 @@ public abstract class Chunk {
 
 			case 2:
 				// Ascending to the south, descending to the north
-				GL11.glRotatef(90f, 0f, 1f, 0f);
+				this.mesh.rotate(90f, 0f, 1f, 0f);
 				left_id = getAdjBlockId(xxx, yyy, zzz, FACING.WEST, blockOffset);
 				left_data = getAdjWestBlockData(xxx, yyy, zzz);
 				right_id = getAdjBlockId(xxx, yyy, zzz, FACING.EAST, blockOffset);
@@ -2105,7 +2576,7 @@ public abstract class Chunk {
 			case 3:
 			default:
 				// Ascending to the north, descending to the south
-				GL11.glRotatef(270f, 0f, 1f, 0f);
+				this.mesh.rotate(270f, 0f, 1f, 0f);
 				left_id = getAdjBlockId(xxx, yyy, zzz, FACING.EAST, blockOffset);
 				left_data = getAdjEastBlockData(xxx, yyy, zzz);
 				right_id = getAdjBlockId(xxx, yyy, zzz, FACING.WEST, blockOffset);
@@ -2118,7 +2589,7 @@ public abstract class Chunk {
 
 		if (top)
 		{
-			GL11.glScalef(1f, -1f, 1f);
+			this.mesh.scale(1f, -1f, 1f);
 			top_id = getAdjBlockId(xxx, yyy, zzz, FACING.BOTTOM, blockOffset);
 			top_data = getAdjDownBlockData(xxx, yyy, zzz);
 			bottom_id = getAdjBlockId(xxx, yyy, zzz, FACING.TOP, blockOffset);
@@ -2202,7 +2673,7 @@ public abstract class Chunk {
 		this.renderVertical(textureId, 0f, .5f, 0f, -.5f, 0f, .5f, 16, 8, 0, 0);
 
 		// aaand pop our GL matrix
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 		
 	}
 	
@@ -2611,18 +3082,18 @@ public abstract class Chunk {
 		int dir = (data & 0x3);
 
 		// GL stuff; only draw one way
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 		switch (dir)
 		{
 			case 1:
-				GL11.glRotatef(270f, 0f, 1f, 0f);
+				this.mesh.rotate(270f, 0f, 1f, 0f);
 				break;
 			case 2:
-				GL11.glRotatef(180f, 0f, 1f, 0f);
+				this.mesh.rotate(180f, 0f, 1f, 0f);
 				break;
 			case 3:
-				GL11.glRotatef(90f, 0f, 1f, 0f);
+				this.mesh.rotate(90f, 0f, 1f, 0f);
 				break;
 			case 0:
 			default:
@@ -2706,7 +3177,7 @@ public abstract class Chunk {
 		}
 
 		// aaand pop our GL matrix
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 
 	/**
@@ -2875,29 +3346,29 @@ public abstract class Chunk {
 		float TEX_PISTON = TEX128*3f;
 
 		// Use GL to rotate these properly
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// This routine draws the piston facing south, which is direction value 3
 		if (direction == 1)
 		{
 			// Up
-			GL11.glRotatef(-90f, 1f, 0f, 0f);
+			this.mesh.rotate(-90f, 1f, 0f, 0f);
 		}
 		else if (direction == 2)
 		{
 			// North
-			GL11.glRotatef(180f, 0f, 1f, 0f);
+			this.mesh.rotate(180f, 0f, 1f, 0f);
 		}
 		else if (direction == 4)
 		{
 			// West
-			GL11.glRotatef(-90f, 0f, 1f, 0f);
+			this.mesh.rotate(-90f, 0f, 1f, 0f);
 		}
 		else if (direction == 5)
 		{
 			// East
-			GL11.glRotatef(90f, 0f, 1f, 0f);
+			this.mesh.rotate(90f, 0f, 1f, 0f);
 		}
 
 		// First the main body bit
@@ -2913,12 +3384,12 @@ public abstract class Chunk {
 			renderVertical(block.texture_extra_map.get("front")+tex_offset, -.49f, .25f, .49f, .25f, -.49f, .98f);
 
 			// Pop the matrix after
-			GL11.glPopMatrix();
+			this.mesh.popMatrix();
 		}
 		else
 		{
 			// Pop the matrix before
-			GL11.glPopMatrix();
+			this.mesh.popMatrix();
 
 			renderPistonHead(block.texture_extra_map.get("head")+tex_offset, xxx, yyy, zzz, BLOCK_PISTON_HEAD, tex_offset,
 					true, (block.id == BLOCK_PISTON_STICKY_BODY.id));
@@ -2958,29 +3429,29 @@ public abstract class Chunk {
 		float side_tex_y = precalcSpriteSheetToTextureY[block.texture_extra_map.get("body")+tex_offset];
 
 		// Matrix stuff
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// This routine draws the piston facing south, which is direction value 3
 		if (direction == 1)
 		{
 			// Up
-			GL11.glRotatef(-90f, 1f, 0f, 0f);
+			this.mesh.rotate(-90f, 1f, 0f, 0f);
 		}
 		else if (direction == 2)
 		{
 			// North
-			GL11.glRotatef(180f, 0f, 1f, 0f);
+			this.mesh.rotate(180f, 0f, 1f, 0f);
 		}
 		else if (direction == 4)
 		{
 			// West
-			GL11.glRotatef(-90f, 0f, 1f, 0f);
+			this.mesh.rotate(-90f, 0f, 1f, 0f);
 		}
 		else if (direction == 5)
 		{
 			// East
-			GL11.glRotatef(90f, 0f, 1f, 0f);
+			this.mesh.rotate(90f, 0f, 1f, 0f);
 		}
 
 		// Outside edges
@@ -3020,7 +3491,7 @@ public abstract class Chunk {
 		renderVertical(textureId, -.49f, .49f, .49f, .49f, -.49f, .98f);
 
 		// Pop the matrix
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 	
 	/**
@@ -3074,8 +3545,8 @@ public abstract class Chunk {
 		float actual_width = (6f-(float)bites_eaten)/6f;
 
 		// Use GL to rotate these properly
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// Note that cake will always be eaten from the West
 		// Knowing that, draw the east face, first
@@ -3109,7 +3580,7 @@ public abstract class Chunk {
 				0f);
 
 		// Pop the matrix
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 	
 	/**
@@ -3248,8 +3719,8 @@ public abstract class Chunk {
 		byte orientation = getData(xxx, yyy, zzz);
 
 		// Use GL to rotate these properly
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// Find out if we have adjacent chests, and rotate.  Our "have_right" and
 		// "have_left" booleans are a little bit at odds with the orientation of the
@@ -3263,19 +3734,19 @@ public abstract class Chunk {
 				// Facing West
 				have_right = (getAdjBlockId(xxx, yyy, zzz, FACING.SOUTH, blockOffset) == block.id);
 				have_left = (getAdjBlockId(xxx, yyy, zzz, FACING.NORTH, blockOffset) == block.id);
-				GL11.glRotatef(270f, 0f, 1f, 0f);
+				this.mesh.rotate(270f, 0f, 1f, 0f);
 				break;
 			case 5:
 				// Facing East
 				have_right = (getAdjBlockId(xxx, yyy, zzz, FACING.NORTH, blockOffset) == block.id);
 				have_left = (getAdjBlockId(xxx, yyy, zzz, FACING.SOUTH, blockOffset) == block.id);
-				GL11.glRotatef(90f, 0f, 1f, 0f);
+				this.mesh.rotate(90f, 0f, 1f, 0f);
 				break;
 			case 2:
 				// Facing North
 				have_right = (getAdjBlockId(xxx, yyy, zzz, FACING.WEST, blockOffset) == block.id);
 				have_left = (getAdjBlockId(xxx, yyy, zzz, FACING.EAST, blockOffset) == block.id);
-				GL11.glRotatef(180f, 0f, 1f, 0f);
+				this.mesh.rotate(180f, 0f, 1f, 0f);
 				break;
 			case 3:
 			default:
@@ -3314,7 +3785,7 @@ public abstract class Chunk {
 		}
 
 		// Pop the matrix
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 
 	
@@ -3404,16 +3875,16 @@ public abstract class Chunk {
 			float height = stats.getHeight();
 
 			// Use GL to rotate these properly
-			GL11.glPushMatrix();
-			GL11.glTranslatef(x, y, z);
-			GL11.glRotatef(rotate, 0f, 1f, 0f);
+			this.mesh.pushMatrix();
+			this.mesh.translate(x, y, z);
+			this.mesh.rotate(rotate, 0f, 1f, 0f);
 
 			this.renderNonstandardVertical(tex_begin_x, tex_begin_y, tex_width, tex_height,
 				-.5f, -.5f+height, 0f,
 				-.5f+width, -.5f, 0f);
 
 			// Pop the matrix
-			GL11.glPopMatrix();
+			this.mesh.popMatrix();
 		}
 		else
 		{
@@ -3451,8 +3922,8 @@ public abstract class Chunk {
 			data = 3;
 		}
 
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		int inside_tex = block.texture_extra_map.get("inside")+tex_offset;
 
@@ -3480,7 +3951,7 @@ public abstract class Chunk {
 		// Top
 		renderHorizontal(block.texture_extra_map.get("top")+tex_offset, edge, edge, -edge, -edge, height-.5f);
 
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 	
 	/**
@@ -3503,8 +3974,8 @@ public abstract class Chunk {
 		float height = .75f;
 		float bottom = -.5f;
 
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		int side_tex = block.texture_extra_map.get("sides") + tex_offset;
 
@@ -3523,7 +3994,7 @@ public abstract class Chunk {
 		renderVertical(side_tex, edge, edge, edge, -edge, bottom, height, 16, 12, 0, 4);
 		renderVertical(side_tex, -edge, edge, -edge, -edge, bottom, height, 16, 12, 0, 4);
 
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 
 	/**
@@ -3785,8 +4256,8 @@ public abstract class Chunk {
 		int tex_bottom = block.texture_extra_map.get("bottom")+tex_offset;
 		int tex_eye = block.texture_extra_map.get("eye")+tex_offset;
 
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// First draw the base, regardless of eye state
 		adj = getAdjBlockId(xxx, yyy, zzz, FACING.WEST, blockOffset);
@@ -3822,7 +4293,7 @@ public abstract class Chunk {
 			renderHorizontal(tex_eye, -eye_side, -eye_side, eye_side, eye_side, side, 8, 8, 4, 4, false);
 		}
 
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 	
 	/**
@@ -3878,8 +4349,8 @@ public abstract class Chunk {
 		if ((data & 0x2) == 0x2) { potion_0x2 = true; }
 		if ((data & 0x4) == 0x4) { potion_0x4 = true; }
 
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// Center post
 		renderVertical(textureId, one, one, -one, one, -eight, postheight, 2, 14, 7, 2);
@@ -3955,7 +4426,7 @@ public abstract class Chunk {
 				dist, potion_abs_bottom, -dist);
 		}
 
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 
 	/**
@@ -3978,8 +4449,8 @@ public abstract class Chunk {
 		float height = .75f;
 		float sides = .4375f;
 
-		GL11.glPushMatrix();
-		GL11.glTranslatef(x, y, z);
+		this.mesh.pushMatrix();
+		this.mesh.translate(x, y, z);
 
 		// Sides
 		renderVertical(textureId, -sides, -sides, sides, -sides, bottom, height, 14, 12, 1, 4);
@@ -3991,43 +4462,31 @@ public abstract class Chunk {
 		renderHorizontal(textureId, -sides, -sides, sides, sides, top, 14, 14, 1, 1, false);
 		renderHorizontal(textureId, -sides, -sides, sides, sides, bottom_base, 14, 14, 1, 1, false);
 
-		GL11.glPopMatrix();
+		this.mesh.popMatrix();
 	}
 
-	public void renderWorldSolids(int sheet)
-	{
-		renderWorld(RENDER_PASS.SOLIDS, sheet, null);
-	}
-
-	public void renderWorldNonstandard(int sheet)
-	{
-		renderWorld(RENDER_PASS.NONSTANDARD, sheet, null);
-	}
-
-	public void renderWorldGlass(int sheet)
-	{
-		renderWorld(RENDER_PASS.GLASS, sheet, null);
-	}
-
-	public void renderWorldSelected(int sheet, boolean[] selectedMap)
-	{
-		renderWorld(RENDER_PASS.SELECTED, sheet, selectedMap);
-	}
-	
 	/**
-	 * Renders our chunk.
+	 * Renders our chunk in a single walk over its blocks, sorting everything
+	 * into the bucket for its texture sheet and render pass; see buildMeshes().
 	 * 
-	 * @param pass What pass of rendering are we processing?
-	 * @param sheet Which texture sheet are we currently rendering?
-	 * @param selectedMap If in RENDER_PASS.SELECTED, here's a HashMap to which ones to highlight.
+	 * @param buckets Where our geometry goes
+	 * @param selecting Whether we're doing RENDER_PASS.SELECTED rather than the other passes
+	 * @param selectedMap If selecting, which ores to highlight.
 	 */
-	public void renderWorld(RENDER_PASS pass, int sheet, boolean[] selectedMap) {
+	public void renderWorld(MeshBuckets buckets, boolean selecting, boolean[] selectedMap) {
+
+		// No need to walk the chunk if none of our selected ores are in it
+		if (selecting && !this.hasSelected(selectedMap))
+		{
+			return;
+		}
 
 		float worldX = this.point.x*16;
 		float worldZ = this.point.z*16;
 		
 		boolean draw = false;
 		int tex_offset = 0;
+		RENDER_PASS pass;
 		BlockType block;
 		boolean highlightingOres = (Utility.toggle.highlightOres != XRay.HIGHLIGHT_TYPE.OFF);
 		short t;
@@ -4037,186 +4496,235 @@ public abstract class Chunk {
 		byte data;
 		int north_t, south_t, west_t, east_t, top_t, bottom_t;
 
-		// This is to support dynamically highlighting "regular" blocks based on their
-		// face.  It's quite slow to do the tinting down at the bottom on a per-block
-		// basis, so instead we're going to loop through each face.  (Meaning that for solid
-		// blocks, we're looping through the whole chunk four times, in addition to all
-		// the other passes that the other functions use.  Alas!)
-		FACING[] facingPasses;
-		if (pass == RENDER_PASS.SOLIDS || pass == RENDER_PASS.SELECTED)
-		{
-			facingPasses = new FACING[] { FACING.TOP, FACING.BOTTOM, FACING.NORTH, FACING.SOUTH, FACING.WEST, FACING.EAST };
-		}
-		else
+		// Solid blocks are shaded differently on each face.  That shade is
+		// stored on the face's vertices, so one walk over the chunk covers
+		// every facing.  If we're rendering "selected" stuff with highlighting
+		// on, the main XRay loop determines our color instead.
+		boolean shading = (!selecting || !highlightingOres);
+		int faces;
+
+		// Solid faces can be merged into bigger quads, if we've been asked to
+		GreedyMesher greedyMesher = null;
+		if (!selecting && Utility.toggle.greedy_meshing)
 		{
-			facingPasses = new FACING[] { FACING.TOP };
+			greedyMesher = this.level.getGreedyMesher();
+			greedyMesher.begin(this.maxHeight + 1);
 		}
 
-		for (FACING facingPass :  facingPasses)
+		this.rewindLoop();
+		t = 0;
+		while (t != -2)
 		{
-			// If we're rendering "selected" stuff, we want the main XRay
-			// loop to be determining our color
-			if (pass != RENDER_PASS.SELECTED || !highlightingOres)
+			// Grab our block type
+			t = this.nextBlock();
+			if(t < 1) {
+				continue;
+			}
+
+			// Get the actual BlockType object
+			block = blockArray[t];
+			if (block == null)
+			{
+				//XRay.logger.debug("Unknown block ID: " + t);
+				block = BLOCK_UNKNOWN;
+			}
+
+			// Figure out which pass this block belongs in
+			if (selecting)
 			{
-				switch (facingPass)
+				// Water never gets highlighted
+				if (block.type == BLOCK_TYPE.WATER)
 				{
-					case TOP:
-						GL11.glColor3f(1f, 1f, 1f);
-						break;
-					case BOTTOM:
-						GL11.glColor3f(.5f, .5f, .5f);
-						break;
-					case WEST:
-					case EAST:
-						GL11.glColor3f(.83f, .83f, .83f);
-						break;
-					case NORTH:
-					case SOUTH:
-						GL11.glColor3f(.66f, .66f, .66f);
-						break;
+					continue;
 				}
+				pass = RENDER_PASS.SELECTED;
 			}
-		
-			this.rewindLoop();
-			t = 0;
-			while (t != -2)
+			else if (block.type == BLOCK_TYPE.WATER)
 			{
-				// Grab our block type
-				t = this.nextBlock();
-				if(t < 1) {
+				if (!Utility.toggle.render_water)
+				{
 					continue;
 				}
+				pass = RENDER_PASS.NONSTANDARD;
+			}
+			else if (block.type == BLOCK_TYPE.GLASS || block.type == BLOCK_TYPE.SOLID_PANE)
+			{
+				pass = RENDER_PASS.GLASS;
+			}
+			else if (block.isSolid())
+			{
+				pass = RENDER_PASS.SOLIDS;
+			}
+			else
+			{
+				pass = RENDER_PASS.NONSTANDARD;
+			}
+			
+			// Grab our texture ID and verify it
+			textureId = block.tex_idx;
+			if(textureId == -1) {
+				//XRay.logger.debug("Unknown block id: " + t);
+				continue;
+			}
+			
+			// Set up our intitial drawing parameters.  "faces" is a bitmask of
+			// which FACINGs to draw for solid blocks; zero means the block draws
+			// itself in one go.
+			faces = 0;
+			switch (pass)
+			{
+				case SOLIDS:
+					// Check for adjacent blocks
+					for (FACING facing : SOLID_FACINGS)
+					{
+						short adj = getAdjBlockId(this.l.x, this.l.y, this.l.z, facing, this.lOffset);
+						if (checkSolid(adj) || (Utility.toggle.render_bedrock && t == BLOCK_BEDROCK.id && adj != BLOCK_BEDROCK.id))
+						{
+							faces |= (1 << facing.ordinal());
+						}
+					}
+					draw = (faces != 0);
+					break;
 
-				// Get the actual BlockType object
-				block = blockArray[t];
-				if (block == null)
+				case NONSTANDARD:
+				case GLASS:
+					draw = true;
+					break;
+
+				case SELECTED:
+					draw = false;
+					for(int i=0;i<selectedMap.length;i++) {
+						if(selectedMap[i] && level.HIGHLIGHT_ORES[i] == t) {
+							// TODO: should maybe check our boundaries for similar ores, like we do for regular blocks
+							draw = true;
+							break;
+						}
+					}
+					if (block.isSolid())
+					{
+						faces = ALL_FACES;
+					}
+					break;
+
+				default:
+					// Should never get here
+					continue;
+			}
+			
+			// Continue on to the actual rendering
+			if (draw)
+			{
+				// Check to see if this block type has a texture ID which changes depending
+				// on the block's data value
+				if (block.texture_data_map != null)
 				{
-					//XRay.logger.debug("Unknown block ID: " + t);
-					block = BLOCK_UNKNOWN;
+					data = getData(this.l.x, this.l.y, this.l.z);
+					data &= block.tex_data_mask;
+
+					// Now try to get the new texture
+					try
+					{
+						textureId = block.texture_data_map.get(data);
+					}
+					catch (NullPointerException e)
+					{
+						// Just report and continue
+						Utility.logger.debug("Unknown data value for block " + block.idStr + ": " + data);
+					}
 				}
 
-				// Check our texture sheet
-				if (sheet != block.getTexSheet())
+				// If we're highlighting explored regions and there's an adjacent
+				// torch, flip over to the "highlighted" textures
+				if (Utility.toggle.highlight_explored)
 				{
-					continue;
+					if (this.level.lightSources.check(this.chunkOffset.x + this.l.x, this.l.y, this.chunkOffset.z + this.l.z))
+					{
+						textureId += 256;
+						tex_offset = 256;
+					}
+					else
+					{
+						tex_offset = 0;
+					}
 				}
-				
-				// Doublecheck for water
-				if ((pass != RENDER_PASS.NONSTANDARD && block.type == BLOCK_TYPE.WATER) ||
-						(!Utility.toggle.render_water && block.type == BLOCK_TYPE.WATER))
+				else
 				{
-					continue;
+					tex_offset = 0;
 				}
 
-				// Doublecheck for glass stuffs
-				if ((pass == RENDER_PASS.GLASS && (block.type != BLOCK_TYPE.GLASS && block.type != BLOCK_TYPE.SOLID_PANE)) ||
-						(pass != RENDER_PASS.SELECTED &&
-						 pass != RENDER_PASS.GLASS && (block.type == BLOCK_TYPE.GLASS || block.type == BLOCK_TYPE.SOLID_PANE)))
+				// Now process the actual drawing
+				this.mesh = buckets.get(block.getTexSheet(), pass);
+				if (pass == RENDER_PASS.SOLIDS && greedyMesher != null)
 				{
-					continue;
-				}
-				
-				// Grab our texture ID and verify it
-				textureId = block.tex_idx;
-				if(textureId == -1) {
-					//XRay.logger.debug("Unknown block id: " + t);
-					continue;
+					this.greedy = greedyMesher;
+					this.greedySheet = block.getTexSheet();
 				}
-				
-				// Set up our intitial drawing parameters
-				switch (pass)
+				else
 				{
-					case SOLIDS:
-						if (!block.isSolid())
-						{
-							continue;
-						}
-						draw = false;
-
-						// Check for adjacent blocks
-						draw = checkSolid(getAdjBlockId(this.l.x, this.l.y, this.l.z, facingPass, this.lOffset))
-							|| (
-								Utility.toggle.render_bedrock
-								&& t == BLOCK_BEDROCK.id
-								&& getAdjBlockId(this.l.x, this.l.y, this.l.z, facingPass, this.lOffset) != BLOCK_BEDROCK.id);
-						break;
-
-					case NONSTANDARD:
-						if (block.isSolid())
-						{
-							continue;
-						}
-						draw = true;
-						break;
-
-					case GLASS:
-						// If we got here, our checks above would have made sure that we're
-						// only dealing with the proper materials.
-						draw = true;
-						break;
-
-					case SELECTED:
-						draw = false;
-						for(int i=0;i<selectedMap.length;i++) {
-							if(selectedMap[i] && level.HIGHLIGHT_ORES[i] == t) {
-								// TODO: should maybe check our boundaries for similar ores, like we do for regular blocks
-								draw = true;
-								break;
-							}
-						}
-						break;
-
-					default:
-						// Should never get here
-						continue;
+					this.greedy = null;
 				}
-				
-				// Continue on to the actual rendering
-				if (draw)
+				if (faces == 0)
 				{
-					// Check to see if this block type has a texture ID which changes depending
-					// on the block's data value
-					if (block.texture_data_map != null)
+					if (shading)
 					{
-						data = getData(this.l.x, this.l.y, this.l.z);
-						data &= block.tex_data_mask;
-
-						// Now try to get the new texture
-						try
-						{
-							textureId = block.texture_data_map.get(data);
-						}
-						catch (NullPointerException e)
-						{
-							// Just report and continue
-							Utility.logger.debug("Unknown data value for block " + block.idStr + ": " + data);
-						}
+						this.shadeFace(FACING.TOP);
 					}
-
-					// If we're highlighting explored regions and there's an adjacent
-					// torch, flip over to the "highlighted" textures
-					if (Utility.toggle.highlight_explored)
+					renderBlockType(block, textureId, tex_offset, t, FACING.TOP);
+				}
+				else
+				{
+					for (FACING facing : SOLID_FACINGS)
 					{
-						if (this.level.lightSources.check(this.chunkOffset.x + this.l.x, this.l.y, this.chunkOffset.z + this.l.z))
+						if ((faces & (1 << facing.ordinal())) != 0)
 						{
-							textureId += 256;
-							tex_offset = 256;
-						}
-						else
-						{
-							tex_offset = 0;
+							if (shading)
+							{
+								this.shadeFace(facing);
+							}
+							renderBlockType(block, textureId, tex_offset, t, facing);
 						}
 					}
-					else
-					{
-						tex_offset = 0;
-					}
-
-					// Now process the actual drawing
-					renderBlockType(block, textureId, tex_offset, t, facingPass);
 				}
 			}
 		}
+
+		this.greedy = null;
+		this.mesh = null;
+		if (greedyMesher != null)
+		{
+			for (FACING facing : SOLID_FACINGS)
+			{
+				greedyMesher.finish(facing, buckets, getFaceShade(facing), worldX, worldZ);
+			}
+		}
+	}
+
+	/**
+	 * Returns the shade for faces pointing the given way, to make the shape
+	 * of solid blocks easier to pick out.
+	 */
+	static float getFaceShade(FACING facing)
+	{
+		switch (facing)
+		{
+			case BOTTOM:
+				return .5f;
+			case WEST:
+			case EAST:
+				return .83f;
+			case NORTH:
+			case SOUTH:
+				return .66f;
+			case TOP:
+			default:
+				return 1f;
+		}
+	}
+
+	private void shadeFace(FACING facing)
+	{
+		float shade = getFaceShade(facing);
+		this.mesh.color(shade, shade, shade);
 	}
 
 	public void renderBlockType(BlockType block, int textureId, int tex_offset, short t, FACING facingPass){
@@ -4567,6 +5075,38 @@ public abstract class Chunk {
 					break;
 			}
 		}
+
+		// And finally draw the face for this pass
+		switch (facingPass)
+		{
+			case TOP:
+				textureId = top_t;
+				break;
+			case BOTTOM:
+				textureId = bottom_t;
+				break;
+			case NORTH:
+				textureId = north_t;
+				break;
+			case SOUTH:
+				textureId = south_t;
+				break;
+			case WEST:
+				textureId = west_t;
+				break;
+			case EAST:
+			default:
+				textureId = east_t;
+				break;
+		}
+		if (this.greedy != null)
+		{
+			this.greedy.add(facingPass, this.l.x, this.l.y, this.l.z, this.greedySheet, textureId);
+		}
+		else
+		{
+			renderBlockFace(textureId, this.l.x + this.point.x*16, this.l.y, this.l.z + this.point.z*16, facingPass);
+		}
 	}
 
 	/**
@@ -4582,6 +5122,23 @@ public abstract class Chunk {
 	 * block-level data, so they have to be handled differently than everything else.
 	 */
 	public void renderPaintings()
+	{
+		if (this.paintingMesh == null)
+		{
+			this.paintingMesh = new MeshBuffer();
+			this.mesh = this.level.getMeshBuilder();
+			this.mesh.reset();
+			this.meshPaintings();
+			this.paintingMesh.upload(this.mesh);
+			this.mesh = null;
+		}
+		this.paintingMesh.draw();
+	}
+
+	/**
+	 * Builds the geometry for our paintings into our current mesh
+	 */
+	private void meshPaintings()
 	{
 		PaintingInfo info;
 		float start_x;
@@ -4676,26 +5233,52 @@ public abstract class Chunk {
 		}
 	}
 	
+	/**
+	 * Builds the geometry for the SOLIDS, NONSTANDARD and GLASS passes over
+	 * every texture sheet into the given buckets, which are reset first.  This
+	 * doesn't touch OpenGL, so it can be done without a context; renderSolid()
+	 * uses it to fill in our MeshBuffers.
+	 */
+	public void buildMeshes(MeshBuckets buckets)
+	{
+		buckets.reset();
+		this.startMeshing();
+		renderWorld(buckets, false, null);
+		this.finishMeshing();
+	}
+
+	/**
+	 * Builds the geometry for RENDER_PASS.SELECTED over every texture sheet
+	 * into the given buckets, which are reset first.
+	 *
+	 * @param buckets Where our geometry goes
+	 * @param selectedMap Which ores to highlight
+	 */
+	public void buildSelectedMeshes(MeshBuckets buckets, boolean[] selectedMap)
+	{
+		buckets.reset();
+		this.startMeshing();
+		renderWorld(buckets, true, selectedMap);
+		this.finishMeshing();
+	}
+
 	public void renderSolid(int sheet) {
 		if (!this.usedTextureSheets.containsKey(sheet))
 		{
 			return;
 		}
-		if(isDirty.get(sheet)) {
-			GL11.glNewList(this.displayListNums.get(sheet), GL11.GL_COMPILE);
-			renderWorldSolids(sheet);
-			GL11.glEndList();
-			GL11.glNewList(this.nonstandardListNums.get(sheet), GL11.GL_COMPILE);
-			//GL11.glDepthMask(false);
-			renderWorldNonstandard(sheet);
-			//GL11.glDepthMask(true);
-			GL11.glEndList();
-			GL11.glNewList(this.glassListNums.get(sheet), GL11.GL_COMPILE);
-			renderWorldGlass(sheet);
-			GL11.glEndList();
-			this.isDirty.put(sheet, false);
-		}
-		GL11.glCallList(this.displayListNums.get(sheet));
+		if(isDirty) {
+			MeshBuckets buckets = this.level.getMeshBuckets();
+			buildMeshes(buckets);
+			for (int usedSheet : this.usedTextureSheets.keySet())
+			{
+				this.solidMeshes.get(usedSheet).upload(buckets.get(usedSheet, RENDER_PASS.SOLIDS));
+				this.nonstandardMeshes.get(usedSheet).upload(buckets.get(usedSheet, RENDER_PASS.NONSTANDARD));
+				this.glassMeshes.get(usedSheet).upload(buckets.get(usedSheet, RENDER_PASS.GLASS));
+			}
+			this.isDirty = false;
+		}
+		this.solidMeshes.get(sheet).draw();
 	}
 	
 	public void renderNonstandard(int sheet) {
@@ -4703,7 +5286,7 @@ public abstract class Chunk {
 		{
 			return;
 		}
-		GL11.glCallList(this.nonstandardListNums.get(sheet));
+		this.nonstandardMeshes.get(sheet).draw();
 	}
 
 	public void renderGlass(int sheet) {
@@ -4711,7 +5294,7 @@ public abstract class Chunk {
 		{
 			return;
 		}
-		GL11.glCallList(this.glassListNums.get(sheet));
+		this.glassMeshes.get(sheet).draw();
 	}
 	
 	public void renderSelected(int sheet, boolean[] selectedMap) {
@@ -4719,13 +5302,16 @@ public abstract class Chunk {
 		{
 			return;
 		}
-		if(isSelectedDirty.get(sheet)) {
-			GL11.glNewList(this.selectedDisplayListNums.get(sheet), GL11.GL_COMPILE);
-			renderWorldSelected(sheet, selectedMap);
-			GL11.glEndList();
-			this.isSelectedDirty.put(sheet, false);
+		if(isSelectedDirty) {
+			MeshBuckets buckets = this.level.getMeshBuckets();
+			buildSelectedMeshes(buckets, selectedMap);
+			for (int usedSheet : this.usedTextureSheets.keySet())
+			{
+				this.selectedMeshes.get(usedSheet).upload(buckets.get(usedSheet, RENDER_PASS.SELECTED));
+			}
+			this.isSelectedDirty = false;
 		}
-		GL11.glCallList(this.selectedDisplayListNums.get(sheet));
+		this.selectedMeshes.get(sheet).draw();
 	}
 
 	/**
@@ -4733,6 +5319,20 @@ public abstract class Chunk {
 	 * bound before we get in here.
 	 */
 	public void renderBorder()
+	{
+		if (this.borderMesh == null)
+		{
+			this.borderMesh = new MeshBuffer();
+			this.mesh = this.level.getMeshBuilder();
+			this.mesh.reset();
+			this.meshBorder();
+			this.borderMesh.upload(this.mesh);
+			this.mesh = null;
+		}
+		this.borderMesh.draw();
+	}
+
+	private void meshBorder()
 	{
 		float x = this.point.x*16-.49f;
 		float z = this.point.z*16-.49f;
@@ -4750,6 +5350,20 @@ public abstract class Chunk {
 	 * var here; that's controlled by the main XRay render loop.
 	 */
 	public void renderSlimeBox()
+	{
+		if (this.slimeMesh == null)
+		{
+			this.slimeMesh = new MeshBuffer();
+			this.mesh = this.level.getMeshBuilder();
+			this.mesh.reset();
+			this.meshSlimeBox();
+			this.slimeMesh.upload(this.mesh);
+			this.mesh = null;
+		}
+		this.slimeMesh.draw();
+	}
+
+	private void meshSlimeBox()
 	{
 		float x = this.point.x*16-.48f;
 		float z = this.point.z*16-.48f;
@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.apocalyptech.minecraft.xray.MinecraftConstants.*;
+
+/**
+ * Everything we want to know about a chunk's blocks which doesn't depend on
+ * what's around it, gathered in a single walk over the chunk when it's
+ * built (on a loader thread).  That's the texture sheets it uses, the light
+ * sources for our "explored" highlighting, the surface heightmap, the
+ * minimap colours, how many of each block ID it has, and which sections
+ * are entirely air.
+ */
+public class ChunkAnalysis
+{
+	// Sorted texture sheet numbers used by any block in the chunk
+	private int[] usedSheets;
+
+	// Light sources, until Chunk.activate() hands them to the level
+	private ArrayList<Block> lightSources;
+
+	// Y of the highest non-air block in each column (z*16 + x), or -1
+	private short[] heightmap;
+
+	// Minimap values, indexed [x][z]
+	private short[][] minimap;
+
+	// Block IDs present in the chunk (sorted), and how many of each
+	private short[] countIds;
+	private int[] counts;
+
+	// Whether each section (y/16) has no blocks in it at all
+	private boolean[] sectionEmpty;
+
+	// Scratch per-ID counts, one per loader thread
+	private static final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>() {
+		protected int[] initialValue()
+		{
+			return new int[4096];
+		}
+	};
+
+	// Scratch per-ID flags for whether that ID is a light source, looked up
+	// once per ID rather than once per block.  Only valid for IDs which
+	// have a count in the scratch counts.
+	private static final ThreadLocal<boolean[]> scratchLights = new ThreadLocal<boolean[]>() {
+		protected boolean[] initialValue()
+		{
+			return new boolean[4096];
+		}
+	};
+
+	private ChunkAnalysis()
+	{
+	}
+
+	/**
+	 * Walks over every block in the chunk once, using its block loop.
+	 */
+	public static ChunkAnalysis analyze(Chunk chunk)
+	{
+		ChunkAnalysis a = new ChunkAnalysis();
+		boolean in_nether = chunk.level.world.isDimension(-1);
+
+		int[] idCounts = scratch.get();
+		boolean[] isLight = scratchLights.get();
+		short[] seenIds = new short[16];
+		int seenCount = 0;
+		boolean[] sheets = new boolean[16];
+
+		a.lightSources = new ArrayList<Block>();
+		a.heightmap = new short[256];
+		Arrays.fill(a.heightmap, (short) -1);
+		a.sectionEmpty = new boolean[(Math.max(chunk.maxHeight, 0) >> 4) + 1];
+		Arrays.fill(a.sectionEmpty, true);
+
+		// Nether minimap state per column.  In the overworld the minimap is
+		// just the block at our heightmap, but in the Nether that's the
+		// ceiling, so we want the first block down which has air above it
+		// and something solid above that.  We're walking upwards, so keep
+		// track of the top of the most recent solid run which had air on top,
+		// and "confirm" it as soon as we see anything solid above that air.
+		short[] prevId = null;
+		short[] pendingId = null;
+		short[] confirmedId = null;
+		boolean[] foundSolid = null;
+		if (in_nether)
+		{
+			prevId = new short[256];
+			pendingId = new short[256];
+			confirmedId = new short[256];
+			foundSolid = new boolean[256];
+		}
+
+		chunk.rewindLoop();
+		short t;
+		int column;
+		while ((t = chunk.nextBlock()) != -2)
+		{
+			column = (chunk.l.z * 16) + chunk.l.x;
+			if (t < 1)
+			{
+				if (in_nether)
+				{
+					if (prevId[column] > 0)
+					{
+						pendingId[column] = prevId[column];
+					}
+					prevId[column] = 0;
+				}
+				continue;
+			}
+
+			// Minimap and heightmap
+			if (in_nether)
+			{
+				if (pendingId[column] > 0)
+				{
+					confirmedId[column] = pendingId[column];
+					pendingId[column] = 0;
+				}
+				prevId[column] = t;
+				foundSolid[column] = true;
+			}
+			if (chunk.l.y > a.heightmap[column])
+			{
+				a.heightmap[column] = (short) chunk.l.y;
+			}
+
+			a.sectionEmpty[chunk.l.y >> 4] = false;
+
+			// Per-ID counts
+			if (idCounts[t]++ == 0)
+			{
+				if (seenCount == seenIds.length)
+				{
+					seenIds = Arrays.copyOf(seenIds, seenCount * 2);
+				}
+				seenIds[seenCount++] = t;
+				isLight[t] = exploredBlocks.containsKey(t);
+			}
+
+			// Light sources
+			if (isLight[t])
+			{
+				a.lightSources.add(new Block(chunk.chunkOffset.x + chunk.l.x, chunk.l.y, chunk.chunkOffset.z + chunk.l.z));
+			}
+		}
+
+		// Texture sheets, and our counts, from the IDs we saw
+		Arrays.sort(seenIds, 0, seenCount);
+		a.countIds = Arrays.copyOf(seenIds, seenCount);
+		a.counts = new int[seenCount];
+		int sheetCount = 0;
+		for (int i = 0; i < seenCount; i++)
+		{
+			a.counts[i] = idCounts[seenIds[i]];
+			idCounts[seenIds[i]] = 0;
+
+			BlockType block = blockArray[seenIds[i]];
+			if (block == null)
+			{
+				block = BLOCK_UNKNOWN;
+			}
+			int sheet = block.getTexSheet();
+			if (sheet >= sheets.length)
+			{
+				sheets = Arrays.copyOf(sheets, sheet + 1);
+			}
+			if (!sheets[sheet])
+			{
+				sheets[sheet] = true;
+				sheetCount++;
+			}
+		}
+		a.usedSheets = new int[sheetCount];
+		sheetCount = 0;
+		for (int sheet = 0; sheet < sheets.length; sheet++)
+		{
+			if (sheets[sheet])
+			{
+				a.usedSheets[sheetCount++] = sheet;
+			}
+		}
+
+		// And finally the minimap
+		if (in_nether)
+		{
+			a.minimap = new short[16][16];
+			for (int zz = 0; zz < 16; zz++)
+			{
+				for (int xx = 0; xx < 16; xx++)
+				{
+					column = (zz * 16) + xx;
+					if (confirmedId[column] > 0)
+					{
+						a.minimap[xx][zz] = confirmedId[column];
+					}
+					else if (foundSolid[column])
+					{
+						// Make sure we don't have holes in our Nether minimap
+						a.minimap[xx][zz] = BLOCK_BEDROCK.id;
+					}
+				}
+			}
+		}
+		else
+		{
+			a.minimap = a.getHeightmapMinimap(chunk);
+		}
+
+		return a;
+	}
+
+	/**
+	 * Writes out everything but our light sources, for ChunkCache.  Those
+	 * have already been handed to the level by the time a chunk is dropped,
+	 * and the level never forgets them.
+	 */
+	public void writeSnapshot(ByteBuffer out)
+	{
+		out.putShort((short) this.usedSheets.length);
+		for (int sheet : this.usedSheets)
+		{
+			out.putShort((short) sheet);
+		}
+		out.asShortBuffer().put(this.heightmap);
+		out.position(out.position() + (this.heightmap.length * 2));
+		for (short[] row : this.minimap)
+		{
+			out.asShortBuffer().put(row);
+			out.position(out.position() + (row.length * 2));
+		}
+		out.putShort((short) this.countIds.length);
+		out.asShortBuffer().put(this.countIds);
+		out.position(out.position() + (this.countIds.length * 2));
+		out.asIntBuffer().put(this.counts);
+		out.position(out.position() + (this.counts.length * 4));
+		out.putShort((short) this.sectionEmpty.length);
+		for (boolean empty : this.sectionEmpty)
+		{
+			out.put((byte) (empty ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Reads back the output of writeSnapshot().  The result has no light
+	 * sources.
+	 */
+	public static ChunkAnalysis readSnapshot(ByteBuffer in)
+	{
+		ChunkAnalysis a = new ChunkAnalysis();
+		a.usedSheets = new int[in.getShort()];
+		for (int i = 0; i < a.usedSheets.length; i++)
+		{
+			a.usedSheets[i] = in.getShort();
+		}
+		a.heightmap = new short[256];
+		in.asShortBuffer().get(a.heightmap);
+		in.position(in.position() + (a.heightmap.length * 2));
+		a.minimap = new short[16][16];
+		for (short[] row : a.minimap)
+		{
+			in.asShortBuffer().get(row);
+			in.position(in.position() + (row.length * 2));
+		}
+		a.countIds = new short[in.getShort()];
+		in.asShortBuffer().get(a.countIds);
+		in.position(in.position() + (a.countIds.length * 2));
+		a.counts = new int[a.countIds.length];
+		in.asIntBuffer().get(a.counts);
+		in.position(in.position() + (a.counts.length * 4));
+		a.sectionEmpty = new boolean[in.getShort()];
+		for (int i = 0; i < a.sectionEmpty.length; i++)
+		{
+			a.sectionEmpty[i] = (in.get() != 0);
+		}
+		return a;
+	}
+
+	/**
+	 * Builds an overworld minimap straight from our heightmap: one block
+	 * lookup per column.
+	 *
+	 * This is deliberately our own heightmap rather than the HeightMap tag
+	 * which Anvil chunks store.  That one tracks where sky light stops, so
+	 * glass, torches, flowers, fences and the like can sit above it, and
+	 * we'd have to scan upwards from it anyway to find the top block.
+	 */
+	private short[][] getHeightmapMinimap(Chunk chunk)
+	{
+		short[][] minimap = new short[16][16];
+		int y;
+		for (int zz = 0; zz < 16; zz++)
+		{
+			for (int xx = 0; xx < 16; xx++)
+			{
+				y = this.heightmap[(zz * 16) + xx];
+				if (y >= 0)
+				{
+					minimap[xx][zz] = chunk.getBlock(xx, y, zz);
+				}
+			}
+		}
+		return minimap;
+	}
+
+	/**
+	 * The texture sheets used by blocks in the chunk, in ascending order
+	 */
+	public int[] getUsedSheets()
+	{
+		return this.usedSheets;
+	}
+
+	/**
+	 * Light sources found in the chunk.  Null once they've been cleared.
+	 */
+	public ArrayList<Block> getLightSources()
+	{
+		return this.lightSources;
+	}
+
+	/**
+	 * Drops our light source list, once it's been registered with the level
+	 */
+	public void clearLightSources()
+	{
+		this.lightSources = null;
+	}
+
+	/**
+	 * Y of the highest non-air block at the given column, or -1 if there
+	 * are no blocks there at all.
+	 */
+	public int getHeight(int x, int z)
+	{
+		return this.heightmap[(z * 16) + x];
+	}
+
+	/**
+	 * Minimap values for the chunk, indexed [x][z].  Shared, so don't
+	 * modify it.
+	 */
+	public short[][] getMinimapValues()
+	{
+		return this.minimap;
+	}
+
+	/**
+	 * How many blocks of the given ID the chunk has
+	 */
+	public int getBlockCount(short id)
+	{
+		int idx = Arrays.binarySearch(this.countIds, id);
+		if (idx < 0)
+		{
+			return 0;
+		}
+		return this.counts[idx];
+	}
+
+	/**
+	 * Whether the chunk has any block of the given ID
+	 */
+	public boolean hasBlock(short id)
+	{
+		return Arrays.binarySearch(this.countIds, id) >= 0;
+	}
+
+	/**
+	 * Whether the given section (y/16) has no blocks at all.  Sections above
+	 * the top of the chunk count as empty.
+	 */
+	public boolean isSectionEmpty(int section)
+	{
+		if (section < 0 || section >= this.sectionEmpty.length)
+		{
+			return true;
+		}
+		return this.sectionEmpty[section];
+	}
+
+	/**
+	 * Rough estimate of how many bytes of heap we're holding on to.  Light
+	 * sources aren't counted since they're dropped as soon as the chunk is
+	 * activated.
+	 */
+	public int getMemoryUsage()
+	{
+		int bytes = 40;
+		bytes += 16 + (this.usedSheets.length * 4);
+		bytes += 16 + (this.heightmap.length * 2);
+		bytes += 16 + (this.minimap.length * 4);
+		for (short[] row : this.minimap)
+		{
+			bytes += 16 + (row.length * 2);
+		}
+		bytes += 16 + (this.countIds.length * 2);
+		bytes += 16 + (this.counts.length * 4);
+		bytes += 16 + this.sectionEmpty.length;
+		return bytes;
+	}
+}
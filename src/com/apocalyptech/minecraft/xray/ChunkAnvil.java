@@ -26,23 +26,20 @@
  */
 package com.apocalyptech.minecraft.xray;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.lang.Math;
 import java.util.Map;
 import java.util.Random;
-import java.util.HashMap;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.regex.PatternSyntaxException;
 
 import org.lwjgl.opengl.GL11;
 
 import com.apocalyptech.minecraft.xray.dtf.ShortArrayTag;
 import com.apocalyptech.minecraft.xray.dtf.ByteArrayTag;
-import com.apocalyptech.minecraft.xray.dtf.CompoundTag;
-import com.apocalyptech.minecraft.xray.dtf.StringTag;
-import com.apocalyptech.minecraft.xray.dtf.ListTag;
+import com.apocalyptech.minecraft.xray.dtf.DTFProjection;
 import com.apocalyptech.minecraft.xray.dtf.ByteTag;
-import com.apocalyptech.minecraft.xray.dtf.IntTag;
 import com.apocalyptech.minecraft.xray.dtf.Tag;
 import com.apocalyptech.minecraft.xray.enums.*;
 
@@ -54,66 +51,107 @@ import static com.apocalyptech.minecraft.xray.MinecraftConstants.*;
  */
 public class ChunkAnvil extends Chunk {
 
-	private HashMap<Integer, ShortArrayTag> blockData;
-	private HashMap<Integer, ByteArrayTag> mapData;
-	private HashMap<Integer, Boolean> availableSections;
-	private ArrayList<Integer> availableSectionsList;
+	// Per-section block IDs and data values, indexed by section number (y/16).
+	// Sections which aren't present in the chunk are null.  Vanilla maps only
+	// go up to section 15, but we'll grow this if a mod gives us more.
+	private ChunkSection[] sections;
 
+	// The section numbers we do have, in ascending order
+	private int[] availableSections;
+
+	// Index into availableSections for our block loop
+	private int lSectionIdx;
 	private int lSection;
+
+	private static final DTFProjection ANVIL_PROJECTION = PROJECTION.with(
+			"Level/Sections/*/Y",
+			"Level/Sections/*/Blocks",
+			"Level/Sections/*/Data",
+			"Level/Sections/*/Add");
+
+	// Section tags collected while we're inside a Sections compound
+	private ByteTag sectionNumTag;
+	private ShortArrayTag sectionBlocksTag;
+	private ByteArrayTag sectionDataTag;
+	private ByteArrayTag sectionAddTag;
 	
-	public ChunkAnvil(MinecraftLevel level, Tag data) {
-
-		super(level, data);
-
-		blockData = new HashMap<Integer, ShortArrayTag>();
-		mapData = new HashMap<Integer, ByteArrayTag>();
-		availableSections = new HashMap<Integer, Boolean>();
-		availableSectionsList = new ArrayList<Integer>();
-		
-		ListTag sectionsTag = (ListTag) this.levelTag.getTagWithName("Sections");
-		for (Tag sectionTagTemp : sectionsTag.value)
-		{
-			CompoundTag sectionTag = (CompoundTag) sectionTagTemp;
-			ByteTag sectionNumTag = (ByteTag) sectionTag.getTagWithName("Y");
-			int section = sectionNumTag.value;
-			availableSections.put(section, true);
-			availableSectionsList.add(section);
-			blockData.put(section, (ShortArrayTag) sectionTag.getTagWithName("Blocks"));
-			mapData.put(section, (ByteArrayTag) sectionTag.getTagWithName("Data"));
-
-			// Merge in the AddBlocks tag, if present
-			//ByteArrayTag addBlocksTag = (ByteArrayTag) sectionTag.getTagWithName("AddBlocks");
-			//real section name is just "Add"
-			ByteArrayTag addBlocksTag = (ByteArrayTag) sectionTag.getTagWithName("Add");
-			if (addBlocksTag != null)
+	public ChunkAnvil(MinecraftLevel level, ByteBuffer data)
+		throws IOException
+	{
+
+		super(level);
+
+		sections = new ChunkSection[16];
+
+		this.readChunkData(data, ANVIL_PROJECTION);
+		this.setupSections();
+		this.finishConstructor();
+	}
+
+	private ChunkAnvil(MinecraftLevel level)
+	{
+		super(level);
+	}
+
+	/**
+	 * Rebuilds a chunk from the output of writeSnapshot(), for ChunkCache
+	 */
+	public static ChunkAnvil fromSnapshot(MinecraftLevel level, ByteBuffer snapshot)
+	{
+		ChunkAnvil c = new ChunkAnvil(level);
+		c.readSnapshot(snapshot);
+		c.sections = new ChunkSection[snapshot.getShort()];
+		int count = snapshot.getShort();
+		for (int i = 0; i < count; i++)
+		{
+			int section = snapshot.getShort();
+			c.sections[section] = ChunkSection.readSnapshot(snapshot);
+		}
+		c.setupSections();
+		c.finishSnapshot(snapshot);
+		return c;
+	}
+
+	protected void writeBlockSnapshot(ByteBuffer out)
+	{
+		out.putShort((short) sections.length);
+		out.putShort((short) availableSections.length);
+		for (int section : availableSections)
+		{
+			out.putShort((short) section);
+			sections[section].writeSnapshot(out);
+		}
+	}
+
+	/**
+	 * Works out our available sections and heights once our sections are in
+	 * place
+	 */
+	private void setupSections()
+	{
+		// Make a note of which sections we've got, in order
+		int count = 0;
+		for (ChunkSection section : sections)
+		{
+			if (section != null)
 			{
-				//ByteArrayTag dataTag = mapData.get(section);
-				//Now we can read real Block with ID higher then 256
-				ShortArrayTag dataTag = blockData.get(section);
-				int data_add;
-				for (int offset = 0; offset < 4096; offset++)
-				{
-					// TODO: Java's lack of unsigned datatypes is annoying.  We should
-					// really doublecheck to make sure that we're not doing things we
-					// shouldn't with negative values, here.  A little test app I wrote
-					// seems to say that this should Do The Right Thing here...
-					data_add = addBlocksTag.value[offset / 2];
-					if (offset % 2 == 1)
-					{
-						data_add = (data_add >> 4);
-					}
-					dataTag.value[offset] += ((data_add & 0xF) << 8);
-				}
+				count++;
+			}
+		}
+		availableSections = new int[count];
+		count = 0;
+		for (int section = 0; section < sections.length; section++)
+		{
+			if (sections[section] != null)
+			{
+				availableSections[count++] = section;
 			}
 		}
-
-		// Make sure our list of available sections is ordered
-		Collections.sort(availableSectionsList);
 
 		// And set our max height for the chunk
-		if (availableSectionsList.size() > 0)
+		if (availableSections.length > 0)
 		{
-			this.maxHeight = ((availableSectionsList.get(availableSectionsList.size()-1)+1)*16)-1;
+			this.maxHeight = ((availableSections[availableSections.length-1]+1)*16)-1;
 		}
 		else
 		{
@@ -124,90 +162,126 @@ public class ChunkAnvil extends Chunk {
 		{
 			this.ceilingHeight = this.maxHeight;
 		}
-
-		this.finishConstructor();
 	}
 	
 	/**
-	 * Will return an array of values which are suitable for feeding into a
-	 * minimap.
+	 * Our sections, plus the arrays which index them
 	 */
-	public short[][] getMinimapValues()
+	protected int getBlockMemoryUsage()
 	{
-		short[][] minimap = new short[16][16];
-		boolean in_nether = this.level.world.isDimension(-1);
-		boolean found_air;
-		boolean found_solid;
-		boolean drew_block;
-
-		// We'll want to process our sections in reverse order
-		Collections.reverse(this.availableSectionsList);
-
-		// Do the loop
-		int offset;
-		short block;
-		ShortArrayTag blockDataTag;
-		for (int zz = 0; zz < 16; zz++)
-		{
-			for (int xx = 0; xx < 16; xx++)
+		int bytes = 16 + (sections.length * 4) + 16 + (availableSections.length * 4);
+		for (ChunkSection section : sections)
+		{
+			if (section != null)
 			{
-				// determine the top most visible block
-				found_air = !in_nether;
-				drew_block = false;
-				found_solid = false;
+				bytes += 32 + section.getMemoryUsage();
+			}
+		}
+		return bytes;
+	}
 
-				sectionloop: for (int section : this.availableSectionsList)
-				{
-					blockDataTag = this.blockData.get(section);
-					if (blockDataTag == null)
-					{
-						continue;
-					}
-					for (int yy = 15; yy >= 0; yy--)
-					{
-						offset = xx + (zz * 16) + (yy * 256);
-						block = blockDataTag.value[offset];
-
-						if (block > 0)
-						{
-							if (in_nether && !found_solid)
-							{
-								found_air = false;
-							}
-							found_solid = true;
-							if (found_air)
-							{
-								minimap[xx][zz] = block;
-								drew_block = true;
-								break sectionloop;
-							}
-						}
-						else
-						{
-							found_air = true;
-						}
-					}
-				}
+	protected void loadTag(String path, Tag tag)
+	{
+		if (path.equals("Level/Sections/*/Y"))
+		{
+			this.sectionNumTag = (ByteTag) tag;
+		}
+		else if (path.equals("Level/Sections/*/Blocks"))
+		{
+			this.sectionBlocksTag = (ShortArrayTag) tag;
+		}
+		else if (path.equals("Level/Sections/*/Data"))
+		{
+			this.sectionDataTag = (ByteArrayTag) tag;
+		}
+		else if (path.equals("Level/Sections/*/Add"))
+		{
+			this.sectionAddTag = (ByteArrayTag) tag;
+		}
+		else
+		{
+			super.loadTag(path, tag);
+		}
+	}
+
+	protected void loadCompoundStart(String path)
+	{
+		if (path.equals("Level/Sections/*"))
+		{
+			this.sectionNumTag = null;
+			this.sectionBlocksTag = null;
+			this.sectionDataTag = null;
+			this.sectionAddTag = null;
+		}
+		else
+		{
+			super.loadCompoundStart(path);
+		}
+	}
+
+	/**
+	 * The tags inside a section can come in any order, so we store the
+	 * section once we've seen all of them.
+	 */
+	protected void loadCompoundEnd(String path)
+	{
+		if (!path.equals("Level/Sections/*"))
+		{
+			super.loadCompoundEnd(path);
+			return;
+		}
+		if (this.sectionNumTag == null || this.sectionBlocksTag == null || this.sectionDataTag == null)
+		{
+			return;
+		}
+
+		int section = this.sectionNumTag.value;
+		if (section < 0)
+		{
+			return;
+		}
+		if (section >= sections.length)
+		{
+			sections = Arrays.copyOf(sections, section + 1);
+		}
 
-				// Make sure we don't have holes in our Nether minimap
-				if (in_nether && found_solid && !drew_block)
+		// Merge in the AddBlocks tag, if present
+		//real section name is just "Add"
+		ByteArrayTag addBlocksTag = this.sectionAddTag;
+		if (addBlocksTag != null)
+		{
+			//Now we can read real Block with ID higher then 256
+			ShortArrayTag dataTag = this.sectionBlocksTag;
+			int data_add;
+			for (int offset = 0; offset < 4096; offset++)
+			{
+				// TODO: Java's lack of unsigned datatypes is annoying.  We should
+				// really doublecheck to make sure that we're not doing things we
+				// shouldn't with negative values, here.  A little test app I wrote
+				// seems to say that this should Do The Right Thing here...
+				data_add = addBlocksTag.value[offset / 2];
+				if (offset % 2 == 1)
 				{
-					minimap[xx][zz] = MinecraftConstants.BLOCK_BEDROCK.id;
+					data_add = (data_add >> 4);
 				}
+				dataTag.value[offset] += ((data_add & 0xF) << 8);
 			}
 		}
 
-		// re-reverse our section list
-		Collections.reverse(this.availableSectionsList);
-		return minimap;
-	}
+		sections[section] = ChunkSection.create(this.sectionBlocksTag.value, this.sectionDataTag.value);
 
+		this.sectionNumTag = null;
+		this.sectionBlocksTag = null;
+		this.sectionDataTag = null;
+		this.sectionAddTag = null;
+	}
+	
 	/**
 	 * Gets the Block ID of the block immediately to the given facing. This might
 	 * load in the adjacent chunk, if needed.  Will return -1 if that adjacent
 	 * chunk can't be found.
 	 */
-	protected short getAdjBlockId(int x, int y, int z, FACING facing, int blockOffset) {
+	protected short getUnpaddedAdjBlockId(int x, int y, int z, FACING facing, int blockOffset) {
 		switch(facing) {
 			case TOP:
 				return getAdjUpBlockId(x, y, z, blockOffset);
@@ -235,15 +309,12 @@ public class ChunkAnvil extends Chunk {
 	{
 		if (x > 0)
 		{
-			int section = y/16;
-			if (this.blockData.containsKey(section))
-			{
-				return blockData.get(section).value[blockOffset-1];
-			}
-			else
+			ChunkSection section = this.getSection(y >> 4);
+			if (section == null)
 			{
 				return 0;
 			}
+			return section.getBlock(blockOffset-1);
 		}
 		else
 		{
@@ -268,15 +339,12 @@ public class ChunkAnvil extends Chunk {
 	{
 		if (x < 15)
 		{
-			int section = y/16;
-			if (this.blockData.containsKey(section))
-			{
-				return blockData.get(section).value[blockOffset+1];
-			}
-			else
+			ChunkSection section = this.getSection(y >> 4);
+			if (section == null)
 			{
 				return 0;
 			}
+			return section.getBlock(blockOffset+1);
 		}
 		else
 		{
@@ -301,15 +369,12 @@ public class ChunkAnvil extends Chunk {
 	{
 		if (z > 0)
 		{
-			int section = y/16;
-			if (blockData.containsKey(section))
-			{
-				return blockData.get(section).value[blockOffset-16];
-			}
-			else
+			ChunkSection section = this.getSection(y >> 4);
+			if (section == null)
 			{
 				return 0;
 			}
+			return section.getBlock(blockOffset-16);
 		}
 		else
 		{
@@ -334,15 +399,12 @@ public class ChunkAnvil extends Chunk {
 	{
 		if (z < 15)
 		{
-			int section = y/16;
-			if (blockData.containsKey(section))
-			{
-				return blockData.get(section).value[blockOffset+16];
-			}
-			else
+			ChunkSection section = this.getSection(y >> 4);
+			if (section == null)
 			{
 				return 0;
 			}
+			return section.getBlock(blockOffset+16);
 		}
 		else
 		{
@@ -364,21 +426,19 @@ public class ChunkAnvil extends Chunk {
 	 */
 	protected short getAdjUpBlockId(int x, int y, int z, int blockOffset)
 	{
-		int section = y/16;
-		if ((y % 16) == 15)
+		int section = y >> 4;
+		if ((y & 15) == 15)
 		{
-			if (blockData.containsKey(section + 1))
-			{
-				return blockData.get(section+1).value[x + (z*16)];
-			}
-			else
+			ChunkSection above = this.getSection(section + 1);
+			if (above == null)
 			{
 				return 0;
 			}
+			return above.getBlock(x + (z*16));
 		}
 		else
 		{
-			return blockData.get(section).value[blockOffset+256];
+			return sections[section].getBlock(blockOffset+256);
 		}
 	}
 
@@ -392,61 +452,66 @@ public class ChunkAnvil extends Chunk {
 		{
 			return -1;
 		}
-		int section = y/16;
-		if ((y % 16) == 0)
+		int section = y >> 4;
+		if ((y & 15) == 0)
 		{
-			if (blockData.containsKey(section - 1))
-			{
-				return blockData.get(section-1).value[3840 + x + (16*z)];
-			}
-			else
+			ChunkSection below = this.getSection(section - 1);
+			if (below == null)
 			{
 				return 0;
 			}
+			return below.getBlock(3840 + x + (16*z));
 		}
 		else
 		{
-			return blockData.get(section).value[blockOffset-256];
+			return sections[section].getBlock(blockOffset-256);
 		}
 	}
 	
+	/**
+	 * Returns the offset of the given coordinates into our block data
+	 */
+	protected int getBlockOffset(int x, int y, int z)
+	{
+		return ((y & 15) * 256) + (z * 16) + x;
+	}
+
 	/**
 	 * Gets the block ID at the specified coordinate in the chunk.  This is
 	 * only really used in the getAdj*BlockId() methods.
 	 */
 	public short getBlock(int x, int y, int z) {
-		int section = y/16;
-		if (blockData.containsKey(section))
+		ChunkSection section = this.getSection(y >> 4);
+		if (section == null)
 		{
-			return blockData.get(section).value[((y % 16) * 256) + (z * 16) + x];
+			return 0;
 		}
-		else
+		return section.getBlock(((y & 15) * 256) + (z * 16) + x);
+	}
+
+	/**
+	 * Returns the given section number, or null if we don't have that
+	 * section (including if it's out of range entirely).
+	 */
+	private ChunkSection getSection(int section)
+	{
+		if (section < 0 || section >= sections.length)
 		{
-			return 0;
+			return null;
 		}
+		return sections[section];
 	}
 
 	/**
 	 * Gets the block data at the specified coordinates.
 	 */
 	public byte getData(int x, int y, int z) {
-		int section = y/16;
-		if (mapData.containsKey(section))
-		{
-			int offset = ((y%16)*256) + (z * 16) + x;
-			int halfOffset = offset / 2;
-			if(offset % 2 == 0) {
-				return (byte) (mapData.get(section).value[halfOffset] & 0xF);
-			} else {
-				// We shouldn't have to &0xF here, but if we don't the value
-				// returned could be negative, even though that would be silly.
-				return (byte) ((mapData.get(section).value[halfOffset] >> 4) & 0xF);
-			}
-		}
-		else
+		ChunkSection section = this.getSection(y >> 4);
+		if (section == null)
 		{
 			return (byte)0;
 		}
+		return section.getData(((y & 15)*256) + (z * 16) + x);
 	}
 
 	/**
@@ -455,6 +520,7 @@ public class ChunkAnvil extends Chunk {
 	protected void rewindLoop()
 	{
 		super.rewindLoop();
+		this.lSectionIdx = -1;
 		this.lSection = -1;
 	}
 
@@ -463,31 +529,26 @@ public class ChunkAnvil extends Chunk {
 	 */
 	protected short nextBlock()
 	{
-		boolean advance_to_next_section = false;
-		boolean found_next_section = false;
-		this.lOffset = ((this.lOffset+1) % 4096);
+		this.lOffset = ((this.lOffset+1) & 4095);
 		if (this.lOffset == 0)
 		{
-			advance_to_next_section = true;
-			for (int section : this.availableSectionsList)
+			// Skip over any sections which are nothing but air
+			do
 			{
-				if (section > this.lSection)
+				this.lSectionIdx++;
+				if (this.lSectionIdx >= this.availableSections.length)
 				{
-					found_next_section = true;
-					this.lSection = section;
-					break;
+					return -2;
 				}
+				this.lSection = this.availableSections[this.lSectionIdx];
 			}
+			while (this.isSectionEmpty(this.lSection));
 		}
-		if (advance_to_next_section && !found_next_section)
-		{
-			return -2;
-		}
-		this.l.x = this.lOffset % 16;
-		this.l.z = (this.lOffset / 16) % 16;
-		this.l.y = (this.lOffset / 256) + (16*this.lSection);
+		this.l.x = this.lOffset & 15;
+		this.l.z = (this.lOffset >> 4) & 15;
+		this.l.y = (this.lOffset >> 8) + (16*this.lSection);
 
-		return this.blockData.get(this.lSection).value[this.lOffset];
+		return this.sections[this.lSection].getBlock(this.lOffset);
 	}
 
 }
@@ -0,0 +1,402 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps deflated snapshots of chunks which have recently been dropped from
+ * the level, so that going back to them (turning round, or a Home/End jump
+ * to somewhere nearby) doesn't mean reading, inflating and parsing them from
+ * the region file all over again.
+ *
+ * Snapshots are the chunk's own block storage and analysis (see
+ * Chunk.writeSnapshot()), so palette-packed sections stay packed and nothing
+ * has to be walked again on the way back in.  Copying a chunk out is cheap,
+ * so that's done on the render thread as the chunk is dropped; deflating
+ * isn't, so that's left to a background thread, and until it gets there the
+ * snapshot is just kept as-is.
+ *
+ * A chunk is taken back out of here when it's rebuilt, and goes back in the
+ * next time it's dropped.  Each snapshot remembers when the chunk's file had
+ * last been modified as of reading it, and is thrown away rather than used
+ * if the file has changed since, so we never hand back blocks the server has
+ * overwritten.  Once we're over our size, the snapshots of the chunks which
+ * were dropped longest ago go first.  That's deliberately FIFO rather than
+ * LRU: a snapshot is only ever used once, since taking it removes it, so
+ * the order chunks were dropped in already is the order they were last
+ * used in.  Snapshots are stored from the render thread and taken by the
+ * loader threads, so the bookkeeping is synchronized; the copying, deflating
+ * and rebuilding all happen outside of the lock.
+ */
+public class ChunkCache
+{
+	private static volatile int maxSizeMB = 64;
+
+	private static class Entry
+	{
+		final byte[] data;
+		final int rawLength;
+		final boolean deflated;
+
+		// When the chunk's file had last been modified as of reading it
+		final long modified;
+
+		Entry(byte[] data, int rawLength, boolean deflated, long modified)
+		{
+			this.data = data;
+			this.rawLength = rawLength;
+			this.deflated = deflated;
+			this.modified = modified;
+		}
+	}
+
+	// In the order they were stored.  This stays insertion-ordered, so that
+	// our compressor looking an entry up doesn't move it along.
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(256);
+	private long size;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long stale;
+
+	// Only used from the render thread, in store()
+	private ByteBuffer raw = ByteBuffer.allocate(64 * 1024);
+
+	// Only used from our compressor thread
+	private final ExecutorService compressor;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] compressed = new byte[16 * 1024];
+
+	private static final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue()
+		{
+			return new Inflater();
+		}
+	};
+
+	public ChunkCache()
+	{
+		this.compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "X-Ray chunk cache");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Ends the calling thread's Inflater, if it's been using one.  A fresh
+	 * one will be created if this thread takes another snapshot.
+	 * ChunkLoader's threads call this on their way out.
+	 */
+	public static void releaseInflater()
+	{
+		inflater.get().end();
+		inflater.remove();
+	}
+
+	/**
+	 * Sets how much memory each level's cache may use, in MB.  0 turns
+	 * caching off.
+	 */
+	public static void setMaxSize(int mb)
+	{
+		maxSizeMB = Math.max(0, mb);
+	}
+
+	public static int getMaxSize()
+	{
+		return maxSizeMB;
+	}
+
+	private static long key(int chunkX, int chunkZ)
+	{
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Snapshots a chunk which is being dropped from the level.  Render
+	 * thread only.
+	 */
+	public void store(Chunk c)
+	{
+		if (maxSizeMB == 0)
+		{
+			return;
+		}
+
+		while (true)
+		{
+			try
+			{
+				this.raw.clear();
+				c.writeSnapshot(this.raw);
+				break;
+			}
+			catch (BufferOverflowException e)
+			{
+				this.raw = ByteBuffer.allocate(this.raw.capacity() * 2);
+			}
+		}
+		int rawLength = this.raw.position();
+		final Long key = key(c.point.x, c.point.z);
+		final Entry entry = new Entry(Arrays.copyOf(this.raw.array(), rawLength), rawLength, false, c.sourceModified);
+		this.put(key, entry);
+
+		this.compressor.execute(new Runnable() {
+			public void run()
+			{
+				deflate(key, entry);
+			}
+		});
+	}
+
+	/**
+	 * Adds or replaces an entry, then trims us back down to size.
+	 */
+	private synchronized void put(Long key, Entry entry)
+	{
+		// Removing first puts a restored chunk at the back of the queue
+		Entry old = this.entries.remove(key);
+		if (old != null)
+		{
+			this.size -= old.data.length;
+		}
+		this.entries.put(key, entry);
+		this.size += entry.data.length;
+
+		long maxSize = maxSizeMB * 1024L * 1024L;
+		Iterator<Map.Entry<Long, Entry>> i = this.entries.entrySet().iterator();
+		while (this.size > maxSize && i.hasNext())
+		{
+			this.size -= i.next().getValue().data.length;
+			i.remove();
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Swaps a stored snapshot for a deflated copy, unless it's been taken or
+	 * replaced in the meantime.  Compressor thread only.
+	 */
+	private void deflate(Long key, Entry entry)
+	{
+		synchronized (this)
+		{
+			if (this.entries.get(key) != entry)
+			{
+				return;
+			}
+		}
+
+		this.deflater.reset();
+		this.deflater.setInput(entry.data);
+		this.deflater.finish();
+		int length = 0;
+		while (!this.deflater.finished())
+		{
+			if (length == this.compressed.length)
+			{
+				this.compressed = Arrays.copyOf(this.compressed, this.compressed.length * 2);
+			}
+			length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+		}
+		Entry deflated = new Entry(Arrays.copyOf(this.compressed, length), entry.rawLength, true, entry.modified);
+
+		synchronized (this)
+		{
+			// Replacing the value doesn't change its place in the order
+			if (this.entries.get(key) == entry)
+			{
+				this.entries.put(key, deflated);
+				this.size += deflated.data.length - entry.data.length;
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the given chunk from its snapshot, if we have one, and drops
+	 * the snapshot.  Safe to call from the loader threads.
+	 *
+	 * @return The chunk, or null if we don't have it or it's out of date
+	 */
+	public Chunk take(MinecraftLevel level, int chunkX, int chunkZ)
+	{
+		Entry entry;
+		synchronized (this)
+		{
+			entry = this.entries.remove(key(chunkX, chunkZ));
+			if (entry == null)
+			{
+				this.misses++;
+				return null;
+			}
+			this.size -= entry.data.length;
+		}
+
+		// A stat() per snapshot we've got is a lot cheaper than rereading
+		// the chunk, and means a rewritten region can't hand back old blocks.
+		boolean current = (MinecraftEnvironment.getChunkModified(level.world, chunkX, chunkZ) == entry.modified);
+		synchronized (this)
+		{
+			if (current)
+			{
+				this.hits++;
+			}
+			else
+			{
+				this.misses++;
+				this.stale++;
+			}
+		}
+		if (!current)
+		{
+			return null;
+		}
+
+		byte[] rawData = entry.data;
+		if (entry.deflated)
+		{
+			rawData = new byte[entry.rawLength];
+			Inflater inf = inflater.get();
+			inf.reset();
+			inf.setInput(entry.data);
+			try
+			{
+				int length = 0;
+				while (length < rawData.length && !inf.finished())
+				{
+					length += inf.inflate(rawData, length, rawData.length - length);
+				}
+			}
+			catch (DataFormatException e)
+			{
+				Utility.logger.error("Bad cached snapshot for chunk " + chunkX + ", " + chunkZ + ": " + e);
+				return null;
+			}
+		}
+
+		ByteBuffer snapshot = ByteBuffer.wrap(rawData);
+		Chunk c;
+		switch (level.world.data_format)
+		{
+			case ANVIL:
+				c = ChunkAnvil.fromSnapshot(level, snapshot);
+				break;
+
+			default:
+				c = ChunkOriginal.fromSnapshot(level, snapshot);
+		}
+		c.sourceModified = entry.modified;
+		return c;
+	}
+
+	/**
+	 * Drops all our snapshots, so that every chunk is next read from disk.
+	 */
+	public synchronized void clear()
+	{
+		this.entries.clear();
+		this.size = 0;
+	}
+
+	/**
+	 * Drops all our snapshots and stops our compressor thread.  Render thread
+	 * only; we can't be stored to after this.
+	 */
+	public void dispose()
+	{
+		synchronized (this)
+		{
+			this.entries.clear();
+			this.size = 0;
+		}
+
+		// Anything still queued will find its entry gone, so this is the
+		// last thing to touch the deflater.
+		this.compressor.execute(new Runnable() {
+			public void run()
+			{
+				deflater.end();
+			}
+		});
+		this.compressor.shutdown();
+	}
+	/**
+	 * How many chunks we've got snapshots of
+	 */
+	public synchronized int getCount()
+	{
+		return this.entries.size();
+	}
+
+	/**
+	 * Bytes used by our snapshots
+	 */
+	public synchronized long getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Fraction of chunk loads which came from here rather than from disk
+	 */
+	public synchronized float getHitRate()
+	{
+		if (this.hits + this.misses == 0)
+		{
+			return 0f;
+		}
+		return (float) this.hits / (float) (this.hits + this.misses);
+	}
+
+	/**
+	 * A one-line summary of how we've been doing, for the log
+	 */
+	public synchronized String getStats()
+	{
+		return String.format("%d hits, %d misses (%.1f%% hit rate), %d snapshots in %.1f MB, %d evicted, %d stale",
+				this.hits, this.misses, this.getHitRate() * 100f, this.entries.size(),
+				this.size / 1024f / 1024f, this.evictions, this.stale);
+	}
+}
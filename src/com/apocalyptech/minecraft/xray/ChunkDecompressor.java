@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Reusable per-thread decompression state for chunk data.  Each thread
+ * which reads chunks gets its own native Inflater plus input and output
+ * buffers, which only ever grow, so that in the steady state reading a
+ * chunk doesn't allocate any new arrays or native zlib streams at all.
+ *
+ * The ByteBuffers we hand back are views on our output buffer, which means
+ * they're only valid until the same thread decompresses another chunk.
+ * DTFBufferReader.visitTagData() copies everything it hands out, so that's
+ * fine for how we use it, but callers shouldn't hang on to the buffers.
+ */
+public class ChunkDecompressor
+{
+	private static final ThreadLocal<ChunkDecompressor> local = new ThreadLocal<ChunkDecompressor>() {
+		protected ChunkDecompressor initialValue()
+		{
+			return new ChunkDecompressor();
+		}
+	};
+
+	private Inflater inflater = new Inflater();
+	private byte[] input = new byte[8 * 4096];
+	private ByteBuffer inputView = ByteBuffer.wrap(this.input);
+	private byte[] output = new byte[64 * 1024];
+
+	private ChunkDecompressor()
+	{
+	}
+
+	/**
+	 * Returns the decompressor for the current thread.
+	 */
+	public static ChunkDecompressor get()
+	{
+		return local.get();
+	}
+
+	/**
+	 * Frees the native resources held by the current thread's decompressor.
+	 * A fresh one will be created if this thread reads another chunk.
+	 * ChunkLoader's threads call this on their way out.
+	 */
+	public static void release()
+	{
+		ChunkDecompressor current = local.get();
+		current.inflater.end();
+		local.remove();
+	}
+
+	/**
+	 * Returns a view on our input buffer, grown to at least the given size,
+	 * with its position at zero and its limit at size.  Contents are not
+	 * preserved when it grows.
+	 */
+	public ByteBuffer getInputBuffer(int size)
+	{
+		if (this.input.length < size)
+		{
+			this.input = new byte[Math.max(size, this.input.length * 2)];
+			this.inputView = ByteBuffer.wrap(this.input);
+		}
+		this.inputView.clear();
+		this.inputView.limit(size);
+		return this.inputView;
+	}
+
+	/**
+	 * Inflates zlib-compressed data into our output buffer, and returns a
+	 * view on the result.  Data which is already in a heap array (such as
+	 * our own input buffer) is inflated in place; anything else, such as a
+	 * view on a memory-mapped file, is first copied into our input buffer,
+	 * since Inflater can only read from arrays before Java 11.
+	 *
+	 * @param compressed The compressed data, from its position to its limit
+	 */
+	public ByteBuffer inflate(ByteBuffer compressed) throws IOException
+	{
+		int length = compressed.remaining();
+		this.inflater.reset();
+		if (compressed.hasArray())
+		{
+			this.inflater.setInput(compressed.array(), compressed.arrayOffset() + compressed.position(), length);
+		}
+		else
+		{
+			if (this.input.length < length)
+			{
+				this.getInputBuffer(length);
+			}
+			compressed.duplicate().get(this.input, 0, length);
+			this.inflater.setInput(this.input, 0, length);
+		}
+		int total = 0;
+		try
+		{
+			while (!this.inflater.finished())
+			{
+				if (total == this.output.length)
+				{
+					this.growOutput();
+				}
+				int count = this.inflater.inflate(this.output, total, this.output.length - total);
+				if (count == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary()))
+				{
+					throw new IOException("Truncated chunk data");
+				}
+				total += count;
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Invalid chunk data: " + e.getMessage());
+		}
+		return ByteBuffer.wrap(this.output, 0, total);
+	}
+
+	/**
+	 * Decompresses gzipped data into our output buffer.  These are very rare
+	 * in practice, so we just let GZIPInputStream deal with the header, and
+	 * make sure its Inflater is released afterwards.
+	 *
+	 * @param compressed The compressed data, from its position to its limit
+	 */
+	public ByteBuffer gunzip(ByteBuffer compressed) throws IOException
+	{
+		return this.readFully(new GZIPInputStream(new BufferInputStream(compressed)));
+	}
+
+	/**
+	 * An InputStream reading from a ByteBuffer, which unlike
+	 * ByteArrayInputStream doesn't need the buffer to have an array behind it
+	 */
+	private static class BufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		public int read()
+		{
+			if (!this.buffer.hasRemaining())
+			{
+				return -1;
+			}
+			return this.buffer.get() & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (!this.buffer.hasRemaining())
+			{
+				return -1;
+			}
+			len = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, len);
+			return len;
+		}
+
+		public int available()
+		{
+			return this.buffer.remaining();
+		}
+	}
+
+	/**
+	 * Reads the rest of the given stream into our output buffer, closes it,
+	 * and returns a view on the result.  Used for gzipped chunks, and the
+	 * chunk-per-file worlds from before region files.
+	 */
+	public ByteBuffer readFully(InputStream in) throws IOException
+	{
+		int total = 0;
+		try
+		{
+			int count;
+			while (true)
+			{
+				if (total == this.output.length)
+				{
+					this.growOutput();
+				}
+				count = in.read(this.output, total, this.output.length - total);
+				if (count < 0)
+				{
+					break;
+				}
+				total += count;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return ByteBuffer.wrap(this.output, 0, total);
+	}
+
+	/**
+	 * Doubles the size of our output buffer, keeping its contents.
+	 */
+	private void growOutput()
+	{
+		byte[] newOutput = new byte[this.output.length * 2];
+		System.arraycopy(this.output, 0, newOutput, 0, this.output.length);
+		this.output = newOutput;
+	}
+}
@@ -0,0 +1,386 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.Matcher;
+
+/**
+ * An index of which chunks actually exist in a world, built from the
+ * region file headers, so that the loader can skip coordinates which
+ * have no data without opening any files at all.  The index is saved
+ * in our own config directory and is revalidated against each region
+ * file's mtime and length whenever it's loaded or refreshed, so only
+ * regions which have changed need their headers read again.
+ *
+ * A running server keeps adding chunks and regions, so we don't wait for a
+ * refresh to hear about them: RegionFileCache hands us the header of every
+ * region it opens (including reopening one which has been rewritten), and
+ * regions we've never seen are reported as possibly having anything.
+ * Lookups come from the render thread and loader threads without locking,
+ * so the region map is never changed in place; changes build a new map and
+ * swap it in.
+ *
+ * Old-style (pre-region) worlds don't get an index; for those, every
+ * chunk is reported as possibly present and we fall back to the usual
+ * file lookups.
+ */
+public class ChunkIndex
+{
+	private static final int INDEX_MAGIC = 0x58524349; // "XRCI"
+	private static final int INDEX_VERSION = 1;
+
+	/**
+	 * What we know about a single region file
+	 */
+	private static class RegionEntry
+	{
+		public long mtime;
+		public long length;
+		public long[] present = new long[16];
+		public int[] timestamps = new int[1024];
+
+		public boolean has(int idx)
+		{
+			return (present[idx >> 6] & (1L << (idx & 63))) != 0;
+		}
+
+		public void setPresent(int[] offsets)
+		{
+			for (int i = 0; i < 1024; i++)
+			{
+				if (offsets[i] != 0)
+				{
+					present[i >> 6] |= (1L << (i & 63));
+				}
+			}
+		}
+	}
+
+	private WorldInfo world;
+	private File indexFile;
+	private boolean available;
+	private boolean changed;
+	private volatile HashMap<Long, RegionEntry> regions = new HashMap<Long, RegionEntry>();
+
+	/**
+	 * Loads (or builds) the chunk index for the given world.  The world's
+	 * data_format must already have been determined.
+	 */
+	public ChunkIndex(WorldInfo world)
+	{
+		this.world = world;
+		this.available = (world.data_format == WorldInfo.MAP_TYPE.ANVIL ||
+				world.data_format == WorldInfo.MAP_TYPE.MCREGION);
+		if (!this.available)
+		{
+			return;
+		}
+
+		File indexDir = new File(MinecraftEnvironment.getXrayDirectory(), "chunkindex");
+		if (indexDir.isDirectory() || indexDir.mkdirs())
+		{
+			this.indexFile = new File(indexDir, Integer.toHexString(this.getIndexKey().hashCode()) + ".idx");
+			this.load();
+		}
+		this.refresh();
+		RegionFileCache.registerIndex(world, this);
+	}
+
+	/**
+	 * The string which identifies this world (and format) in our index file
+	 */
+	private String getIndexKey()
+	{
+		return this.world.getBaseFile().getAbsolutePath() + "|" + this.world.data_format.toString();
+	}
+
+	private static long regionKey(int regionX, int regionZ)
+	{
+		return (((long) regionX) << 32) | (regionZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns whether this world has an index at all.
+	 */
+	public boolean isAvailable()
+	{
+		return this.available;
+	}
+
+	/**
+	 * Returns false only if we know for sure that the given chunk has no data.
+	 * Chunks in regions we don't know about might be in a region file which
+	 * has turned up since we last looked, so those count as present.
+	 */
+	public boolean hasChunk(int chunkX, int chunkZ)
+	{
+		if (!this.available)
+		{
+			return true;
+		}
+		RegionEntry entry = this.regions.get(regionKey(chunkX >> 5, chunkZ >> 5));
+		if (entry == null)
+		{
+			return true;
+		}
+		return entry.has((chunkX & 31) + ((chunkZ & 31) * 32));
+	}
+
+	/**
+	 * Returns the last-written timestamp of the given chunk, as stored in its
+	 * region file header, or 0 if we don't know of it.
+	 */
+	public int getChunkTimestamp(int chunkX, int chunkZ)
+	{
+		if (!this.available)
+		{
+			return 0;
+		}
+		RegionEntry entry = this.regions.get(regionKey(chunkX >> 5, chunkZ >> 5));
+		if (entry == null)
+		{
+			return 0;
+		}
+		return entry.timestamps[(chunkX & 31) + ((chunkZ & 31) * 32)];
+	}
+
+	/**
+	 * Rescans the world's region directory, rereading the header of any region
+	 * which is new or whose mtime or length has changed, and dropping any which
+	 * have gone away.  Saves the index back out if anything changed.
+	 */
+	public synchronized void refresh()
+	{
+		if (!this.available)
+		{
+			return;
+		}
+
+		File base = new File(this.world.getBasePath(), "region");
+		File[] regionFiles = base.listFiles(new RegionFileFilter(this.world));
+		if (regionFiles == null)
+		{
+			return;
+		}
+		Pattern pattern = Pattern.compile(RegionFileFilter.match_regex);
+
+		HashMap<Long, RegionEntry> newRegions = new HashMap<Long, RegionEntry>();
+		int[] offsets = new int[1024];
+		int reread = 0;
+		for (File region : regionFiles)
+		{
+			Matcher matcher = pattern.matcher(region.getName());
+			if (!matcher.matches())
+			{
+				continue;
+			}
+			long key = regionKey(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+			long mtime = region.lastModified();
+			long length = region.length();
+
+			RegionEntry entry = this.regions.get(key);
+			if (entry == null || entry.mtime != mtime || entry.length != length)
+			{
+				entry = new RegionEntry();
+				entry.mtime = mtime;
+				entry.length = length;
+				try
+				{
+					RegionFile.readHeader(region, offsets, entry.timestamps);
+				}
+				catch (IOException e)
+				{
+					Utility.logger.warn("Could not read region header for " + region.getName() + ": " + e.toString());
+					continue;
+				}
+				entry.setPresent(offsets);
+				reread++;
+				this.changed = true;
+			}
+			newRegions.put(key, entry);
+		}
+		if (newRegions.size() != this.regions.size())
+		{
+			this.changed = true;
+		}
+		this.regions = newRegions;
+
+		Utility.logger.debug("Chunk index: " + this.regions.size() + " regions, " + reread + " reread from disk");
+		if (this.changed)
+		{
+			this.save();
+		}
+	}
+
+	/**
+	 * Brings a single region up to date from a RegionFile which has just been
+	 * opened, if it's one we didn't know about or it's changed since we read
+	 * it.  Called by RegionFileCache, from whichever thread opened the file.
+	 */
+	public synchronized void update(int regionX, int regionZ, RegionFile region)
+	{
+		long key = regionKey(regionX, regionZ);
+		RegionEntry old = this.regions.get(key);
+		if (old != null && old.mtime == region.lastModified() && old.length == region.length())
+		{
+			return;
+		}
+		RegionEntry entry = new RegionEntry();
+		entry.mtime = region.lastModified();
+		entry.length = region.length();
+		int[] offsets = new int[1024];
+		region.getHeader(offsets, entry.timestamps);
+		entry.setPresent(offsets);
+
+		HashMap<Long, RegionEntry> newRegions = new HashMap<Long, RegionEntry>(this.regions);
+		newRegions.put(key, entry);
+		this.regions = newRegions;
+		this.changed = true;
+	}
+
+	/**
+	 * Stops listening for region updates, and saves anything we've picked
+	 * up since our last refresh.  Called when our level is done with.
+	 */
+	public synchronized void dispose()
+	{
+		RegionFileCache.unregisterIndex(this.world, this);
+		if (this.changed)
+		{
+			this.save();
+		}
+	}
+
+	/**
+	 * Loads our saved index, if there is one and it's for this world.
+	 */
+	private void load()
+	{
+		if (this.indexFile == null || !this.indexFile.exists())
+		{
+			return;
+		}
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)));
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || !in.readUTF().equals(this.getIndexKey()))
+			{
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				long key = in.readLong();
+				RegionEntry entry = new RegionEntry();
+				entry.mtime = in.readLong();
+				entry.length = in.readLong();
+				for (int j = 0; j < entry.present.length; j++)
+				{
+					entry.present[j] = in.readLong();
+				}
+				for (int j = 0; j < entry.timestamps.length; j++)
+				{
+					entry.timestamps[j] = in.readInt();
+				}
+				this.regions.put(key, entry);
+			}
+		}
+		catch (IOException e)
+		{
+			// Just start over from scratch
+			Utility.logger.warn("Could not read chunk index " + this.indexFile.getPath() + ": " + e.toString());
+			this.regions.clear();
+		}
+		finally
+		{
+			if (in != null)
+			{
+				try { in.close(); } catch (IOException e) { }
+			}
+		}
+	}
+
+	/**
+	 * Writes our index out to disk.
+	 */
+	private void save()
+	{
+		if (this.indexFile == null)
+		{
+			return;
+		}
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.indexFile)));
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeUTF(this.getIndexKey());
+			out.writeInt(this.regions.size());
+			for (Map.Entry<Long, RegionEntry> mapEntry : this.regions.entrySet())
+			{
+				RegionEntry entry = mapEntry.getValue();
+				out.writeLong(mapEntry.getKey());
+				out.writeLong(entry.mtime);
+				out.writeLong(entry.length);
+				for (long bits : entry.present)
+				{
+					out.writeLong(bits);
+				}
+				for (int timestamp : entry.timestamps)
+				{
+					out.writeInt(timestamp);
+				}
+			}
+			this.changed = false;
+		}
+		catch (IOException e)
+		{
+			// Not fatal; we'll just rebuild next time
+			Utility.logger.warn("Could not save chunk index " + this.indexFile.getPath() + ": " + e.toString());
+		}
+		finally
+		{
+			if (out != null)
+			{
+				try { out.close(); } catch (IOException e) { }
+			}
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds chunks on background threads, so that the render thread doesn't
+ * stall on disk reads, inflation, NBT parsing and the per-chunk scans.
+ *
+ * The render thread request()s chunks and then poll()s for finished ones
+ * each frame.  Workers hand back fully-built Chunks (which haven't touched
+ * OpenGL yet) along with their minimap values; the render thread then just
+ * has to MinecraftLevel.installChunk() them and draw the minimap pixels.
+ *
+ * cancel() throws away everything outstanding - requests which haven't been
+ * started are skipped, and anything finished from before the cancel is
+ * discarded rather than returned.  Use it whenever the set of chunks we want
+ * is reset (loading a new world, jumping the camera, etc).
+ */
+public class ChunkLoader
+{
+	/**
+	 * A finished chunk, ready for the render thread.
+	 */
+	public static class Result
+	{
+		public final int x;
+		public final int z;
+		public final Chunk chunk;
+		public final short[][] minimap;
+		private final int generation;
+
+		private Result(int x, int z, Chunk chunk, short[][] minimap, int generation)
+		{
+			this.x = x;
+			this.z = z;
+			this.chunk = chunk;
+			this.minimap = minimap;
+			this.generation = generation;
+		}
+	}
+
+	private final MinecraftLevel level;
+	private final ExecutorService executor;
+	private final LinkedBlockingQueue<Result> finished = new LinkedBlockingQueue<Result>();
+
+	private int generation = 0;
+	private int pending = 0;
+
+	/**
+	 * @param level The level to build chunks for
+	 * @param threads Number of worker threads, or 0 to pick based on CPU count
+	 */
+	public ChunkLoader(MinecraftLevel level, int threads)
+	{
+		this.level = level;
+		if (threads < 1)
+		{
+			threads = defaultThreadCount();
+		}
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+			public synchronized Thread newThread(final Runnable r)
+			{
+				// Give back our thread's Inflaters once the pool lets us go,
+				// rather than waiting on the finalizer
+				Runnable worker = new Runnable() {
+					public void run()
+					{
+						try
+						{
+							r.run();
+						}
+						finally
+						{
+							ChunkDecompressor.release();
+							ChunkCache.releaseInflater();
+						}
+					}
+				};
+				Thread t = new Thread(worker, "X-Ray chunk loader " + (++count));
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY - 1);
+				return t;
+			}
+		});
+		Utility.logger.debug("Started " + threads + " chunk loader thread(s)");
+	}
+
+	/**
+	 * Leaves one core for the render thread, and doesn't go overboard on big
+	 * machines since we'll mostly end up waiting on the disk anyway.
+	 */
+	public static int defaultThreadCount()
+	{
+		int cpus = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(4, cpus - 1));
+	}
+
+	/**
+	 * Queues up the given chunk to be built.  Chunks are started in the order
+	 * they're requested.
+	 */
+	public void request(final int x, final int z)
+	{
+		final int requestGeneration;
+		synchronized (this)
+		{
+			requestGeneration = this.generation;
+			this.pending++;
+		}
+		this.executor.execute(new Runnable() {
+			public void run()
+			{
+				load(x, z, requestGeneration);
+			}
+		});
+	}
+
+	private void load(int x, int z, int requestGeneration)
+	{
+		Chunk chunk = null;
+		short[][] minimap = null;
+		if (this.isCurrent(requestGeneration))
+		{
+			try
+			{
+				chunk = this.level.decodeChunk(x, z);
+				if (chunk != null)
+				{
+					minimap = chunk.getMinimapValues();
+				}
+			}
+			catch (RuntimeException e)
+			{
+				Utility.logger.error("Error loading chunk " + x + ", " + z + ": " + e);
+				chunk = null;
+			}
+		}
+		synchronized (this)
+		{
+			if (requestGeneration == this.generation)
+			{
+				// Failed loads are still posted, so that getPendingCount() drains
+				this.finished.add(new Result(x, z, chunk, minimap, requestGeneration));
+			}
+		}
+	}
+
+	private synchronized boolean isCurrent(int requestGeneration)
+	{
+		return requestGeneration == this.generation;
+	}
+
+	/**
+	 * Returns the next finished chunk, or null if none are ready.  The chunk
+	 * member of the result will be null if the chunk couldn't be read.
+	 */
+	public Result poll()
+	{
+		Result r;
+		while ((r = this.finished.poll()) != null)
+		{
+			if (this.accept(r))
+			{
+				return r;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Like poll(), but waits up to the given number of milliseconds for a chunk
+	 * to finish.
+	 */
+	public Result poll(long timeoutMillis)
+		throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		while (remaining > 0)
+		{
+			Result r = this.finished.poll(remaining, TimeUnit.MILLISECONDS);
+			if (r == null)
+			{
+				return null;
+			}
+			if (this.accept(r))
+			{
+				return r;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return null;
+	}
+
+	private synchronized boolean accept(Result r)
+	{
+		if (r.generation != this.generation)
+		{
+			return false;
+		}
+		this.pending--;
+		return true;
+	}
+
+	/**
+	 * Number of requested chunks which haven't been returned by poll() yet.
+	 */
+	public synchronized int getPendingCount()
+	{
+		return this.pending;
+	}
+
+	/**
+	 * Forgets about all outstanding requests.
+	 */
+	public synchronized void cancel()
+	{
+		this.generation++;
+		this.pending = 0;
+		this.finished.clear();
+	}
+
+	/**
+	 * Cancels everything and stops our threads.  Chunks already being built
+	 * are allowed to finish in the background, but are thrown away.  We don't
+	 * interrupt the workers, since an interrupt during a read would close the
+	 * shared RegionFile channel out from under everyone else.
+	 */
+	public void shutdown()
+	{
+		this.cancel();
+		this.executor.shutdown();
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The chunks which are currently loaded, keyed by chunk coordinates.  This
+ * is an open-addressing hash table on a packed long key, with linear probing,
+ * so a lookup is a multiply, a shift and (usually) a couple of array reads,
+ * and there's no boxing or per-entry garbage.  There's no limit on how many
+ * chunks it can hold or where they are.
+ *
+ * The chunks themselves live in a dense array, in the order they were
+ * added, which the hash table just indexes into.  Iterating only touches
+ * loaded chunks, and does so in roughly the order they were allocated,
+ * which matters once there are a few thousand of them.
+ *
+ * This is only used from the render thread, so it's not synchronized.
+ */
+public class ChunkMap implements Iterable<Chunk>
+{
+	private static final int MIN_CAPACITY = 64;
+
+	// The hash table: keys, and (index into chunks) + 1, with 0 meaning empty
+	private long[] keys;
+	private int[] slots;
+	private int mask;
+
+	// The chunks, packed into [0, size)
+	private Chunk[] chunks;
+	private long[] chunkKeys;
+	private int size;
+
+	public ChunkMap()
+	{
+		this.clear();
+	}
+
+	private static long key(int chunkX, int chunkZ)
+	{
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Spreads the key out over the table.  This is the finalizer from
+	 * MurmurHash3; neighbouring chunks differ only in the low bits of each
+	 * half, which would otherwise all land in a clump.
+	 */
+	private int home(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & this.mask;
+	}
+
+	/**
+	 * Returns the table position holding the given key, or -1
+	 */
+	private int find(long key)
+	{
+		int i = this.home(key);
+		while (this.slots[i] != 0)
+		{
+			if (this.keys[i] == key)
+			{
+				return i;
+			}
+			i = (i + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the chunk at the given chunk coordinates, or null
+	 */
+	public Chunk get(int chunkX, int chunkZ)
+	{
+		int i = this.find(key(chunkX, chunkZ));
+		if (i < 0)
+		{
+			return null;
+		}
+		return this.chunks[this.slots[i] - 1];
+	}
+
+	/**
+	 * Adds a chunk at its own coordinates, replacing anything already there.
+	 *
+	 * @return The chunk that was replaced, or null
+	 */
+	public Chunk put(Chunk chunk)
+	{
+		long key = key(chunk.point.x, chunk.point.z);
+		int i = this.home(key);
+		while (this.slots[i] != 0)
+		{
+			if (this.keys[i] == key)
+			{
+				int idx = this.slots[i] - 1;
+				Chunk old = this.chunks[idx];
+				this.chunks[idx] = chunk;
+				return old;
+			}
+			i = (i + 1) & this.mask;
+		}
+
+		if (this.size == this.chunks.length)
+		{
+			this.chunks = Arrays.copyOf(this.chunks, this.size * 2);
+			this.chunkKeys = Arrays.copyOf(this.chunkKeys, this.size * 2);
+		}
+		this.chunks[this.size] = chunk;
+		this.chunkKeys[this.size] = key;
+		this.size++;
+		this.keys[i] = key;
+		this.slots[i] = this.size;
+
+		// Keep the load factor at or under a half, so probes stay short
+		if (this.size * 2 > this.slots.length)
+		{
+			this.rehash(this.slots.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the chunk at the given coordinates.
+	 *
+	 * @return The chunk that was removed, or null
+	 */
+	public Chunk remove(int chunkX, int chunkZ)
+	{
+		int i = this.find(key(chunkX, chunkZ));
+		if (i < 0)
+		{
+			return null;
+		}
+		int idx = this.slots[i] - 1;
+		Chunk old = this.chunks[idx];
+		this.deleteSlot(i);
+
+		// Move our last chunk down into the gap
+		int last = this.size - 1;
+		if (idx != last)
+		{
+			this.chunks[idx] = this.chunks[last];
+			this.chunkKeys[idx] = this.chunkKeys[last];
+			this.slots[this.find(this.chunkKeys[idx])] = idx + 1;
+		}
+		this.chunks[last] = null;
+		this.size = last;
+		return old;
+	}
+
+	/**
+	 * Empties the given table position, shifting back any entries after it
+	 * which would otherwise no longer be reachable from their home position.
+	 * This avoids tombstones, so lookups never get slower as chunks come and
+	 * go.
+	 */
+	private void deleteSlot(int hole)
+	{
+		int i = hole;
+		while (true)
+		{
+			i = (i + 1) & this.mask;
+			if (this.slots[i] == 0)
+			{
+				break;
+			}
+			int home = this.home(this.keys[i]);
+			// Move this entry into the hole unless its home lies cyclically
+			// within (hole, i]
+			if (((i - home) & this.mask) >= ((i - hole) & this.mask))
+			{
+				this.keys[hole] = this.keys[i];
+				this.slots[hole] = this.slots[i];
+				hole = i;
+			}
+		}
+		this.slots[hole] = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		this.keys = new long[capacity];
+		this.slots = new int[capacity];
+		this.mask = capacity - 1;
+		for (int idx = 0; idx < this.size; idx++)
+		{
+			int i = this.home(this.chunkKeys[idx]);
+			while (this.slots[i] != 0)
+			{
+				i = (i + 1) & this.mask;
+			}
+			this.keys[i] = this.chunkKeys[idx];
+			this.slots[i] = idx + 1;
+		}
+	}
+
+	/**
+	 * Removes everything
+	 */
+	public void clear()
+	{
+		this.keys = new long[MIN_CAPACITY];
+		this.slots = new int[MIN_CAPACITY];
+		this.mask = MIN_CAPACITY - 1;
+		this.chunks = new Chunk[MIN_CAPACITY / 2];
+		this.chunkKeys = new long[MIN_CAPACITY / 2];
+		this.size = 0;
+	}
+
+	/**
+	 * How many chunks we hold
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Iterates over our chunks, in no particular order.  The map mustn't be
+	 * modified while this is going on.
+	 */
+	public Iterator<Chunk> iterator()
+	{
+		return new Iterator<Chunk>() {
+			private int next = 0;
+
+			public boolean hasNext()
+			{
+				return this.next < size;
+			}
+
+			public Chunk next()
+			{
+				if (this.next >= size)
+				{
+					throw new NoSuchElementException();
+				}
+				return chunks[this.next++];
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -26,6 +26,8 @@
  */
 package com.apocalyptech.minecraft.xray;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.lang.Math;
 import java.util.Map;
 import java.util.Random;
@@ -38,10 +40,7 @@ import org.lwjgl.opengl.GL11;
 
 import com.apocalyptech.minecraft.xray.dtf.ShortArrayTag;
 import com.apocalyptech.minecraft.xray.dtf.ByteArrayTag;
-import com.apocalyptech.minecraft.xray.dtf.CompoundTag;
-import com.apocalyptech.minecraft.xray.dtf.StringTag;
-import com.apocalyptech.minecraft.xray.dtf.ListTag;
-import com.apocalyptech.minecraft.xray.dtf.IntTag;
+import com.apocalyptech.minecraft.xray.dtf.DTFProjection;
 import com.apocalyptech.minecraft.xray.dtf.Tag;
 
 import static com.apocalyptech.minecraft.xray.MinecraftConstants.*;
@@ -57,86 +56,97 @@ public class ChunkOriginal extends Chunk {
 	private static final int BLOCKSPERROW = 128;
 	private static final int BLOCKSPERCOLUMN = BLOCKSPERROW * 16;
 
-	private ShortArrayTag blockData;
-	private ByteArrayTag mapData;
+	// Just the arrays out of the Blocks and Data tags; we don't hang on to
+	// the tags themselves.
+	private short[] blockData;
+	private byte[] mapData;
 	
-	public ChunkOriginal(MinecraftLevel level, Tag data) {
 
-		super(level, data);
+	private static final DTFProjection ORIGINAL_PROJECTION = PROJECTION.with(
+			"Level/Blocks",
+			"Level/Data");
+	
+	public ChunkOriginal(MinecraftLevel level, ByteBuffer data)
+		throws IOException
+	{
+
+		super(level);
 
 		this.maxHeight = 127;
 		this.ceilingHeight = 127;
 		
-		blockData = (ShortArrayTag) this.levelTag.getTagWithName("Blocks");
-		mapData = (ByteArrayTag) this.levelTag.getTagWithName("Data");
+		this.readChunkData(data, ORIGINAL_PROJECTION);
+		if (blockData == null || mapData == null)
+		{
+			throw new IOException("Chunk data has no blocks");
+		}
 
 		this.finishConstructor();
 	}
-	
+
+	private ChunkOriginal(MinecraftLevel level)
+	{
+		super(level);
+
+		this.maxHeight = 127;
+		this.ceilingHeight = 127;
+	}
+
 	/**
-	 * Will return an array of values which are suitable for feeding into a
-	 * minimap.
+	 * Rebuilds a chunk from the output of writeSnapshot(), for ChunkCache
 	 */
-	public short[][] getMinimapValues()
+	public static ChunkOriginal fromSnapshot(MinecraftLevel level, ByteBuffer snapshot)
 	{
-		short[][] minimap = new short[16][16];
-		boolean in_nether = this.level.world.isDimension(-1);
-		boolean found_air;
-		boolean found_solid;
-		boolean drew_block;
+		ChunkOriginal c = new ChunkOriginal(level);
+		c.readSnapshot(snapshot);
+		c.blockData = new short[snapshot.getInt()];
+		snapshot.asShortBuffer().get(c.blockData);
+		snapshot.position(snapshot.position() + (c.blockData.length * 2));
+		c.mapData = new byte[snapshot.getInt()];
+		snapshot.get(c.mapData);
+		c.finishSnapshot(snapshot);
+		return c;
+	}
 
-		int blockOffset;
-		short block;
-		for (int zz = 0; zz < 16; zz++)
-		{
-			for (int xx = 0; xx < 16; xx++)
-			{
-				// determine the top most visible block
-				found_air = !in_nether;
-				drew_block = false;
-				found_solid = false;
-				for (int yy = this.maxHeight; yy >= 0; yy--)
-				{
-					blockOffset = yy + (zz * 128) + (xx * 128 * 16);
-					block = blockData.value[blockOffset];
+	protected void writeBlockSnapshot(ByteBuffer out)
+	{
+		out.putInt(blockData.length);
+		out.asShortBuffer().put(blockData);
+		out.position(out.position() + (blockData.length * 2));
+		out.putInt(mapData.length);
+		out.put(mapData);
+	}
 
-					if (block > 0)
-					{
-						if (in_nether && !found_solid)
-						{
-							found_air = false;
-						}
-						found_solid = true;
-						if (found_air)
-						{
-							minimap[xx][zz] = block;
-							drew_block = true;
-							break;
-						}
-					}
-					else
-					{
-						found_air = true;
-					}
-				}
+	/**
+	 * Our block and data arrays
+	 */
+	protected int getBlockMemoryUsage()
+	{
+		return 16 + (blockData.length * 2) + 16 + mapData.length;
+	}
 
-				// Make sure we don't have holes in our Nether minimap
-				if (in_nether && found_solid && !drew_block)
-				{
-					minimap[xx][zz] = MinecraftConstants.BLOCK_BEDROCK.id;
-				}
-			}
+	protected void loadTag(String path, Tag tag)
+	{
+		if (path.equals("Level/Blocks"))
+		{
+			blockData = ((ShortArrayTag) tag).value;
+		}
+		else if (path.equals("Level/Data"))
+		{
+			mapData = ((ByteArrayTag) tag).value;
+		}
+		else
+		{
+			super.loadTag(path, tag);
 		}
-
-		return minimap;
 	}
-
+	
 	/**
 	 * Gets the Block ID of the block immediately to the given facing. This might
 	 * load in the adjacent chunk, if needed.  Will return -1 if that adjacent
 	 * chunk can't be found.
 	 */
-	protected short getAdjBlockId(int x, int y, int z, FACING facing, int blockOffset) {
+	protected short getUnpaddedAdjBlockId(int x, int y, int z, FACING facing, int blockOffset) {
 		switch(facing) {
 			case TOP:
 				return getAdjUpBlockId(x, y, z, blockOffset);
@@ -164,7 +174,7 @@ public class ChunkOriginal extends Chunk {
 	{
 		if (x > 0)
 		{
-			return blockData.value[blockOffset-BLOCKSPERCOLUMN];
+			return blockData[blockOffset-BLOCKSPERCOLUMN];
 		}
 		else
 		{
@@ -189,7 +199,7 @@ public class ChunkOriginal extends Chunk {
 	{
 		if (x < 15)
 		{
-			return blockData.value[blockOffset+BLOCKSPERCOLUMN];
+			return blockData[blockOffset+BLOCKSPERCOLUMN];
 		}
 		else
 		{
@@ -214,7 +224,7 @@ public class ChunkOriginal extends Chunk {
 	{
 		if (z > 0)
 		{
-			return blockData.value[blockOffset-BLOCKSPERROW];
+			return blockData[blockOffset-BLOCKSPERROW];
 		}
 		else
 		{
@@ -239,7 +249,7 @@ public class ChunkOriginal extends Chunk {
 	{
 		if (z < 15)
 		{
-			return blockData.value[blockOffset+BLOCKSPERROW];
+			return blockData[blockOffset+BLOCKSPERROW];
 		}
 		else
 		{
@@ -267,7 +277,7 @@ public class ChunkOriginal extends Chunk {
 		}
 		else
 		{
-			return blockData.value[blockOffset+1];
+			return blockData[blockOffset+1];
 		}
 	}
 
@@ -283,16 +293,24 @@ public class ChunkOriginal extends Chunk {
 		}
 		else
 		{
-			return blockData.value[blockOffset-1];
+			return blockData[blockOffset-1];
 		}
 	}
 	
+	/**
+	 * Returns the offset of the given coordinates into our block data
+	 */
+	protected int getBlockOffset(int x, int y, int z)
+	{
+		return y + (z * 128) + (x * 128 * 16);
+	}
+
 	/**
 	 * Gets the block ID at the specified coordinate in the chunk.  This is
 	 * only really used in the getAdj*BlockId() methods.
 	 */
 	public short getBlock(int x, int y, int z) {
-		return blockData.value[y + (z * 128) + (x * 128 * 16)];
+		return blockData[y + (z * 128) + (x * 128 * 16)];
 	}
 
 	/**
@@ -302,11 +320,11 @@ public class ChunkOriginal extends Chunk {
 		int offset = y + (z * 128) + (x * 128 * 16);
 		int halfOffset = offset / 2;
 		if(offset % 2 == 0) {
-			return (byte) (mapData.value[halfOffset] & 0xF);
+			return (byte) (mapData[halfOffset] & 0xF);
 		} else {
 			// We shouldn't have to &0xF here, but if we don't the value
 			// returned could be negative, even though that would be silly.
-			return (byte) ((mapData.value[halfOffset] >> 4) & 0xF);
+			return (byte) ((mapData[halfOffset] >> 4) & 0xF);
 		}
 	}
 
@@ -323,7 +341,7 @@ public class ChunkOriginal extends Chunk {
 		this.l.y = this.lOffset % 128;
 		this.l.z = (this.lOffset / 128) % 16;
 		this.l.x = this.lOffset / 2048;
-		return this.blockData.value[this.lOffset];
+		return this.blockData[this.lOffset];
 	}
 
 }
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Block IDs and data values for a single 16x16x16 Anvil section.
+ *
+ * Sections are either stored "dense", as the full short[4096] of block IDs
+ * and byte[2048] of data nibbles that come out of the chunk file (about
+ * 10K), or "packed": a palette of the distinct ID/data combinations in the
+ * section, plus a bit-packed index into that palette for each block.  Most
+ * sections only use a handful of distinct blocks, so a packed section is
+ * usually 1-2K.  The representation is picked per section when it's built,
+ * based on how many distinct blocks there are, and packing can be turned
+ * off entirely with setPaletteEnabled().
+ *
+ * Index widths are always powers of two, so that entries never straddle a
+ * long and finding one is just shifts and masks.  This is deliberately one
+ * final class with a branch, rather than a class per representation, so
+ * that the call sites in ChunkAnvil stay monomorphic.
+ */
+public final class ChunkSection
+{
+	public static final int BLOCKS = 4096;
+
+	// Sections with more distinct ID/data values than this stay dense; at 8
+	// bits per block a packed section is still well under half the size.
+	private static final int MAX_PALETTE = 256;
+
+	private static volatile boolean paletteEnabled = true;
+
+	// Dense storage, or null if we're packed
+	private final short[] blocks;
+	private final byte[] data;
+
+	// Packed storage.  Palette entries are (id << 4) | data.
+	private final char[] palette;
+	private final long[] indexes;
+	private final int bitsShift;
+	private final int perLongShift;
+	private final int mask;
+
+	// Scratch space for building palettes, one per loader thread: for each
+	// ID/data value, the generation it was last seen in (high 16 bits) and
+	// its palette index (low 16 bits).
+	private static final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>() {
+		protected int[] initialValue()
+		{
+			return new int[65536];
+		}
+	};
+	private static final ThreadLocal<int[]> scratchGeneration = new ThreadLocal<int[]>() {
+		protected int[] initialValue()
+		{
+			return new int[] { 0 };
+		}
+	};
+
+	/**
+	 * Sets whether new sections may be palette-packed.  Sections which have
+	 * already been built are left as they are.
+	 */
+	public static void setPaletteEnabled(boolean enabled)
+	{
+		paletteEnabled = enabled;
+	}
+
+	public static boolean isPaletteEnabled()
+	{
+		return paletteEnabled;
+	}
+
+	private ChunkSection(short[] blocks, byte[] data)
+	{
+		this.blocks = blocks;
+		this.data = data;
+		this.palette = null;
+		this.indexes = null;
+		this.bitsShift = 0;
+		this.perLongShift = 0;
+		this.mask = 0;
+	}
+
+	private ChunkSection(char[] palette, long[] indexes, int bitsShift)
+	{
+		this.blocks = null;
+		this.data = null;
+		this.palette = palette;
+		this.indexes = indexes;
+		this.bitsShift = bitsShift;
+		this.perLongShift = 6 - bitsShift;
+		this.mask = (1 << (1 << bitsShift)) - 1;
+	}
+
+	/**
+	 * Builds a section from the arrays in the chunk file, packing it if that's
+	 * enabled and worthwhile.  The arrays are kept as-is if the section stays
+	 * dense, so callers shouldn't modify them afterwards.
+	 *
+	 * @param blocks 4096 block IDs, in YZX order
+	 * @param data 2048 bytes of data values, two per byte
+	 */
+	public static ChunkSection create(short[] blocks, byte[] data)
+	{
+		if (!paletteEnabled)
+		{
+			return new ChunkSection(blocks, data);
+		}
+
+		int[] seen = scratch.get();
+		int[] genHolder = scratchGeneration.get();
+		int gen = ++genHolder[0];
+		if (gen > 0xFFFF)
+		{
+			Arrays.fill(seen, 0);
+			gen = genHolder[0] = 1;
+		}
+		int genTag = gen << 16;
+
+		// First work out our palette, and each block's index into it
+		char[] palette = new char[16];
+		int paletteSize = 0;
+		char[] paletteIdx = new char[BLOCKS];
+		for (int i = 0; i < BLOCKS; i++)
+		{
+			int state = (blocks[i] << 4) | ((data[i >> 1] >> ((i & 1) << 2)) & 0xF);
+			int entry = seen[state];
+			if ((entry & 0xFFFF0000) == genTag)
+			{
+				paletteIdx[i] = (char) (entry & 0xFFFF);
+			}
+			else
+			{
+				if (paletteSize == MAX_PALETTE)
+				{
+					return new ChunkSection(blocks, data);
+				}
+				if (paletteSize == palette.length)
+				{
+					palette = Arrays.copyOf(palette, palette.length * 2);
+				}
+				seen[state] = genTag | paletteSize;
+				palette[paletteSize] = (char) state;
+				paletteIdx[i] = (char) paletteSize;
+				paletteSize++;
+			}
+		}
+
+		// Pick the narrowest power-of-two width which holds every index
+		int bitsShift = 0;
+		while ((1 << (1 << bitsShift)) < paletteSize)
+		{
+			bitsShift++;
+		}
+		int bits = 1 << bitsShift;
+		int perLongShift = 6 - bitsShift;
+		long[] indexes = new long[BLOCKS >> perLongShift];
+		for (int i = 0; i < BLOCKS; i++)
+		{
+			indexes[i >> perLongShift] |= ((long) paletteIdx[i]) << ((i & ((1 << perLongShift) - 1)) << bitsShift);
+		}
+		return new ChunkSection(Arrays.copyOf(palette, paletteSize), indexes, bitsShift);
+	}
+
+	/**
+	 * Writes the section out as-is, packed or not, for ChunkCache.
+	 */
+	public void writeSnapshot(ByteBuffer out)
+	{
+		if (this.blocks != null)
+		{
+			out.put((byte) -1);
+			out.asShortBuffer().put(this.blocks);
+			out.position(out.position() + (this.blocks.length * 2));
+			out.putShort((short) this.data.length);
+			out.put(this.data);
+		}
+		else
+		{
+			out.put((byte) this.bitsShift);
+			out.putShort((short) this.palette.length);
+			out.asCharBuffer().put(this.palette);
+			out.position(out.position() + (this.palette.length * 2));
+			out.asLongBuffer().put(this.indexes);
+			out.position(out.position() + (this.indexes.length * 8));
+		}
+	}
+
+	/**
+	 * Reads back a section written by writeSnapshot().  It's kept in whichever
+	 * form it was written in.
+	 */
+	public static ChunkSection readSnapshot(ByteBuffer in)
+	{
+		int bitsShift = in.get();
+		if (bitsShift < 0)
+		{
+			short[] blocks = new short[BLOCKS];
+			in.asShortBuffer().get(blocks);
+			in.position(in.position() + (BLOCKS * 2));
+			byte[] data = new byte[in.getShort()];
+			in.get(data);
+			return new ChunkSection(blocks, data);
+		}
+		char[] palette = new char[in.getShort()];
+		in.asCharBuffer().get(palette);
+		in.position(in.position() + (palette.length * 2));
+		long[] indexes = new long[BLOCKS >> (6 - bitsShift)];
+		in.asLongBuffer().get(indexes);
+		in.position(in.position() + (indexes.length * 8));
+		return new ChunkSection(palette, indexes, bitsShift);
+	}
+
+	/**
+	 * Returns the palette entry for the given block offset
+	 */
+	private int getState(int offset)
+	{
+		long word = this.indexes[offset >> this.perLongShift];
+		int shift = (offset & ((1 << this.perLongShift) - 1)) << this.bitsShift;
+		return this.palette[(int) (word >>> shift) & this.mask];
+	}
+
+	/**
+	 * Gets the block ID at the given offset ((y*256) + (z*16) + x)
+	 */
+	public short getBlock(int offset)
+	{
+		if (this.blocks != null)
+		{
+			return this.blocks[offset];
+		}
+		return (short) (this.getState(offset) >> 4);
+	}
+
+	/**
+	 * Gets the data value at the given offset ((y*256) + (z*16) + x)
+	 */
+	public byte getData(int offset)
+	{
+		if (this.data != null)
+		{
+			return (byte) ((this.data[offset >> 1] >> ((offset & 1) << 2)) & 0xF);
+		}
+		return (byte) (this.getState(offset) & 0xF);
+	}
+
+	/**
+	 * Whether we're palette-packed
+	 */
+	public boolean isPacked()
+	{
+		return this.blocks == null;
+	}
+
+	/**
+	 * Number of distinct ID/data values in a packed section, or 0 if we're dense
+	 */
+	public int getPaletteSize()
+	{
+		return this.palette == null ? 0 : this.palette.length;
+	}
+
+	/**
+	 * Rough number of bytes of heap our arrays take up, including array
+	 * headers but not this object itself.
+	 */
+	public int getMemoryUsage()
+	{
+		if (this.blocks != null)
+		{
+			return 16 + (this.blocks.length * 2) + 16 + this.data.length;
+		}
+		return 16 + (this.palette.length * 2) + 16 + (this.indexes.length * 8);
+	}
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.util.Arrays;
+
+import com.apocalyptech.minecraft.xray.enums.FACING;
+import com.apocalyptech.minecraft.xray.enums.RENDER_PASS;
+
+/**
+ * Merges the exposed faces of solid blocks into as few quads as it can.
+ * Chunk hands us every face it would have drawn while it walks its blocks,
+ * and once it's done we sweep each slice of the chunk for each facing,
+ * growing rectangles of matching faces first along one axis and then the
+ * other.
+ *
+ * A merged quad covers several copies of the same texture, which texture
+ * coordinates into our sprite sheets can't express directly, so quads come
+ * out with "tiled" coordinates instead: the whole part of each coordinate
+ * says which sprite to use (TILE_SPAN per sprite row/column) and the
+ * fractional part is the position within that sprite.  TiledQuadShader
+ * knows how to draw those.  Like MeshBuilder, this doesn't touch OpenGL.
+ */
+public class GreedyMesher
+{
+	// Width of each sprite's range in tiled texture coordinates.  This has
+	// to be an integer, and bigger than TILE_MARGIN plus the tallest quad.
+	public static final int TILE_SPAN = 512;
+
+	// Where a quad's coordinates start within its sprite's range, so that
+	// interpolation can't nudge a fragment into the previous sprite
+	private static final int TILE_MARGIN = 128;
+
+	// The longest run of faces we'll merge into one quad, leaving as much
+	// room after the quad within its sprite's range as TILE_MARGIN leaves
+	// before it.  Chunks taller than this (modded worlds can have more than
+	// 16 sections) just get their columns split into several quads.
+	private static final int MAX_RUN = TILE_SPAN - (2 * TILE_MARGIN);
+
+	private static final int FACINGS = FACING.values().length;
+
+	// Room for each sheet's textures in the face arrays below
+	private static final int SHEET_STRIDE = 1024;
+
+	// The sheet and texture for each face (sheet * SHEET_STRIDE + texture),
+	// plus one; zero for no face.  One array per facing, each laid out as
+	// slice, then row, then column.  Sized for a vanilla 256-block chunk to
+	// start with, and grown by begin() if we're given a taller one.
+	private int[][] faces = new int[FACINGS][16 * 16 * 256];
+	private int[] minSlice = new int[FACINGS];
+	private int[] maxSlice = new int[FACINGS];
+	private int height;
+
+	// Which way our texture runs along each facing's faces, taken from the
+	// corners which Chunk.renderBlockFace() draws
+	private static final float[][] U_DIRS = new float[FACINGS][3];
+	private static final float[][] V_DIRS = new float[FACINGS][3];
+	static
+	{
+		for (int f = 0; f < FACINGS; f++)
+		{
+			float[][] corners = Chunk.BLOCK_FACES[f];
+			for (int i = 0; i < 3; i++)
+			{
+				U_DIRS[f][i] = corners[1][i] - corners[0][i];
+				V_DIRS[f][i] = corners[2][i] - corners[0][i];
+			}
+		}
+	}
+
+	// Scratch space for the quad we're emitting
+	private float[] pos = new float[3];
+	private float[] first = new float[3];
+
+	// How many faces we were given and how many quads we made of them
+	private int faceCount;
+	private int quadCount;
+
+	public GreedyMesher()
+	{
+		for (int f = 0; f < FACINGS; f++)
+		{
+			this.minSlice[f] = Integer.MAX_VALUE;
+			this.maxSlice[f] = -1;
+		}
+	}
+
+	/**
+	 * Starts collecting faces for a chunk.
+	 *
+	 * @param height How many blocks tall the chunk is
+	 */
+	public void begin(int height)
+	{
+		this.height = height;
+
+		// Every facing needs 16 * 16 * height: side facings have height rows
+		// in each of 16 slices, and TOP/BOTTOM have height slices of 16 rows.
+		// Anything we already have is empty after finish(), so there's nothing
+		// to copy over.
+		int size = 16 * 16 * height;
+		for (int f = 0; f < FACINGS; f++)
+		{
+			if (this.faces[f].length < size)
+			{
+				this.faces[f] = new int[size];
+			}
+		}
+	}
+
+	private int getRows(FACING facing)
+	{
+		if (facing == FACING.TOP || facing == FACING.BOTTOM)
+		{
+			return 16;
+		}
+		return this.height;
+	}
+
+	/**
+	 * Adds a face, at chunk-relative block coordinates
+	 */
+	public void add(FACING facing, int x, int y, int z, int sheet, int texture)
+	{
+		int slice;
+		int row;
+		int col;
+		switch (facing)
+		{
+			case TOP:
+			case BOTTOM:
+				slice = y;
+				row = z;
+				col = x;
+				break;
+			case NORTH:
+			case SOUTH:
+				slice = z;
+				row = y;
+				col = x;
+				break;
+			default:
+				slice = x;
+				row = y;
+				col = z;
+				break;
+		}
+		int f = facing.ordinal();
+		this.faces[f][(((slice * this.getRows(facing)) + row) * 16) + col] = (sheet * SHEET_STRIDE) + texture + 1;
+		if (slice < this.minSlice[f])
+		{
+			this.minSlice[f] = slice;
+		}
+		if (slice > this.maxSlice[f])
+		{
+			this.maxSlice[f] = slice;
+		}
+		this.faceCount++;
+	}
+
+	/**
+	 * Merges the faces we've been given for one facing and adds the results
+	 * to the RENDER_PASS.SOLIDS bucket for each face's sheet.  Afterwards
+	 * we're empty for that facing again.
+	 *
+	 * @param facing Which faces to merge
+	 * @param buckets Where our quads go
+	 * @param shade The color to draw our quads in
+	 * @param worldX World X coordinate of the chunk's first block
+	 * @param worldZ World Z coordinate of the chunk's first block
+	 */
+	public void finish(FACING facing, MeshBuckets buckets, float shade, float worldX, float worldZ)
+	{
+		int fi = facing.ordinal();
+		int[] f = this.faces[fi];
+		int lastSheet = -1;
+		MeshBuilder mesh = null;
+		int rows = this.getRows(facing);
+		for (int slice = this.minSlice[fi]; slice <= this.maxSlice[fi]; slice++)
+		{
+			int sliceStart = slice * rows * 16;
+			for (int row = 0; row < rows; row++)
+			{
+				int rowStart = sliceStart + (row * 16);
+				for (int col = 0; col < 16; col++)
+				{
+					int t = f[rowStart + col];
+					if (t == 0)
+					{
+						continue;
+					}
+
+					// Grow along the row
+					int w = 1;
+					while (col + w < 16 && f[rowStart + col + w] == t)
+					{
+						w++;
+					}
+
+					// Then down the rows, as long as the whole span matches
+					int h = 1;
+					grow:
+					while (row + h < rows && h < MAX_RUN)
+					{
+						int next = rowStart + (h * 16) + col;
+						for (int i = 0; i < w; i++)
+						{
+							if (f[next + i] != t)
+							{
+								break grow;
+							}
+						}
+						h++;
+					}
+
+					for (int j = 0; j < h; j++)
+					{
+						Arrays.fill(f, rowStart + (j * 16) + col, rowStart + (j * 16) + col + w, 0);
+					}
+					int sheet = (t - 1) / SHEET_STRIDE;
+					if (sheet != lastSheet)
+					{
+						mesh = buckets.get(sheet, RENDER_PASS.SOLIDS);
+						mesh.setTiled();
+						mesh.color(shade, shade, shade);
+						lastSheet = sheet;
+					}
+					this.emit(mesh, facing, slice, row, col, w, h, (t - 1) % SHEET_STRIDE, worldX, worldZ);
+				}
+			}
+		}
+		this.minSlice[fi] = Integer.MAX_VALUE;
+		this.maxSlice[fi] = -1;
+	}
+
+	/**
+	 * Adds one merged quad to the mesh, with its corners in the same order
+	 * as renderBlockFace() would use for a single block.
+	 */
+	private void emit(MeshBuilder mesh, FACING facing, int slice, int row, int col, int w, int h, int texture, float worldX, float worldZ)
+	{
+		float[][] corners = Chunk.BLOCK_FACES[facing.ordinal()];
+		float[] uDir = U_DIRS[facing.ordinal()];
+		float[] vDir = V_DIRS[facing.ordinal()];
+		float tileU = ((texture % 16) * TILE_SPAN) + TILE_MARGIN;
+		float tileV = ((texture / 16) * TILE_SPAN) + TILE_MARGIN;
+		mesh.beginStrip();
+		for (int i = 0; i < 4; i++)
+		{
+			float[] corner = corners[i];
+
+			// Each corner of the merged quad comes from whichever block is
+			// furthest out in that corner's direction
+			int x;
+			int y;
+			int z;
+			switch (facing)
+			{
+				case TOP:
+				case BOTTOM:
+					y = slice;
+					z = (corner[2] < 0) ? row : row + h - 1;
+					x = (corner[0] < 0) ? col : col + w - 1;
+					break;
+				case NORTH:
+				case SOUTH:
+					z = slice;
+					y = (corner[1] < 0) ? row : row + h - 1;
+					x = (corner[0] < 0) ? col : col + w - 1;
+					break;
+				default:
+					x = slice;
+					y = (corner[1] < 0) ? row : row + h - 1;
+					z = (corner[2] < 0) ? col : col + w - 1;
+					break;
+			}
+			this.pos[0] = x + worldX + corner[0];
+			this.pos[1] = y + corner[1];
+			this.pos[2] = z + worldZ + corner[2];
+			if (i == 0)
+			{
+				System.arraycopy(this.pos, 0, this.first, 0, 3);
+			}
+
+			// Our texture repeats once per block, starting from the first corner
+			float u = 0f;
+			float v = 0f;
+			for (int a = 0; a < 3; a++)
+			{
+				u += (this.pos[a] - this.first[a]) * uDir[a];
+				v += (this.pos[a] - this.first[a]) * vDir[a];
+			}
+			mesh.texCoord(tileU + u, tileV + v);
+			mesh.vertex(this.pos[0], this.pos[1], this.pos[2]);
+		}
+		mesh.endStrip();
+		this.quadCount++;
+	}
+
+	/**
+	 * How many faces we've been given since the last resetCounts()
+	 */
+	public int getFaceCount()
+	{
+		return this.faceCount;
+	}
+
+	/**
+	 * How many quads we've made since the last resetCounts()
+	 */
+	public int getQuadCount()
+	{
+		return this.quadCount;
+	}
+
+	public void resetCounts()
+	{
+		this.faceCount = 0;
+		this.quadCount = 0;
+	}
+}
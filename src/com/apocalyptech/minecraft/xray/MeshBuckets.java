@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.util.HashMap;
+
+import com.apocalyptech.minecraft.xray.enums.RENDER_PASS;
+
+/**
+ * A MeshBuilder for each texture sheet and render pass, so that a chunk
+ * can sort everything it draws into the right mesh during a single walk
+ * over its blocks.  Builders are created as they're first asked for and
+ * kept for reuse.  Like MeshBuilder, this doesn't touch OpenGL.
+ */
+public class MeshBuckets
+{
+	private static final int PASSES = RENDER_PASS.values().length;
+
+	private HashMap<Integer, MeshBuilder[]> builders = new HashMap<Integer, MeshBuilder[]>();
+
+	public MeshBuckets()
+	{
+	}
+
+	/**
+	 * Returns the builder for the given sheet and pass.
+	 */
+	public MeshBuilder get(int sheet, RENDER_PASS pass)
+	{
+		MeshBuilder[] sheetBuilders = this.builders.get(sheet);
+		if (sheetBuilders == null)
+		{
+			sheetBuilders = new MeshBuilder[PASSES];
+			this.builders.put(sheet, sheetBuilders);
+		}
+		MeshBuilder builder = sheetBuilders[pass.ordinal()];
+		if (builder == null)
+		{
+			builder = new MeshBuilder();
+			sheetBuilders[pass.ordinal()] = builder;
+		}
+		return builder;
+	}
+
+	/**
+	 * Empties all our builders, ready for the next chunk.  There's only a
+	 * handful per sheet, so we don't bother tracking which were used.
+	 */
+	public void reset()
+	{
+		for (MeshBuilder[] sheetBuilders : this.builders.values())
+		{
+			for (MeshBuilder builder : sheetBuilders)
+			{
+				if (builder != null)
+				{
+					builder.reset();
+				}
+			}
+		}
+	}
+}
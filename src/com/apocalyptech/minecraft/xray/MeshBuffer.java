@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * The GL side of a mesh built by MeshBuilder: uploads the vertex data into
+ * a vertex buffer object and draws it from there.  On the odd card which
+ * doesn't do VBOs we keep the data in a direct buffer of our own and draw
+ * it as a client-side vertex array instead.
+ *
+ * Everything in here has to happen on the render thread.
+ */
+public class MeshBuffer
+{
+	private static final int STRIDE = MeshBuilder.VERTEX_BYTES;
+
+	// Whether we can use VBOs; decided the first time we upload anything
+	private static Boolean useVBO = null;
+
+	// Scratch space for getting data into VBOs, shared by everything
+	private static ByteBuffer uploadBuffer = null;
+
+	// Total bytes of vertex data across all our meshes
+	private static long totalBytes = 0;
+
+	private int buffer = 0;
+	private ByteBuffer clientData = null;
+	private FloatBuffer clientVertices = null;
+	private FloatBuffer clientTexCoords = null;
+	private ByteBuffer clientColors = null;
+	private int vertexCount = 0;
+	private int bytes = 0;
+	private boolean colored = false;
+	private boolean tiled = false;
+
+	public MeshBuffer()
+	{
+	}
+
+	private static boolean useVBO()
+	{
+		if (useVBO == null)
+		{
+			useVBO = GLContext.getCapabilities().OpenGL15;
+			if (!useVBO)
+			{
+				Utility.logger.info("OpenGL 1.5 isn't available; drawing chunks from client-side vertex arrays");
+			}
+		}
+		return useVBO;
+	}
+
+	/**
+	 * Replaces whatever we had with the contents of the given builder.  The
+	 * builder can be reset and reused as soon as this returns.
+	 */
+	public void upload(MeshBuilder mesh)
+	{
+		int newBytes = mesh.getVertexCount() * STRIDE;
+		totalBytes += newBytes - this.bytes;
+		this.bytes = newBytes;
+		this.vertexCount = mesh.getVertexCount();
+		this.colored = mesh.isColored();
+		this.tiled = mesh.isTiled();
+
+		if (useVBO())
+		{
+			if (this.vertexCount == 0)
+			{
+				this.releaseBuffer();
+				return;
+			}
+			if (uploadBuffer == null || uploadBuffer.capacity() < newBytes)
+			{
+				uploadBuffer = BufferUtils.createByteBuffer(Math.max(newBytes, 256 * 1024));
+			}
+			uploadBuffer.clear();
+			mesh.writeTo(uploadBuffer.asIntBuffer());
+			uploadBuffer.limit(newBytes);
+			if (this.buffer == 0)
+			{
+				this.buffer = VertexBufferPool.acquire();
+			}
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, this.buffer);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, uploadBuffer, GL15.GL_STATIC_DRAW);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		}
+		else
+		{
+			if (this.vertexCount == 0)
+			{
+				this.clientData = null;
+				return;
+			}
+			if (this.clientData == null || this.clientData.capacity() < newBytes)
+			{
+				this.clientData = BufferUtils.createByteBuffer(newBytes);
+			}
+			this.clientData.clear();
+			mesh.writeTo(this.clientData.asIntBuffer());
+			this.clientData.limit(newBytes);
+			this.clientData.position(0);
+			this.clientVertices = this.clientData.asFloatBuffer();
+			this.clientData.position(12);
+			this.clientTexCoords = this.clientData.asFloatBuffer();
+			this.clientData.position(20);
+			this.clientColors = this.clientData.slice().order(ByteOrder.nativeOrder());
+			this.clientData.position(0);
+		}
+	}
+
+	/**
+	 * Draws our mesh.  Meshes without their own colors use whatever color
+	 * is current; meshes with them leave the current color at white.
+	 */
+	public void draw()
+	{
+		if (this.vertexCount == 0)
+		{
+			return;
+		}
+		if (this.tiled && !TiledQuadShader.bind())
+		{
+			return;
+		}
+		GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
+		GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+		if (this.colored)
+		{
+			GL11.glEnableClientState(GL11.GL_COLOR_ARRAY);
+		}
+		if (this.buffer != 0)
+		{
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, this.buffer);
+			GL11.glVertexPointer(3, GL11.GL_FLOAT, STRIDE, 0L);
+			GL11.glTexCoordPointer(2, GL11.GL_FLOAT, STRIDE, 12L);
+			if (this.colored)
+			{
+				GL11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, STRIDE, 20L);
+			}
+		}
+		else
+		{
+			GL11.glVertexPointer(3, STRIDE, this.clientVertices);
+			GL11.glTexCoordPointer(2, STRIDE, this.clientTexCoords);
+			if (this.colored)
+			{
+				GL11.glColorPointer(4, true, STRIDE, this.clientColors);
+			}
+		}
+
+		GL11.glDrawArrays(GL11.GL_QUADS, 0, this.vertexCount);
+
+		if (this.tiled)
+		{
+			TiledQuadShader.unbind();
+		}
+
+		if (this.buffer != 0)
+		{
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		}
+		if (this.colored)
+		{
+			GL11.glDisableClientState(GL11.GL_COLOR_ARRAY);
+			GL11.glColor4f(1f, 1f, 1f, 1f);
+		}
+		GL11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+		GL11.glDisableClientState(GL11.GL_VERTEX_ARRAY);
+	}
+
+	private void releaseBuffer()
+	{
+		if (this.buffer != 0)
+		{
+			VertexBufferPool.release(this.buffer);
+			this.buffer = 0;
+		}
+	}
+
+	/**
+	 * Lets go of our GL buffer (or our own copy of the data).  We can be
+	 * uploaded to again afterwards.
+	 */
+	public void dispose()
+	{
+		this.releaseBuffer();
+		this.clientData = null;
+		this.clientVertices = null;
+		this.clientTexCoords = null;
+		this.clientColors = null;
+		totalBytes -= this.bytes;
+		this.bytes = 0;
+		this.vertexCount = 0;
+	}
+
+	public int getVertexCount()
+	{
+		return this.vertexCount;
+	}
+
+	/**
+	 * Bytes of vertex data we're holding, wherever it lives
+	 */
+	public int getBytes()
+	{
+		return this.bytes;
+	}
+
+	/**
+	 * Bytes of vertex data held by every mesh we've got
+	 */
+	public static long getTotalBytes()
+	{
+		return totalBytes;
+	}
+}
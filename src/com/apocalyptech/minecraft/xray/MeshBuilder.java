@@ -0,0 +1,355 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds chunk geometry on the CPU, as interleaved vertex data which
+ * MeshBuffer can hand to OpenGL in one go.  This doesn't touch OpenGL at
+ * all, so meshes can be built (and checked) without a GL context.
+ *
+ * The calls deliberately mirror the immediate-mode ones which Chunk's
+ * render helpers were written against: beginStrip()/endStrip() around
+ * texCoord()/vertex() pairs, color(), and a matrix stack with translate(),
+ * rotate() and scale() which is applied to vertices as they come in.
+ * Triangle strips are stored as quads, so that one mesh can hold all of
+ * them.
+ *
+ * Each vertex is VERTEX_INTS ints: x, y, z, u and v as float bits, then
+ * the color as RGBA bytes.  The ints are meant to go into a buffer in
+ * native byte order, which is what MeshBuffer uses.
+ */
+public class MeshBuilder
+{
+	public static final int VERTEX_INTS = 6;
+	public static final int VERTEX_BYTES = VERTEX_INTS * 4;
+
+	private static final boolean BIG_ENDIAN = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+	private static final int WHITE = packColor(1f, 1f, 1f, 1f);
+
+	private int[] data = new int[VERTEX_INTS * 4096];
+	private int vertexCount;
+	private boolean colored;
+	private boolean tiled;
+
+	// The strip in progress
+	private float[] strip = new float[5 * 16];
+	private int stripCount;
+	private float u;
+	private float v;
+	private int color = WHITE;
+
+	// Our current transform, as the top three rows of a 4x4 matrix, plus
+	// the ones which have been pushed
+	private float[] matrix = new float[12];
+	private float[] matrixStack = new float[12 * 8];
+	private int matrixDepth;
+	private boolean identity;
+
+	public MeshBuilder()
+	{
+		this.reset();
+	}
+
+	/**
+	 * Empties us out for another mesh.  Our arrays are kept for reuse.
+	 */
+	public void reset()
+	{
+		this.vertexCount = 0;
+		this.stripCount = 0;
+		this.colored = false;
+		this.tiled = false;
+		this.color = WHITE;
+		this.u = 0f;
+		this.v = 0f;
+		this.matrixDepth = 0;
+		this.loadIdentity();
+	}
+
+	private void loadIdentity()
+	{
+		Arrays.fill(this.matrix, 0f);
+		this.matrix[0] = 1f;
+		this.matrix[5] = 1f;
+		this.matrix[10] = 1f;
+		this.identity = true;
+	}
+
+	/**
+	 * Packs a color so that its bytes come out as R, G, B, A in memory once
+	 * the int is written in native order.
+	 */
+	private static int packColor(float r, float g, float b, float a)
+	{
+		int ri = (int) (r * 255f + .5f) & 0xFF;
+		int gi = (int) (g * 255f + .5f) & 0xFF;
+		int bi = (int) (b * 255f + .5f) & 0xFF;
+		int ai = (int) (a * 255f + .5f) & 0xFF;
+		if (BIG_ENDIAN)
+		{
+			return (ri << 24) | (gi << 16) | (bi << 8) | ai;
+		}
+		else
+		{
+			return ri | (gi << 8) | (bi << 16) | (ai << 24);
+		}
+	}
+
+	/**
+	 * Sets the color for the vertices which follow.  Meshes which never have
+	 * a color set are drawn with whatever color is current in GL instead.
+	 */
+	public void color(float r, float g, float b)
+	{
+		this.color = packColor(r, g, b, 1f);
+		this.colored = true;
+	}
+
+	/**
+	 * Starts a triangle strip.  Strips should have an even number of
+	 * vertices; each pair after the first makes one quad.
+	 */
+	public void beginStrip()
+	{
+		this.stripCount = 0;
+	}
+
+	public void texCoord(float u, float v)
+	{
+		this.u = u;
+		this.v = v;
+	}
+
+	/**
+	 * Adds a vertex to the current strip, using the most recent texture
+	 * coordinates and transforming it by our current matrix.
+	 */
+	public void vertex(float x, float y, float z)
+	{
+		if ((this.stripCount + 1) * 5 > this.strip.length)
+		{
+			this.strip = Arrays.copyOf(this.strip, this.strip.length * 2);
+		}
+		int i = this.stripCount * 5;
+		if (this.identity)
+		{
+			this.strip[i] = x;
+			this.strip[i+1] = y;
+			this.strip[i+2] = z;
+		}
+		else
+		{
+			float[] m = this.matrix;
+			this.strip[i] = (m[0] * x) + (m[1] * y) + (m[2] * z) + m[3];
+			this.strip[i+1] = (m[4] * x) + (m[5] * y) + (m[6] * z) + m[7];
+			this.strip[i+2] = (m[8] * x) + (m[9] * y) + (m[10] * z) + m[11];
+		}
+		this.strip[i+3] = this.u;
+		this.strip[i+4] = this.v;
+		this.stripCount++;
+	}
+
+	/**
+	 * Finishes the current strip, turning it into quads.  Strip vertices
+	 * 0, 1, 2, 3 make the quad 0, 1, 3, 2, and so on down the strip.
+	 */
+	public void endStrip()
+	{
+		for (int first = 0; first + 3 < this.stripCount; first += 2)
+		{
+			this.addStripVertex(first);
+			this.addStripVertex(first + 1);
+			this.addStripVertex(first + 3);
+			this.addStripVertex(first + 2);
+		}
+		this.stripCount = 0;
+	}
+
+	private void addStripVertex(int idx)
+	{
+		if ((this.vertexCount + 1) * VERTEX_INTS > this.data.length)
+		{
+			this.data = Arrays.copyOf(this.data, this.data.length * 2);
+		}
+		int i = this.vertexCount * VERTEX_INTS;
+		int s = idx * 5;
+		this.data[i] = Float.floatToRawIntBits(this.strip[s]);
+		this.data[i+1] = Float.floatToRawIntBits(this.strip[s+1]);
+		this.data[i+2] = Float.floatToRawIntBits(this.strip[s+2]);
+		this.data[i+3] = Float.floatToRawIntBits(this.strip[s+3]);
+		this.data[i+4] = Float.floatToRawIntBits(this.strip[s+4]);
+		this.data[i+5] = this.color;
+		this.vertexCount++;
+	}
+
+	/**
+	 * Saves our current matrix, like glPushMatrix()
+	 */
+	public void pushMatrix()
+	{
+		if ((this.matrixDepth + 1) * 12 > this.matrixStack.length)
+		{
+			this.matrixStack = Arrays.copyOf(this.matrixStack, this.matrixStack.length * 2);
+		}
+		System.arraycopy(this.matrix, 0, this.matrixStack, this.matrixDepth * 12, 12);
+		this.matrixDepth++;
+	}
+
+	/**
+	 * Restores the last matrix we saved, like glPopMatrix()
+	 */
+	public void popMatrix()
+	{
+		if (this.matrixDepth == 0)
+		{
+			throw new IllegalStateException("Matrix stack underflow");
+		}
+		this.matrixDepth--;
+		System.arraycopy(this.matrixStack, this.matrixDepth * 12, this.matrix, 0, 12);
+		this.identity = (this.matrix[0] == 1f && this.matrix[1] == 0f && this.matrix[2] == 0f && this.matrix[3] == 0f &&
+				this.matrix[4] == 0f && this.matrix[5] == 1f && this.matrix[6] == 0f && this.matrix[7] == 0f &&
+				this.matrix[8] == 0f && this.matrix[9] == 0f && this.matrix[10] == 1f && this.matrix[11] == 0f);
+	}
+
+	/**
+	 * Multiplies our current matrix by the given 3x3 rotation/scale and
+	 * translation, on the right, the same way the GL matrix calls do.
+	 */
+	private void multiply(float a0, float a1, float a2, float a4, float a5, float a6,
+			float a8, float a9, float a10, float tx, float ty, float tz)
+	{
+		float[] m = this.matrix;
+		for (int row = 0; row < 12; row += 4)
+		{
+			float m0 = m[row];
+			float m1 = m[row+1];
+			float m2 = m[row+2];
+			m[row] = (m0 * a0) + (m1 * a4) + (m2 * a8);
+			m[row+1] = (m0 * a1) + (m1 * a5) + (m2 * a9);
+			m[row+2] = (m0 * a2) + (m1 * a6) + (m2 * a10);
+			m[row+3] += (m0 * tx) + (m1 * ty) + (m2 * tz);
+		}
+		this.identity = false;
+	}
+
+	/**
+	 * Like glTranslatef()
+	 */
+	public void translate(float x, float y, float z)
+	{
+		this.multiply(1f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 1f, x, y, z);
+	}
+
+	/**
+	 * Like glScalef()
+	 */
+	public void scale(float x, float y, float z)
+	{
+		this.multiply(x, 0f, 0f, 0f, y, 0f, 0f, 0f, z, 0f, 0f, 0f);
+	}
+
+	/**
+	 * Like glRotatef(): rotates by the given number of degrees around the
+	 * given axis.
+	 */
+	public void rotate(float degrees, float x, float y, float z)
+	{
+		float len = (float) Math.sqrt((x * x) + (y * y) + (z * z));
+		if (len == 0f)
+		{
+			return;
+		}
+		x /= len;
+		y /= len;
+		z /= len;
+		double rad = Math.toRadians(degrees);
+		float c = (float) Math.cos(rad);
+		float s = (float) Math.sin(rad);
+		float ic = 1f - c;
+		this.multiply(
+				(x * x * ic) + c, (x * y * ic) - (z * s), (x * z * ic) + (y * s),
+				(y * x * ic) + (z * s), (y * y * ic) + c, (y * z * ic) - (x * s),
+				(x * z * ic) - (y * s), (y * z * ic) + (x * s), (z * z * ic) + c,
+				0f, 0f, 0f);
+	}
+
+	/**
+	 * How many vertices we've got; four per quad
+	 */
+	public int getVertexCount()
+	{
+		return this.vertexCount;
+	}
+
+	public int getQuadCount()
+	{
+		return this.vertexCount / 4;
+	}
+
+	/**
+	 * Whether any of our vertices had a color set
+	 */
+	public boolean isColored()
+	{
+		return this.colored;
+	}
+
+	/**
+	 * Marks this mesh as using GreedyMesher's tiled texture coordinates,
+	 * which need TiledQuadShader to draw.
+	 */
+	public void setTiled()
+	{
+		this.tiled = true;
+	}
+
+	public boolean isTiled()
+	{
+		return this.tiled;
+	}
+
+	/**
+	 * Our raw vertex data; only the first getVertexCount() * VERTEX_INTS ints
+	 * are used.
+	 */
+	public int[] getData()
+	{
+		return this.data;
+	}
+
+	/**
+	 * Copies our vertex data into the given buffer, at its current position
+	 */
+	public void writeTo(IntBuffer buffer)
+	{
+		buffer.put(this.data, 0, this.vertexCount * VERTEX_INTS);
+	}
+}
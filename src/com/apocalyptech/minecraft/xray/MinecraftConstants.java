@@ -249,6 +249,7 @@ public class MinecraftConstants {
 		TOGGLE_ACCURATE_GRASS     (ACTION_CAT.RENDERING, Keyboard.KEY_G, "Toggle Accurate Grass"),
 		TOGGLE_BETA19_FENCES      (ACTION_CAT.RENDERING, Keyboard.KEY_C, "Toggle Beta 1.9 Fences"),
 		TOGGLE_SILVERFISH         (ACTION_CAT.RENDERING, Keyboard.KEY_V, "Toggle Silverfish Highlighting"),
+		TOGGLE_GREEDY_MESHING     (ACTION_CAT.RENDERING, Keyboard.KEY_K, "Toggle Greedy Meshing"),
 		TOGGLE_CHUNK_BORDERS      (ACTION_CAT.RENDERING, Keyboard.KEY_U, "Toggle Chunk Borders"),
 		TOGGLE_SLIME_CHUNKS       (ACTION_CAT.RENDERING, Keyboard.KEY_M, "Toggle Slime Chunk Highlighting"),
 		TOGGLE_SPHERE			  (ACTION_CAT.RENDERING, Keyboard.KEY_SLASH, "Toggle Distance Sphere"),
@@ -39,12 +39,12 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.FileInputStream;
-import java.io.DataInputStream;
 import java.io.LineNumberReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileFilter;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Arrays;
 import java.util.ArrayList;
@@ -210,19 +210,62 @@ public class MinecraftEnvironment {
 		return RegionFileCache.getClosestRegion(world, chunkX, chunkZ);
 	}
 	
+	/**
+	 * Returns the chunk-per-file path of a chunk in a pre-Beta-1.3 world
+	 */
+	private static File getOriginalChunkFile(WorldInfo world, int chunkX, int chunkZ)
+	{
+		int xx = chunkX % 64;
+		if(xx<0) xx = 64+xx;
+		int zz = chunkZ % 64;
+		if(zz<0) zz = 64+zz;
+		String firstFolder 		= Integer.toString(xx, 36);
+		String secondFolder 	= Integer.toString(zz, 36);
+		String filename 		= "c." + Integer.toString(chunkX, 36) + "." + Integer.toString(chunkZ, 36) + ".dat";
+		return new File(world.getBasePath(), firstFolder + "/" + secondFolder + "/" + filename);
+	}
+
+	/**
+	 * Returns the modification time of the file a chunk is read from (its
+	 * region file, or its own file for pre-Beta-1.3 worlds), or 0 if there
+	 * isn't one.  ChunkCache uses this to notice that a snapshot it's holding
+	 * has been superseded on disk.
+	 *
+	 * @param world
+	 * @param chunkX The Chunk X coordinate
+	 * @param chunkZ The Chunk Z coordinate
+	 * @return The file's modification time, as per File.lastModified()
+	 */
+	public static long getChunkModified(WorldInfo world, int chunkX, int chunkZ)
+	{
+		switch (world.data_format)
+		{
+			case MCREGION:
+			case ANVIL:
+				return RegionFileCache.getRegionPath(world, chunkX, chunkZ).lastModified();
+
+			case ORIGINAL:
+				return getOriginalChunkFile(world, chunkX, chunkZ).lastModified();
+		}
+		return 0;
+	}
+
 	/***
-	 * Returns a file handle to a chunk file in a world.  Will attempt to load
+	 * Returns the uncompressed data for a chunk in a world.  Will attempt to load
 	 * from region data first, if it's present, and then from the old-style
 	 * chunk-per-file format if the world's not from Beta 1.3 or later.  It
 	 * turns out that there isn't really any circumstance where there would be
 	 * a mix, so we could be more strict about it, but whatever.
 	 *
+	 * The buffer comes from this thread's ChunkDecompressor, so it's only
+	 * valid until this thread reads another chunk.
+	 *
 	 * @param world
 	 * @param chunkX The Chunk X coordinate
 	 * @param chunkZ The Chunk Z coordinate
 	 * @return
 	 */
-	public static DataInputStream getChunkInputStream(WorldInfo world, int chunkX, int chunkZ) {
+	public static ByteBuffer getChunkBuffer(WorldInfo world, int chunkX, int chunkZ) {
 		switch (world.data_format)
 		{
 			case MCREGION:
@@ -231,28 +274,30 @@ public class MinecraftEnvironment {
 				RegionFile rf = RegionFileCache.getRegionFile(world, chunkX, chunkZ);
 				if (rf != null)
 				{
-					DataInputStream chunk = rf.getChunkDataInputStream(chunkX & 31, chunkZ & 31);
-					if (chunk != null)
+					// The decompressed chunk lives in our thread's own output
+					// buffer, so it's safe to let go of the region straight away.
+					try
+					{
+						ByteBuffer chunk = rf.getChunkDataBuffer(chunkX & 31, chunkZ & 31);
+						if (chunk != null)
+						{
+							return chunk;
+						}
+					}
+					finally
 					{
-						return chunk;
+						rf.release();
 					}
 				}
 				break;
 
 			case ORIGINAL:
-				int xx = chunkX % 64;
-				if(xx<0) xx = 64+xx;
-				int zz = chunkZ % 64;
-				if(zz<0) zz = 64+zz;
-				String firstFolder 		= Integer.toString(xx, 36);
-				String secondFolder 	= Integer.toString(zz, 36);
-				String filename 		= "c." + Integer.toString(chunkX, 36) + "." + Integer.toString(chunkZ, 36) + ".dat";
-				File chunk = new File(world.getBasePath(), firstFolder + "/" + secondFolder + "/" + filename);
+				File chunk = getOriginalChunkFile(world, chunkX, chunkZ);
 				if (chunk.exists())
 				{
 					//  There's some code duplication here from DTFReader.readDTFFile()
 					try {
-						return new DataInputStream(new GZIPInputStream(new FileInputStream(chunk)));
+						return ChunkDecompressor.get().readFully(new GZIPInputStream(new FileInputStream(chunk)));
 					} catch (FileNotFoundException e) {
 						// TODO Auto-generated catch block
 						e.printStackTrace();
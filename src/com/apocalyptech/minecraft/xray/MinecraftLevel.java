@@ -27,9 +27,12 @@
 package com.apocalyptech.minecraft.xray;
 
 import java.io.File;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 
 import com.apocalyptech.minecraft.xray.dtf.CompoundTag;
 import com.apocalyptech.minecraft.xray.dtf.DTFReader;
@@ -40,6 +43,7 @@ import com.apocalyptech.minecraft.xray.dtf.ListTag;
 import com.apocalyptech.minecraft.xray.dtf.StringTag;
 import com.apocalyptech.minecraft.xray.dtf.LongTag;
 import com.apocalyptech.minecraft.xray.dtf.Tag;
+import com.apocalyptech.minecraft.xray.enums.FACING;
 
 /***
  * A Minecraft level 
@@ -47,10 +51,17 @@ import com.apocalyptech.minecraft.xray.dtf.Tag;
  */
 public class MinecraftLevel {
 
-	//public static int LEVELDATA_SIZE = 256;
-	public static int LEVELDATA_SIZE = 128;
-	public static int LEVELDATA_OFFSET = Integer.MAX_VALUE/2;
-	public Chunk[][] levelData;
+	// Our loaded chunks, and roughly how much heap they're using
+	private ChunkMap chunks = new ChunkMap();
+	private long chunkMemoryUsage;
+
+	// Snapshots of chunks we've dropped, in case we come back to them
+	private ChunkCache chunkCache = new ChunkCache();
+
+	// Shared by every chunk for building meshes on the render thread
+	private MeshBuilder meshBuilder = new MeshBuilder();
+	private GreedyMesher greedyMesher = new GreedyMesher();
+	private MeshBuckets meshBuckets = new MeshBuckets();
 	
 	public WorldInfo world;
 	
@@ -67,6 +78,13 @@ public class MinecraftLevel {
 	public String levelName;
 
 	public LightSourceRegistry lightSources;
+
+	// Which chunks actually exist on disk, so we can skip the rest
+	public ChunkIndex chunkIndex;
+
+	// Padded section copies for whichever chunk is being meshed, one per
+	// section number.  Only touched from the render thread.
+	private PaddedSection[] paddedSections = new PaddedSection[16];
 	
 	/**
 	 * Given a WorldInfo object, return its user-defined name.  There's
@@ -99,8 +117,6 @@ public class MinecraftLevel {
 		this.paintingTexture = paintingTexture;
 		this.HIGHLIGHT_ORES = HIGHLIGHT_ORES;
 		
-		this.levelData = new Chunk[LEVELDATA_SIZE][LEVELDATA_SIZE];
-		
 		File levelFile = world.getLevelDatFile();
 		
 		CompoundTag levelData = (CompoundTag) DTFReader.readDTFFile(levelFile);
@@ -223,6 +239,9 @@ public class MinecraftLevel {
 			world.data_format = WorldInfo.MAP_TYPE.ORIGINAL;
 		}
 
+		// Now that we know the format, load up our index of which chunks exist
+		this.chunkIndex = new ChunkIndex(world);
+
 		// Grab the level name
 		StringTag levelNameTag = (StringTag) levelDataData.getTagWithName("LevelName");
 		if (levelNameTag != null)
@@ -344,18 +363,12 @@ public class MinecraftLevel {
 	}
 
 	public void invalidateSelected(boolean main_dirty) {
-		for (Chunk[] chunkrow : this.levelData)
+		for (Chunk chunk : this.chunks)
 		{
-			for (Chunk chunk : chunkrow)
+			chunk.setSelectedDirty();
+			if (main_dirty)
 			{
-				if (chunk != null)
-				{
-					chunk.setSelectedDirty();
-					if (main_dirty)
-					{
-						chunk.setDirty();
-					}
-				}
+				chunk.setDirty();
 			}
 		}
 	}
@@ -374,35 +387,141 @@ public class MinecraftLevel {
 	 * @param chunkX The Chunk X coordinate
 	 * @param chunkZ The Chunk Z coordinate
 	 */
-	public Tag loadChunk(int chunkX, int chunkZ) {
-		DataInputStream chunkInputStream = MinecraftEnvironment.getChunkInputStream(world, chunkX, chunkZ);
-		if(chunkInputStream == null) {
+	public Chunk loadChunk(int chunkX, int chunkZ) {
+		if (!this.chunkIndex.hasChunk(chunkX, chunkZ))
+		{
+			return null;
+		}
+		Chunk c = this.decodeChunk(chunkX, chunkZ);
+		if (c != null)
+		{
+			this.installChunk(c);
+		}
+		return c;
+	}
+
+	/**
+	 * Reads and builds a chunk without adding it to the level.  This does no
+	 * OpenGL work and doesn't touch our chunk storage, so it's safe to call from
+	 * a loader thread; the result has to go through installChunk() on the render
+	 * thread before it's used.
+	 *
+	 * @param chunkX The Chunk X coordinate
+	 * @param chunkZ The Chunk Z coordinate
+	 * @return The chunk, or null if it's not on disk or couldn't be read
+	 */
+	public Chunk decodeChunk(int chunkX, int chunkZ) {
+		Chunk cached = this.chunkCache.take(this, chunkX, chunkZ);
+		if (cached != null)
+		{
+			return cached;
+		}
+		// Taken before the read, so that if the file changes underneath us a
+		// snapshot of this chunk will look stale rather than current.
+		long modified = MinecraftEnvironment.getChunkModified(world, chunkX, chunkZ);
+		ByteBuffer chunkData = MinecraftEnvironment.getChunkBuffer(world, chunkX, chunkZ);
+		if(chunkData == null) {
 			return null;
 		}
 		try
 		{
-			Tag t = DTFReader.readTagData(chunkInputStream);
-			if (t != null)
+			Chunk c;
+			switch (world.data_format)
 			{
-				switch (world.data_format)
-				{
-					case ANVIL:
-						levelData[(chunkX+LEVELDATA_OFFSET)%LEVELDATA_SIZE][(chunkZ+LEVELDATA_OFFSET)%LEVELDATA_SIZE] = new ChunkAnvil(this, t);
-						break;
+				case ANVIL:
+					c = new ChunkAnvil(this, chunkData);
+					break;
 
-					default:
-						levelData[(chunkX+LEVELDATA_OFFSET)%LEVELDATA_SIZE][(chunkZ+LEVELDATA_OFFSET)%LEVELDATA_SIZE] = new ChunkOriginal(this, t);
-						break;
-				}
-			}	
-			return t;
+				default:
+					c = new ChunkOriginal(this, chunkData);
+			}
+			c.sourceModified = modified;
+			return c;
 		}
 		catch (IOException e)
 		{
 			return null;
 		}
 	}
+
+	/**
+	 * Adds a chunk from decodeChunk() to the level, replacing whatever was
+	 * already loaded at its coordinates.  Must be called from the render thread.
+	 */
+	public void installChunk(Chunk c) {
+		c.activate();
+		Chunk old = this.chunks.put(c);
+		this.chunkMemoryUsage += c.getMemoryUsage();
+		if (old != null)
+		{
+			this.chunkMemoryUsage -= old.getMemoryUsage();
+			old.dispose();
+		}
+		this.repadNeighbours(c.point.x, c.point.z);
+	}
+
+	/**
+	 * Returns a padded copy of the given section of a chunk, filling it in
+	 * if the one we've got for that section number holds something else.
+	 * Render thread only.
+	 */
+	PaddedSection getPaddedSection(Chunk c, int section)
+	{
+		if (section >= this.paddedSections.length)
+		{
+			this.paddedSections = Arrays.copyOf(this.paddedSections, section + 1);
+		}
+		PaddedSection padded = this.paddedSections[section];
+		if (padded == null)
+		{
+			padded = new PaddedSection();
+			this.paddedSections[section] = padded;
+		}
+		if (!padded.holds(c, section))
+		{
+			padded.fill(c, section);
+		}
+		return padded;
+	}
+
+	/**
+	 * Refreshes the borders of any padded sections belonging to the chunks
+	 * around the given one, after it's been loaded or cleared.
+	 */
+	private void repadNeighbours(int chunkX, int chunkZ)
+	{
+		this.repad(this.getChunk(chunkX-1, chunkZ), FACING.EAST);
+		this.repad(this.getChunk(chunkX+1, chunkZ), FACING.WEST);
+		this.repad(this.getChunk(chunkX, chunkZ-1), FACING.SOUTH);
+		this.repad(this.getChunk(chunkX, chunkZ+1), FACING.NORTH);
+	}
+
+	private void repad(Chunk c, FACING side)
+	{
+		if (c == null)
+		{
+			return;
+		}
+		for (PaddedSection padded : this.paddedSections)
+		{
+			if (padded != null && padded.holds(c))
+			{
+				padded.repad(side);
+			}
+		}
+	}
 	
+	/**
+	 * Returns false if we know that there's no data on disk for the given chunk.
+	 *
+	 * @param chunkX The Chunk X coordinate
+	 * @param chunkZ The Chunk Z coordinate
+	 */
+	public boolean hasChunk(int chunkX, int chunkZ)
+	{
+		return this.chunkIndex.hasChunk(chunkX, chunkZ);
+	}
+
 	/**
 	 * Gets the specified Chunk object
 	 *
@@ -411,20 +530,168 @@ public class MinecraftLevel {
 	 * @return
 	 */
 	public Chunk getChunk(int chunkX, int chunkZ) {
-		return this.levelData[(chunkX+LEVELDATA_OFFSET)%LEVELDATA_SIZE][(chunkZ+LEVELDATA_OFFSET)%LEVELDATA_SIZE];
+		return this.chunks.get(chunkX, chunkZ);
 	}
 
 	/**
-	 * Sets a chunk to null
+	 * How many chunks we currently have loaded
+	 */
+	public int getChunkCount()
+	{
+		return this.chunks.size();
+	}
+
+	/**
+	 * Estimated bytes of heap used by all our loaded chunks
+	 */
+	public long getChunkMemoryUsage()
+	{
+		return this.chunkMemoryUsage;
+	}
+
+	/**
+	 * The MeshBuilder which chunks build their one-off meshes in, like
+	 * paintings and borders.  Only to be used from the render thread.
+	 */
+	public MeshBuilder getMeshBuilder()
+	{
+		return this.meshBuilder;
+	}
+
+	/**
+	 * The GreedyMesher which chunks merge their solid faces with.  Only to
+	 * be used from the render thread.
+	 */
+	public GreedyMesher getGreedyMesher()
+	{
+		return this.greedyMesher;
+	}
+
+	/**
+	 * The MeshBuckets which chunks sort their geometry into while they're
+	 * being rebuilt.  Only to be used from the render thread.
+	 */
+	public MeshBuckets getMeshBuckets()
+	{
+		return this.meshBuckets;
+	}
+
+	/**
+	 * Our cache of recently-dropped chunks
+	 */
+	public ChunkCache getChunkCache()
+	{
+		return this.chunkCache;
+	}
+
+	/**
+	 * Removes a chunk from the level, if it's loaded
 	 * 
 	 * @param chunkX
 	 * @param chunkZ
 	 */
 	public void clearChunk(int chunkX, int chunkZ)
 	{
-		this.levelData[(chunkX+LEVELDATA_OFFSET)%LEVELDATA_SIZE][(chunkZ+LEVELDATA_OFFSET)%LEVELDATA_SIZE] = null;
+		Chunk removed = this.chunks.remove(chunkX, chunkZ);
+		if (removed != null)
+		{
+			this.chunkMemoryUsage -= removed.getMemoryUsage();
+			this.chunkCache.store(removed);
+			removed.dispose();
+			this.repadNeighbours(chunkX, chunkZ);
+		}
+	}
+
+	/**
+	 * Drops every chunk we've got, giving back their GL Lists.  Called when
+	 * we're switching away from this level.
+	 */
+	public void dispose()
+	{
+		for (Chunk c : this.chunks)
+		{
+			c.dispose();
+		}
+		this.chunks.clear();
+		this.chunkMemoryUsage = 0;
+		Utility.logger.debug("Chunk cache: " + this.chunkCache.getStats());
+		this.chunkCache.dispose();
+		this.chunkIndex.dispose();
+	}
+
+	/**
+	 * Removes every chunk which is more than the given number of chunks away
+	 * from the given chunk along either axis.
+	 *
+	 * @return The chunks which were removed
+	 */
+	public ArrayList<Chunk> removeChunksOutside(int chunkX, int chunkZ, int range)
+	{
+		ArrayList<Chunk> removed = new ArrayList<Chunk>();
+		for (Chunk c : this.chunks)
+		{
+			if (Math.abs(c.point.x - chunkX) > range || Math.abs(c.point.z - chunkZ) > range)
+			{
+				removed.add(c);
+			}
+		}
+		for (Chunk c : removed)
+		{
+			this.clearChunk(c.point.x, c.point.z);
+		}
+		return removed;
 	}
 	
+	/**
+	 * Removes chunks, furthest from the given chunk first, until our loaded
+	 * chunks fit in the given number of bytes.  The chunk at the given
+	 * coordinates is never removed.
+	 *
+	 * @return The chunks which were removed
+	 */
+	public ArrayList<Chunk> removeChunksOverBudget(final int chunkX, final int chunkZ, long budget)
+	{
+		ArrayList<Chunk> removed = new ArrayList<Chunk>();
+		if (this.chunkMemoryUsage <= budget)
+		{
+			return removed;
+		}
+
+		ArrayList<Chunk> byDistance = new ArrayList<Chunk>(this.chunks.size());
+		for (Chunk c : this.chunks)
+		{
+			byDistance.add(c);
+		}
+		Collections.sort(byDistance, new Comparator<Chunk>() {
+			public int compare(Chunk a, Chunk b)
+			{
+				return Long.compare(distanceSq(b, chunkX, chunkZ), distanceSq(a, chunkX, chunkZ));
+			}
+		});
+
+		for (Chunk c : byDistance)
+		{
+			if (this.chunkMemoryUsage <= budget)
+			{
+				break;
+			}
+			if (c.point.x == chunkX && c.point.z == chunkZ)
+			{
+				continue;
+			}
+			this.clearChunk(c.point.x, c.point.z);
+			removed.add(c);
+		}
+		return removed;
+	}
+
+	private static long distanceSq(Chunk c, int chunkX, int chunkZ)
+	{
+		long dx = c.point.x - chunkX;
+		long dz = c.point.z - chunkZ;
+		return (dx * dx) + (dz * dz);
+	}
+
 	/**
 	 * Sets all chunks in the given X row to be no longer on the minimap
 	 * 
@@ -432,18 +699,16 @@ public class MinecraftLevel {
 	 */
 	public ArrayList<Chunk> removeChunkRowXFromMinimap(int chunkX)
 	{
-		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
-		int xval = (chunkX+LEVELDATA_OFFSET)%LEVELDATA_SIZE;
-		for (int i=0; i<LEVELDATA_SIZE; i++)
+		ArrayList<Chunk> removed = new ArrayList<Chunk>();
+		for (Chunk c : this.chunks)
 		{
-			if (this.levelData[xval][i] != null && this.levelData[xval][i].isOnMinimap)
+			if (c.point.x == chunkX && c.isOnMinimap)
 			{
-				//XRay.logger.trace("(" + chunkX + ") Removing from minimap on " + xval + ", " + i);
-				this.levelData[xval][i].isOnMinimap = false;
-				chunks.add(this.levelData[xval][i]);
+				c.isOnMinimap = false;
+				removed.add(c);
 			}
 		}
-		return chunks;
+		return removed;
 	}
 	
 	/**
@@ -453,18 +718,16 @@ public class MinecraftLevel {
 	 */
 	public ArrayList<Chunk> removeChunkRowZFromMinimap(int chunkZ)
 	{
-		ArrayList<Chunk> chunks = new ArrayList<Chunk>();
-		int zval = (chunkZ+LEVELDATA_OFFSET)%LEVELDATA_SIZE;
-		for (int i=0; i<LEVELDATA_SIZE; i++)
+		ArrayList<Chunk> removed = new ArrayList<Chunk>();
+		for (Chunk c : this.chunks)
 		{
-			if (this.levelData[i][zval] != null && this.levelData[i][zval].isOnMinimap)
+			if (c.point.z == chunkZ && c.isOnMinimap)
 			{
-				//XRay.logger.trace("Removing from minimap on " + i + ", " + zval);
-				this.levelData[i][zval].isOnMinimap = false;
-				chunks.add(this.levelData[i][zval]);
+				c.isOnMinimap = false;
+				removed.add(c);
 			}
 		}
-		return chunks;
+		return removed;
 	}
 	
 	/**
@@ -473,19 +736,15 @@ public class MinecraftLevel {
 	 */
 	public ArrayList<Chunk> removeAllChunksFromMinimap()
 	{
-		ArrayList<Chunk> chunks = new ArrayList<Chunk>();	
-		for (int z=0; z<LEVELDATA_SIZE; z++)
+		ArrayList<Chunk> removed = new ArrayList<Chunk>();
+		for (Chunk c : this.chunks)
 		{
-			for (int x=0; x<LEVELDATA_SIZE; x++)
+			if (c.isOnMinimap)
 			{
-				if (this.levelData[x][z] != null && this.levelData[x][z].isOnMinimap)
-				{
-					//XRay.logger.trace("(" + chunkX + ") Removing from minimap on " + xval + ", " + i);
-					this.levelData[x][z].isOnMinimap = false;
-					chunks.add(this.levelData[x][z]);
-				}
+				c.isOnMinimap = false;
+				removed.add(c);
 			}
 		}
-		return chunks;
+		return removed;
 	}
 }
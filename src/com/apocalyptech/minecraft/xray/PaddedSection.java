@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import com.apocalyptech.minecraft.xray.enums.FACING;
+
+/**
+ * A copy of one 16x16x16 section of a chunk, with a one-block border taken
+ * from the blocks around it (18x18x18 in all), so that meshing can look up
+ * any face-adjacent block without leaving the array or going through
+ * MinecraftLevel.getChunk().
+ *
+ * Border values follow the same rules as Chunk's getAdj* methods: -1 where
+ * a neighbouring chunk isn't loaded (or we're below the bottom of the map),
+ * and whatever the chunk format would return above the top.  The twelve
+ * edges and eight corners of the border are never face-adjacent to a block
+ * in the section, so they're just left at -1.
+ *
+ * These are reused: MinecraftLevel keeps one per section number, which get
+ * refilled for whichever chunk is being meshed.  That all happens on the
+ * render thread.
+ */
+public class PaddedSection
+{
+	public static final int SIZE = 18;
+	private static final int ROW = SIZE;
+	private static final int LAYER = SIZE * SIZE;
+
+	private final short[] blocks = new short[SIZE * SIZE * SIZE];
+	private final byte[] data = new byte[SIZE * SIZE * SIZE];
+
+	// What we're currently filled with
+	private Chunk chunk;
+	private int section;
+
+	/**
+	 * Whether we currently hold the given section of the given chunk
+	 */
+	public boolean holds(Chunk chunk, int section)
+	{
+		return this.chunk == chunk && this.section == section;
+	}
+
+	/**
+	 * Whether we currently hold any section of the given chunk
+	 */
+	public boolean holds(Chunk chunk)
+	{
+		return this.chunk == chunk;
+	}
+
+	/**
+	 * Copies the given section of a chunk in, along with its border.
+	 */
+	public void fill(Chunk chunk, int section)
+	{
+		this.chunk = chunk;
+		this.section = section;
+
+		int baseY = section * 16;
+		int idx;
+		for (int y = 0; y < 16; y++)
+		{
+			for (int z = 0; z < 16; z++)
+			{
+				idx = index(0, y, z);
+				for (int x = 0; x < 16; x++)
+				{
+					this.blocks[idx] = chunk.getBlock(x, baseY + y, z);
+					this.data[idx] = chunk.getData(x, baseY + y, z);
+					idx++;
+				}
+			}
+		}
+
+		// Everything not face-adjacent to the section itself
+		for (int i = 0; i < SIZE; i++)
+		{
+			for (int j = 0; j < SIZE; j += SIZE - 1)
+			{
+				for (int k = 0; k < SIZE; k += SIZE - 1)
+				{
+					this.setRaw(i, j, k, (short) -1, (byte) -1);
+					this.setRaw(j, i, k, (short) -1, (byte) -1);
+					this.setRaw(j, k, i, (short) -1, (byte) -1);
+				}
+			}
+		}
+
+		this.padTop();
+		this.padBottom();
+		this.padSide(FACING.WEST);
+		this.padSide(FACING.EAST);
+		this.padSide(FACING.NORTH);
+		this.padSide(FACING.SOUTH);
+	}
+
+	/**
+	 * Refills the border on one side, after the chunk on that side has been
+	 * loaded or dropped.
+	 */
+	public void repad(FACING side)
+	{
+		switch (side)
+		{
+			case TOP:
+				this.padTop();
+				break;
+			case BOTTOM:
+				this.padBottom();
+				break;
+			default:
+				this.padSide(side);
+				break;
+		}
+	}
+
+	private void padTop()
+	{
+		int y = (this.section * 16) + 15;
+		for (int z = 0; z < 16; z++)
+		{
+			for (int x = 0; x < 16; x++)
+			{
+				this.set(x, 16, z,
+						this.chunk.getUnpaddedAdjBlockId(x, y, z, FACING.TOP, this.chunk.getBlockOffset(x, y, z)),
+						this.chunk.getUnpaddedData(x, y+1, z));
+			}
+		}
+	}
+
+	private void padBottom()
+	{
+		int y = this.section * 16;
+		for (int z = 0; z < 16; z++)
+		{
+			for (int x = 0; x < 16; x++)
+			{
+				this.set(x, -1, z,
+						this.chunk.getUnpaddedAdjBlockId(x, y, z, FACING.BOTTOM, this.chunk.getBlockOffset(x, y, z)),
+						this.chunk.getUnpaddedData(x, y-1, z));
+			}
+		}
+	}
+
+	private void padSide(FACING side)
+	{
+		int chunkX = this.chunk.point.x;
+		int chunkZ = this.chunk.point.z;
+		switch (side)
+		{
+			case WEST:
+				this.padPlane(this.chunk.level.getChunk(chunkX-1, chunkZ), false, -1, 15);
+				break;
+			case EAST:
+				this.padPlane(this.chunk.level.getChunk(chunkX+1, chunkZ), false, 16, 0);
+				break;
+			case NORTH:
+				this.padPlane(this.chunk.level.getChunk(chunkX, chunkZ-1), true, -1, 15);
+				break;
+			case SOUTH:
+				this.padPlane(this.chunk.level.getChunk(chunkX, chunkZ+1), true, 16, 0);
+				break;
+		}
+	}
+
+	/**
+	 * Fills one vertical side of our border from a neighbouring chunk.
+	 *
+	 * @param other The neighbouring chunk, or null if it's not loaded
+	 * @param alongX True if the side runs along X (north/south), false if along Z
+	 * @param pad Our coordinate for the border plane (-1 or 16)
+	 * @param otherEdge The other chunk's coordinate for the blocks we copy (15 or 0)
+	 */
+	private void padPlane(Chunk other, boolean alongX, int pad, int otherEdge)
+	{
+		int baseY = this.section * 16;
+		for (int y = 0; y < 16; y++)
+		{
+			for (int i = 0; i < 16; i++)
+			{
+				int x = alongX ? i : pad;
+				int z = alongX ? pad : i;
+				if (other == null)
+				{
+					this.set(x, y, z, (short) -1, (byte) -1);
+				}
+				else
+				{
+					int ox = alongX ? i : otherEdge;
+					int oz = alongX ? otherEdge : i;
+					this.set(x, y, z, other.getBlock(ox, baseY + y, oz), other.getData(ox, baseY + y, oz));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Array index for section-local coordinates, each of which may be
+	 * anywhere from -1 to 16.
+	 */
+	private static int index(int x, int y, int z)
+	{
+		return ((y + 1) * LAYER) + ((z + 1) * ROW) + (x + 1);
+	}
+
+	private void set(int x, int y, int z, short block, byte data)
+	{
+		int idx = index(x, y, z);
+		this.blocks[idx] = block;
+		this.data[idx] = data;
+	}
+
+	private void setRaw(int px, int py, int pz, short block, byte data)
+	{
+		int idx = (py * LAYER) + (pz * ROW) + px;
+		this.blocks[idx] = block;
+		this.data[idx] = data;
+	}
+
+	/**
+	 * Offset into our arrays of the block next to the given section-local
+	 * coordinates, in the given direction.
+	 */
+	private static int adjIndex(int x, int y, int z, FACING facing)
+	{
+		int idx = index(x, y, z);
+		switch (facing)
+		{
+			case TOP:
+				return idx + LAYER;
+			case BOTTOM:
+				return idx - LAYER;
+			case NORTH:
+				return idx - ROW;
+			case SOUTH:
+				return idx + ROW;
+			case WEST:
+				return idx - 1;
+			case EAST:
+				return idx + 1;
+		}
+		return idx;
+	}
+
+	/**
+	 * The block ID next to the given section-local coordinates
+	 */
+	public short getAdjBlockId(int x, int y, int z, FACING facing)
+	{
+		return this.blocks[adjIndex(x, y, z, facing)];
+	}
+
+	/**
+	 * The data value next to the given section-local coordinates
+	 */
+	public byte getAdjBlockData(int x, int y, int z, FACING facing)
+	{
+		return this.data[adjIndex(x, y, z, facing)];
+	}
+}
@@ -26,11 +26,6 @@
  */
 package com.apocalyptech.minecraft.xray;
 
-import com.apocalyptech.minecraft.xray.dtf.CompoundTag;
-import com.apocalyptech.minecraft.xray.dtf.StringTag;
-import com.apocalyptech.minecraft.xray.dtf.ByteTag;
-import com.apocalyptech.minecraft.xray.dtf.IntTag;
-
 public class PaintingEntity
 {
 	public float tile_x;
@@ -39,18 +34,12 @@ public class PaintingEntity
 	public String name;
 	public byte dir;
 	
-	public PaintingEntity(CompoundTag t)
+	public PaintingEntity(String name, byte dir, int tile_x, int tile_y, int tile_z)
 	{
-		IntTag tile_x = (IntTag) t.getTagWithName("TileX");
-		IntTag tile_y = (IntTag) t.getTagWithName("TileY");
-		IntTag tile_z = (IntTag) t.getTagWithName("TileZ");
-		StringTag name = (StringTag) t.getTagWithName("Motive");
-		ByteTag dir = (ByteTag) t.getTagWithName("Dir");
-		
-		this.tile_x = tile_x.value;
-		this.tile_y = tile_y.value;
-		this.tile_z = tile_z.value;
-		this.name = name.value;
-		this.dir = dir.value;
+		this.tile_x = tile_x;
+		this.tile_y = tile_y;
+		this.tile_z = tile_z;
+		this.name = name;
+		this.dir = dir;
 	}
 }
\ No newline at end of file
@@ -65,8 +65,10 @@
 package com.apocalyptech.minecraft.xray;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.zip.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class RegionFile {
 
@@ -81,13 +83,40 @@ public class RegionFile {
 
     private final File fileName;
     private RandomAccessFile file;
+    private FileChannel channel;
     private final int offsets[];
     private final int chunkTimestamps[];
-    private ArrayList<Boolean> sectorFree;
+    private int sectorCount;
     private int sizeDelta;
     private long lastModified = 0;
 
+    // Read-only mapping of the whole region file, if we were asked for one.
+    // Chunk reads then copy the chunk out of the mapped pages with a single
+    // memcpy, rather than a seek and a read() per chunk.
+    // Touching a mapping after the file underneath it has been truncated
+    // raises SIGBUS and takes the whole JVM down, so RegionFileCache drops
+    // it (see dropMapping()) as soon as it sees the file change size.
+    private volatile MappedByteBuffer mapped;
+
+    // The file's length when we opened it
+    private long fileLength;
+
+    // Number of outstanding users of this file.  RegionFileCache holds one
+    // reference for as long as we're in the cache, and each caller of
+    // RegionFileCache.getRegionFile() holds another until it calls release(),
+    // so an eviction can never close the channel out from under a loader
+    // thread which is partway through a read.
+    private int references = 1;
+
+    // When RegionFileCache should next compare our mtime against the file's;
+    // see RegionFileCache.CHECK_INTERVAL
+    private volatile long nextCheck;
+
     public RegionFile(File path) {
+        this(path, false);
+    }
+
+    public RegionFile(File path, boolean memoryMapped) {
         offsets = new int[SECTOR_INTS];
         chunkTimestamps = new int[SECTOR_INTS];
 
@@ -102,54 +131,62 @@ public class RegionFile {
             }
 
             file = new RandomAccessFile(path, "r");
-
-            if (file.length() < SECTOR_BYTES) {
-                /* we need to write the chunk offset table */
-                for (int i = 0; i < SECTOR_INTS; ++i) {
-                    file.writeInt(0);
-                }
-                // write another sector for the timestamp info
-                for (int i = 0; i < SECTOR_INTS; ++i) {
-                    file.writeInt(0);
-                }
-
-                sizeDelta += SECTOR_BYTES * 2;
-            }
-
-            if ((file.length() & 0xfff) != 0) {
-                /* the file size is not a multiple of 4KB, grow it */
-                for (int i = 0; i < (file.length() & 0xfff); ++i) {
-                    file.write((byte) 0);
+            channel = file.getChannel();
+
+            /*
+             * Commented for X-Ray: the original code would pad out short files
+             * and grow partial sectors here, but we open read-only, so we just
+             * read whatever header is there and treat anything missing as
+             * empty.  Likewise we don't need a per-sector free map since we
+             * never allocate; the sector count is all our reads check against.
+             */
+            fileLength = channel.size();
+            sectorCount = (int) (fileLength / SECTOR_BYTES);
+
+            /* pull in the offset and timestamp tables with a single read */
+            readHeader(channel, offsets, chunkTimestamps);
+
+            if (memoryMapped) {
+                try {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+                } catch (IOException e) {
+                    // Fall back to regular reads if the mapping can't be made
+                    Utility.logger.warn("Could not memory-map " + fileName + ": " + e.toString());
+                    mapped = null;
                 }
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            /* set up the available sector map */
-            int nSectors = (int) file.length() / SECTOR_BYTES;
-            sectorFree = new ArrayList<Boolean>(nSectors);
-
-            for (int i = 0; i < nSectors; ++i) {
-                sectorFree.add(true);
+    /*
+     * Reads the offset and timestamp tables from the start of a region file
+     * in one go.  Anything past the end of a short file is left as zero.
+     */
+    private static void readHeader(FileChannel channel, int[] offsets, int[] timestamps) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES * 2);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
             }
+        }
+        header.clear();
+        IntBuffer headerInts = header.asIntBuffer();
+        headerInts.get(offsets);
+        headerInts.get(timestamps);
+    }
 
-            sectorFree.set(0, false); // chunk offset table
-            sectorFree.set(1, false); // for the last modified info
-
-            file.seek(0);
-            for (int i = 0; i < SECTOR_INTS; ++i) {
-                int offset = file.readInt();
-                offsets[i] = offset;
-                if (offset != 0 && (offset >> 8) + (offset & 0xFF) <= sectorFree.size()) {
-                    for (int sectorNum = 0; sectorNum < (offset & 0xFF); ++sectorNum) {
-                        sectorFree.set((offset >> 8) + sectorNum, false);
-                    }
-                }
-            }
-            for (int i = 0; i < SECTOR_INTS; ++i) {
-                int lastModValue = file.readInt();
-                chunkTimestamps[i] = lastModValue;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /*
+     * Reads just the header tables of the given region file, without keeping
+     * it open.  Both arrays must hold 1024 entries.
+     */
+    public static void readHeader(File path, int[] offsets, int[] timestamps) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            readHeader(raf.getChannel(), offsets, timestamps);
+        } finally {
+            raf.close();
         }
     }
 
@@ -158,6 +195,43 @@ public class RegionFile {
         return lastModified;
     }
 
+    /**
+     * Whether it's time to check this file against the disk again.  Only
+     * RegionFileCache uses this, to avoid a stat() for every chunk read.
+     */
+    /**
+     * Copies out the offset and timestamp tables we read when we were opened
+     */
+    public void getHeader(int[] offsets, int[] timestamps) {
+        System.arraycopy(this.offsets, 0, offsets, 0, SECTOR_INTS);
+        System.arraycopy(this.chunkTimestamps, 0, timestamps, 0, SECTOR_INTS);
+    }
+
+    /**
+     * The length of the file when we opened it
+     */
+    public long length() {
+        return fileLength;
+    }
+
+    /**
+     * Stops using our memory mapping; reads from here on go through the
+     * channel instead.  Called when the file has changed size underneath us,
+     * since the mapped pages may no longer exist.  Reads already using the
+     * mapping can't be stopped, which is why mapping is only ever opt-in.
+     */
+    public void dropMapping() {
+        mapped = null;
+    }
+
+    public boolean isCheckDue(long now) {
+        return now >= nextCheck;
+    }
+
+    public void setNextCheck(long when) {
+        nextCheck = when;
+    }
+
     // various small debug printing helpers
     private void debug(String in) {
 //        XRay.logger.debug(in);
@@ -183,9 +257,29 @@ public class RegionFile {
 
     /*
      * gets an (uncompressed) stream representing the chunk data returns null if
-     * the chunk is not found or an error occurs
+     * the chunk is not found or an error occurs.  Like getChunkDataBuffer(),
+     * the stream must be consumed before this thread reads another chunk.
      */
-    public synchronized DataInputStream getChunkDataInputStream(int x, int z) {
+    public DataInputStream getChunkDataInputStream(int x, int z) {
+        ByteBuffer buf = getChunkDataBuffer(x, z);
+        if (buf == null) {
+            return null;
+        }
+        return new DataInputStream(new ByteArrayInputStream(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining()));
+    }
+
+    /*
+     * gets an (uncompressed) buffer holding the chunk data returns null if
+     * the chunk is not found or an error occurs.  The buffer is a view on
+     * this thread's ChunkDecompressor output, so it must be consumed before
+     * this thread reads another chunk.
+     *
+     * This is not synchronized, and never touches the shared file pointer:
+     * the offset table is fixed once we're constructed, and the chunk itself
+     * is pulled in with a positional read (or a view on our mapping), so any
+     * number of loader threads can read from the same region at once.
+     */
+    public ByteBuffer getChunkDataBuffer(int x, int z) {
         if (outOfBounds(x, z)) {
             debugln("READ", x, z, "out of bounds");
             return null;
@@ -201,30 +295,52 @@ public class RegionFile {
             int sectorNumber = offset >> 8;
             int numSectors = offset & 0xFF;
 
-            if (sectorNumber + numSectors > sectorFree.size()) {
+            if (sectorNumber + numSectors > sectorCount) {
                 debugln("READ", x, z, "invalid sector");
                 return null;
             }
 
-            file.seek(sectorNumber * SECTOR_BYTES);
-            int length = file.readInt();
+            // Get at the chunk's sectors: a view on the mapping if we have
+            // one (ChunkDecompressor copies it into its input buffer), or else
+            // a positional read straight into that buffer.
+            ChunkDecompressor decompressor = ChunkDecompressor.get();
+            ByteBuffer chunk;
+            int start;
+            MappedByteBuffer map = mapped;
+            if (map != null) {
+                start = sectorNumber * SECTOR_BYTES;
+                chunk = map.duplicate();
+                chunk.position(Math.min(start, chunk.limit()));
+                chunk.limit(Math.min(start + (numSectors * SECTOR_BYTES), chunk.limit()));
+            } else {
+                start = 0;
+                chunk = decompressor.getInputBuffer(numSectors * SECTOR_BYTES);
+                readSectors(chunk, sectorNumber);
+                chunk.flip();
+            }
+            int available = chunk.remaining();
 
-            if (length > SECTOR_BYTES * numSectors) {
+            if (available < CHUNK_HEADER_SIZE) {
+                debugln("READ", x, z, "truncated chunk");
+                return null;
+            }
+
+            int length = chunk.getInt(start);
+
+            if (length > SECTOR_BYTES * numSectors || length < 1 || length > available - 4) {
                 debugln("READ", x, z, "invalid length: " + length + " > 4096 * " + numSectors);
                 return null;
             }
 
-            byte version = file.readByte();
+            byte version = chunk.get(start + 4);
+            chunk.limit(start + 4 + length);
+            chunk.position(start + CHUNK_HEADER_SIZE);
             if (version == VERSION_GZIP) {
-                byte[] data = new byte[length - 1];
-                file.read(data);
-                DataInputStream ret = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+                ByteBuffer ret = decompressor.gunzip(chunk);
                 // debug("READ", x, z, " = found");
                 return ret;
             } else if (version == VERSION_DEFLATE) {
-                byte[] data = new byte[length - 1];
-                file.read(data);
-                DataInputStream ret = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+                ByteBuffer ret = decompressor.inflate(chunk);
                 // debug("READ", x, z, " = found");
                 return ret;
             }
@@ -237,6 +353,21 @@ public class RegionFile {
         }
     }
 
+    /*
+     * Fills the given buffer from the start of the given sector onwards with
+     * positional reads on our channel, in as few calls as the OS allows.  The
+     * buffer may be left short if the file itself was truncated.
+     */
+    private void readSectors(ByteBuffer buf, int sectorNumber) throws IOException {
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read < 0) {
+                break;
+            }
+        }
+    }
+
     /* Commented for X-Ray because we shouldn't be writing anything
     public DataOutputStream getChunkDataOutputStream(int x, int z) {
         if (outOfBounds(x, z)) return null;
@@ -380,7 +511,39 @@ public class RegionFile {
     }
     */
 
+    public boolean isMemoryMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Takes out another reference on this file; it won't be closed until
+     * every reference has been given back via release().
+     */
+    public synchronized void acquire() {
+        references++;
+    }
+
+    /**
+     * Gives back a reference taken out by acquire() (or, for the cache, the
+     * one we were created with).  The last one out closes the file.
+     */
+    public void release() {
+        synchronized (this) {
+            if (--references > 0) {
+                return;
+            }
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            Utility.logger.warn("Could not close region file: " + e.toString());
+        }
+    }
+
     public void close() throws IOException {
+        // There's no way to explicitly unmap a MappedByteBuffer; dropping our
+        // reference lets the mapping go away once it's been collected.
+        mapped = null;
         file.close();
     }
 }
@@ -36,22 +36,159 @@ package com.apocalyptech.minecraft.xray;
 import java.io.*;
 import java.lang.Math;
 import java.lang.Double;
-import java.lang.ref.*;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RegionFileCache {
 
-    private static final int MAX_CACHE_SIZE = 256;
+    private static final int DEFAULT_MAX_CACHE_SIZE = 256;
 
+	// How often (in ms) we'll stat() an open region file to see whether it's
+	// been rewritten underneath us.  Checking on every chunk read would put a
+	// syscall in front of each one; a server rewriting a region will be
+	// noticed within this long instead.
+	private static final long CHECK_INTERVAL = 1000;
 
-    private static final Map<File, Reference<RegionFile>> cache = new HashMap<File, Reference<RegionFile>>();
+	// Maximum number of RegionFiles (and therefore file handles) we keep open at once
+	private static int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+	// Whether new RegionFiles should be opened with a memory-mapped read path.
+	// This is opt-in (REGION_MEMORY_MAPPED in xray.properties) because it's
+	// risky against a live server: if a region gets truncated while we've got
+	// it mapped, a read can fault with SIGBUS and kill the JVM, and on Windows
+	// the mapping locks the file so that the server can't resize it.
+	private static volatile boolean memoryMapped = false;
+
+	// Hit/miss/eviction counters, so we can get a feel for how well our cache
+	// size suits a given world.
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+	private static long invalidations = 0;
+
+	// An access-ordered LinkedHashMap gives us LRU ordering for free; we drop
+	// our reference to the eldest RegionFile whenever we go over our limit, and
+	// it's closed once any reads still in flight against it have finished.
+    private static final LinkedHashMap<File, RegionFile> cache = new LinkedHashMap<File, RegionFile>(16, 0.75f, true) {
+		private static final long serialVersionUID = -2406391723434312845L;
+
+		protected boolean removeEldestEntry(Map.Entry<File, RegionFile> eldest)
+		{
+			if (size() > maxCacheSize)
+			{
+				evictions++;
+				eldest.getValue().release();
+				return true;
+			}
+			return false;
+		}
+	};
 	private static final HashMap<String, ArrayList<IntegerPair>> availableCache = new HashMap<String, ArrayList<IntegerPair>>();
 
+	// The mtime of each world's region directory when we last scanned it, so
+	// that getClosestRegion() notices regions which have been written since.
+	private static final HashMap<String, Long> availableCacheTimes = new HashMap<String, Long>();
+
+	// The ChunkIndex of each world we've got loaded, which we tell about
+	// every region we open so that it hears about new and rewritten regions
+	// without a full refresh.  WorldInfo doesn't override equals(), so this
+	// is keyed on the instance the level was loaded with.
+	private static final ConcurrentHashMap<WorldInfo, ChunkIndex> indexes = new ConcurrentHashMap<WorldInfo, ChunkIndex>();
+
     private RegionFileCache() {
     }
 
+	/**
+	 * Sets whether or not region files opened from here on out should be
+	 * memory-mapped.  Files which are already open are left alone.
+	 *
+	 * @param mapped true to memory-map region files
+	 */
+	public static synchronized void setMemoryMapped(boolean mapped)
+	{
+		memoryMapped = mapped;
+	}
+
+	public static synchronized boolean isMemoryMapped()
+	{
+		return memoryMapped;
+	}
+
+	/**
+	 * Sets the maximum number of region files we'll keep open at once.  If
+	 * we're currently over the new limit, the least-recently-used files are
+	 * dropped immediately (and closed as soon as nobody is reading them).
+	 *
+	 * @param size The new maximum; values below 1 are treated as 1
+	 */
+	public static synchronized void setMaxCacheSize(int size)
+	{
+		maxCacheSize = Math.max(1, size);
+		Iterator<RegionFile> it = cache.values().iterator();
+		while (cache.size() > maxCacheSize && it.hasNext())
+		{
+			it.next().release();
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public static synchronized int getMaxCacheSize()
+	{
+		return maxCacheSize;
+	}
+
+	public static synchronized int getOpenCount()
+	{
+		return cache.size();
+	}
+
+	public static synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public static synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public static synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Number of times we've had to reopen a region because its file changed
+	 * on disk underneath us.
+	 */
+	public static synchronized long getInvalidations()
+	{
+		return invalidations;
+	}
+
+	/**
+	 * Returns our hit rate as a fraction between 0 and 1
+	 */
+	public static synchronized double getHitRate()
+	{
+		if (hits + misses == 0)
+		{
+			return 0;
+		}
+		return (double) hits / (double) (hits + misses);
+	}
+
+	public static synchronized void resetStats()
+	{
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+		invalidations = 0;
+	}
+
 	/**
 	 * Returns the integer chunk coordinates of the nearest chunk for which we have data,
 	 * from (x, z).  
@@ -65,16 +202,21 @@ public class RegionFileCache {
 	{
 		String basePath = world.getBasePath();
 		ArrayList<IntegerPair> available;
-		if (availableCache.containsKey(basePath))
+		File base = new File(basePath, "region");
+		long baseModified = base.lastModified();
+		Long cachedModified = availableCacheTimes.get(basePath);
+		if (availableCache.containsKey(basePath) && cachedModified != null && cachedModified == baseModified)
 		{
 			available = availableCache.get(basePath);
 		}
 		else
 		{
+			// Either we've never looked, or the server has created new region
+			// files since we last did, so (re)scan the directory.
 			available = new ArrayList<IntegerPair>();
 			availableCache.put(basePath, available);
+			availableCacheTimes.put(basePath, baseModified);
 
-			File base = new File(basePath, "region");
 			File[] regions = base.listFiles(new RegionFileFilter(world));
 			Pattern pattern = Pattern.compile(RegionFileFilter.match_regex);
 
@@ -167,49 +309,56 @@ public class RegionFileCache {
 			RegionFile rf = getRegionFileByRegion(world, closestPair.getValueOne(), closestPair.getValueTwo());
 			if (rf != null)
 			{
-				int adjustedChunkX = chunkX - (closestPair.getValueOne()*32);
-				int adjustedChunkZ = chunkZ - (closestPair.getValueTwo()*32);
-				IntegerPair closestChunk = null;
-				double closestChunkDistance = Double.MAX_VALUE;
-				boolean foundChunk = false;
-				for (int x = 0; x < 32; x++)
+				try
 				{
-					for (int z = 0; z < 32; z++)
+					int adjustedChunkX = chunkX - (closestPair.getValueOne()*32);
+					int adjustedChunkZ = chunkZ - (closestPair.getValueTwo()*32);
+					IntegerPair closestChunk = null;
+					double closestChunkDistance = Double.MAX_VALUE;
+					boolean foundChunk = false;
+					for (int x = 0; x < 32; x++)
 					{
-						if (rf.hasChunk(x, z))
+						for (int z = 0; z < 32; z++)
 						{
-							int dist_one;
-							int dist_two;
-							if (x > adjustedChunkX)
-							{
-								dist_one = Math.abs(x - adjustedChunkX);
-							}
-							else
-							{
-								dist_one = Math.abs(adjustedChunkX - x);
-							}
-							if (z > adjustedChunkZ)
-							{
-								dist_two = Math.abs(z - adjustedChunkZ);
-							}
-							else
-							{
-								dist_two = Math.abs(adjustedChunkZ - z);
-							}
-							double thisChunkDistance = Math.sqrt(Math.pow(dist_one, 2) + Math.pow(dist_two, 2));
-							if (!foundChunk || thisChunkDistance < closestChunkDistance)
+							if (rf.hasChunk(x, z))
 							{
-								foundChunk = true;
-								closestChunkDistance = thisChunkDistance;
-								closestChunk = new IntegerPair(x, z);
+								int dist_one;
+								int dist_two;
+								if (x > adjustedChunkX)
+								{
+									dist_one = Math.abs(x - adjustedChunkX);
+								}
+								else
+								{
+									dist_one = Math.abs(adjustedChunkX - x);
+								}
+								if (z > adjustedChunkZ)
+								{
+									dist_two = Math.abs(z - adjustedChunkZ);
+								}
+								else
+								{
+									dist_two = Math.abs(adjustedChunkZ - z);
+								}
+								double thisChunkDistance = Math.sqrt(Math.pow(dist_one, 2) + Math.pow(dist_two, 2));
+								if (!foundChunk || thisChunkDistance < closestChunkDistance)
+								{
+									foundChunk = true;
+									closestChunkDistance = thisChunkDistance;
+									closestChunk = new IntegerPair(x, z);
+								}
 							}
 						}
 					}
+					if (foundChunk)
+					{
+						return new IntegerPair(closestChunk.getValueOne() + (closestPair.getValueOne()*32),
+								closestChunk.getValueTwo() + (closestPair.getValueTwo()*32));
+					}
 				}
-				if (foundChunk)
+				finally
 				{
-					return new IntegerPair(closestChunk.getValueOne() + (closestPair.getValueOne()*32),
-							closestChunk.getValueTwo() + (closestPair.getValueTwo()*32));
+					rf.release();
 				}
 			}
 		}
@@ -218,13 +367,32 @@ public class RegionFileCache {
 		return null;
 	}
 
-	public static synchronized RegionFile getRegionFileByRegion(WorldInfo world, int regionX, int regionZ)
+	public static RegionFile getRegionFileByRegion(WorldInfo world, int regionX, int regionZ)
 	{
 		return getRegionFile(world, (regionX << 5), (regionZ << 5));
 	}
 
-    public static synchronized RegionFile getRegionFile(WorldInfo world, int chunkX, int chunkZ) {
-        File regionDir = new File(new File(world.getBasePath()), "region");
+	/**
+	 * Has the given index kept up to date with the regions we open for its
+	 * world from now on.
+	 */
+	public static void registerIndex(WorldInfo world, ChunkIndex index)
+	{
+		indexes.put(world, index);
+	}
+
+	public static void unregisterIndex(WorldInfo world, ChunkIndex index)
+	{
+		indexes.remove(world, index);
+	}
+
+	/**
+	 * Returns the path of the region file which would hold the given chunk,
+	 * whether or not it actually exists.
+	 */
+	public static File getRegionPath(WorldInfo world, int chunkX, int chunkZ)
+	{
+		File regionDir = new File(new File(world.getBasePath()), "region");
 		String extension;
 		switch(world.data_format)
 		{
@@ -236,47 +404,124 @@ public class RegionFileCache {
 			default:
 				extension = ".mcr";
 		}
-        File file = new File(regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + extension);
+		return new File(regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + extension);
+	}
 
-        Reference<RegionFile> ref = cache.get(file);
+	/**
+	 * Returns the RegionFile holding the given chunk, or null if there isn't
+	 * one.  The file comes back with a reference already taken out on the
+	 * caller's behalf, so callers must call release() on it once they're done
+	 * reading; otherwise an eviction from another thread could close it while
+	 * it's still in use.
+	 */
+	public static RegionFile getRegionFile(WorldInfo world, int chunkX, int chunkZ)
+	{
+		File file = getRegionPath(world, chunkX, chunkZ);
 
-        if (ref != null && ref.get() != null) {
-            return ref.get();
-        }
+		// Only the cache bookkeeping happens under our lock; stat()ing and
+		// opening files is left outside it, so that loader threads reading
+		// different regions (or the same one) don't queue up behind each other.
+		RegionFile reg;
+		long now = System.currentTimeMillis();
+		synchronized (RegionFileCache.class)
+		{
+			reg = cache.get(file);
+			if (reg != null)
+			{
+				reg.acquire();
+				if (!reg.isCheckDue(now))
+				{
+					hits++;
+					return reg;
+				}
+			}
+		}
 
-        /* Commented for X-Ray because I'd rather not modify anything, even if it's just a
-         * directory.  We should never get here unless stuff exists, anyway.
-        if (!regionDir.exists()) {
-            regionDir.mkdirs();
-        }
-        */
+		if (reg != null)
+		{
+			// If the server has rewritten this region since we opened it, our
+			// offset table is stale; drop it and open it up fresh.  If it's
+			// changed size, get off the mapping first: readers still holding
+			// this copy would fault on any pages which have been cut off.
+			long length = file.length();
+			if (length != reg.length())
+			{
+				reg.dropMapping();
+			}
+			else if (file.lastModified() == reg.lastModified())
+			{
+				reg.setNextCheck(now + CHECK_INTERVAL);
+				synchronized (RegionFileCache.class)
+				{
+					hits++;
+				}
+				return reg;
+			}
+			synchronized (RegionFileCache.class)
+			{
+				if (cache.get(file) == reg)
+				{
+					invalidations++;
+					cache.remove(file);
+					reg.release();
+				}
+			}
+			reg.release();
+		}
 
-        if (cache.size() >= MAX_CACHE_SIZE) {
-            RegionFileCache.clear();
-        }
+		/* Commented for X-Ray because I'd rather not modify anything, even if it's just a
+		 * directory.  We should never get here unless stuff exists, anyway.
+		if (!regionDir.exists()) {
+			regionDir.mkdirs();
+		}
+		*/
 
-        if (file.exists())
-        {
-	        RegionFile reg = new RegionFile(file);
-	        cache.put(file, new SoftReference<RegionFile>(reg));
-	        return reg;
-        }
-        else
-        {
-        	return null;
-        }
-    }
+		if (!file.exists())
+		{
+			synchronized (RegionFileCache.class)
+			{
+				misses++;
+			}
+			return null;
+		}
+
+		// Several threads may get here for the same region at once; whichever
+		// puts its copy in the cache first wins, and the others use that one
+		// and close their own.
+		RegionFile opened = new RegionFile(file, memoryMapped);
+		opened.setNextCheck(now + CHECK_INTERVAL);
+		synchronized (RegionFileCache.class)
+		{
+			misses++;
+			reg = cache.get(file);
+			if (reg == null)
+			{
+				reg = opened;
+				cache.put(file, reg);
+			}
+			reg.acquire();
+		}
+		if (reg != opened)
+		{
+			opened.release();
+		}
+		else
+		{
+			ChunkIndex index = indexes.get(world);
+			if (index != null)
+			{
+				index.update(chunkX >> 5, chunkZ >> 5, opened);
+			}
+		}
+		return reg;
+	}
 
     public static synchronized void clear() {
-        for (Reference<RegionFile> ref : cache.values()) {
-            try {
-                if (ref.get() != null) {
-                    ref.get().close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        for (RegionFile reg : cache.values()) {
+            reg.release();
         }
         cache.clear();
+        availableCache.clear();
+        availableCacheTimes.clear();
     }
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * A small GLSL program for drawing the tiled quads which GreedyMesher
+ * produces: it picks the sprite out of the whole part of each texture
+ * coordinate and repeats it using the fractional part.  Since a fragment
+ * shader replaces the fixed-function fog, we do our own linear fog when
+ * GL_FOG is on.
+ *
+ * Everything in here has to happen on the render thread.
+ */
+public class TiledQuadShader
+{
+	private static final String VERTEX_SOURCE =
+		"varying vec2 tileCoord;\n" +
+		"void main()\n" +
+		"{\n" +
+		"	gl_Position = ftransform();\n" +
+		"	gl_FrontColor = gl_Color;\n" +
+		"	tileCoord = gl_MultiTexCoord0.xy;\n" +
+		"	gl_FogFragCoord = abs((gl_ModelViewMatrix * gl_Vertex).z);\n" +
+		"}\n";
+
+	private static final String FRAGMENT_SOURCE =
+		"uniform sampler2D sheet;\n" +
+		"uniform bool fog;\n" +
+		"varying vec2 tileCoord;\n" +
+		"void main()\n" +
+		"{\n" +
+		"	vec2 tile = floor(tileCoord / " + GreedyMesher.TILE_SPAN + ".0);\n" +
+		"	vec2 uv = (tile + fract(tileCoord)) * vec2(1.0/16.0, 1.0/32.0);\n" +
+		"	vec4 color = texture2D(sheet, uv) * gl_Color;\n" +
+		"	if (fog)\n" +
+		"	{\n" +
+		"		float f = clamp((gl_Fog.end - gl_FogFragCoord) * gl_Fog.scale, 0.0, 1.0);\n" +
+		"		color.rgb = mix(gl_Fog.color.rgb, color.rgb, f);\n" +
+		"	}\n" +
+		"	gl_FragColor = color;\n" +
+		"}\n";
+
+	// Zero until we've tried to build the program; -1 if that failed
+	private static int program = 0;
+	private static int fogLocation;
+
+	private TiledQuadShader()
+	{
+	}
+
+	/**
+	 * Whether we can be used, building the program the first time through
+	 * if the card has GLSL at all.
+	 */
+	public static boolean isAvailable()
+	{
+		if (program == 0)
+		{
+			if (GLContext.getCapabilities().OpenGL20)
+			{
+				build();
+			}
+			else
+			{
+				program = -1;
+			}
+		}
+		return program != -1;
+	}
+
+	private static int compile(int type, String source)
+	{
+		int shader = GL20.glCreateShader(type);
+		GL20.glShaderSource(shader, source);
+		GL20.glCompileShader(shader);
+		if (GL20.glGetShader(shader, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE)
+		{
+			Utility.logger.warn("Couldn't compile tiled quad shader: " + GL20.glGetShaderInfoLog(shader, 4096));
+			GL20.glDeleteShader(shader);
+			return 0;
+		}
+		return shader;
+	}
+
+	private static void build()
+	{
+		program = -1;
+		int vertex = compile(GL20.GL_VERTEX_SHADER, VERTEX_SOURCE);
+		int fragment = compile(GL20.GL_FRAGMENT_SHADER, FRAGMENT_SOURCE);
+		if (vertex == 0 || fragment == 0)
+		{
+			return;
+		}
+		int linked = GL20.glCreateProgram();
+		GL20.glAttachShader(linked, vertex);
+		GL20.glAttachShader(linked, fragment);
+		GL20.glLinkProgram(linked);
+		GL20.glDeleteShader(vertex);
+		GL20.glDeleteShader(fragment);
+		if (GL20.glGetProgram(linked, GL20.GL_LINK_STATUS) == GL11.GL_FALSE)
+		{
+			Utility.logger.warn("Couldn't link tiled quad shader: " + GL20.glGetProgramInfoLog(linked, 4096));
+			GL20.glDeleteProgram(linked);
+			return;
+		}
+		GL20.glUseProgram(linked);
+		GL20.glUniform1i(GL20.glGetUniformLocation(linked, "sheet"), 0);
+		GL20.glUseProgram(0);
+		fogLocation = GL20.glGetUniformLocation(linked, "fog");
+		program = linked;
+	}
+
+	/**
+	 * Switches drawing over to us.  Returns false if we aren't available.
+	 */
+	public static boolean bind()
+	{
+		if (!isAvailable())
+		{
+			return false;
+		}
+		GL20.glUseProgram(program);
+		GL20.glUniform1i(fogLocation, GL11.glIsEnabled(GL11.GL_FOG) ? 1 : 0);
+		return true;
+	}
+
+	public static void unbind()
+	{
+		GL20.glUseProgram(0);
+	}
+}
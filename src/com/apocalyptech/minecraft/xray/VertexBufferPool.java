@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL15;
+
+/**
+ * Hands out GL vertex buffer names for our chunk meshes, and takes them back
+ * when a chunk goes away.  Flying around loads and drops chunks constantly,
+ * so rather than generating and deleting buffers all the time we keep the
+ * names we get back and give them to the next chunk that comes along.
+ *
+ * Everything in here has to happen on the render thread, since that's the
+ * only one with a GL context.
+ */
+public class VertexBufferPool
+{
+	// Don't sit on more spare names than this; anything past it gets deleted
+	private static final int MAX_POOLED = 4096;
+
+	private static int[] pooled = new int[256];
+	private static int pooledCount = 0;
+
+	// Buffers we've handed out and haven't had back yet
+	private static int liveCount = 0;
+
+	// Running totals, for keeping an eye on long sessions
+	private static long generatedCount = 0;
+	private static long deletedCount = 0;
+
+	private VertexBufferPool()
+	{
+	}
+
+	/**
+	 * Returns a vertex buffer name, reusing one we got back earlier if we can.
+	 */
+	public static int acquire()
+	{
+		int buffer;
+		if (pooledCount > 0)
+		{
+			buffer = pooled[--pooledCount];
+		}
+		else
+		{
+			buffer = GL15.glGenBuffers();
+			generatedCount++;
+		}
+		liveCount++;
+		return buffer;
+	}
+
+	/**
+	 * Gives back a buffer from acquire().  Its storage is shrunk to nothing
+	 * so the driver can let go of the geometry while the name waits to be
+	 * reused.
+	 */
+	public static void release(int buffer)
+	{
+		if (buffer == 0)
+		{
+			return;
+		}
+		liveCount--;
+		if (pooledCount < MAX_POOLED)
+		{
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, buffer);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, 0L, GL15.GL_STATIC_DRAW);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+			if (pooledCount == pooled.length)
+			{
+				pooled = Arrays.copyOf(pooled, pooled.length * 2);
+			}
+			pooled[pooledCount++] = buffer;
+		}
+		else
+		{
+			GL15.glDeleteBuffers(buffer);
+			deletedCount++;
+		}
+	}
+
+	/**
+	 * Deletes all the spare names we're holding on to.
+	 */
+	public static void drain()
+	{
+		for (int i = 0; i < pooledCount; i++)
+		{
+			GL15.glDeleteBuffers(pooled[i]);
+		}
+		deletedCount += pooledCount;
+		pooledCount = 0;
+	}
+
+	/**
+	 * How many buffers are currently in use by chunks
+	 */
+	public static int getLiveCount()
+	{
+		return liveCount;
+	}
+
+	/**
+	 * How many buffer names we're holding for reuse
+	 */
+	public static int getPooledCount()
+	{
+		return pooledCount;
+	}
+
+	/**
+	 * How many buffer names exist on the GL side, in use or not
+	 */
+	public static long getAllocatedCount()
+	{
+		return generatedCount - deletedCount;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray;
+
+/**
+ * The volume our camera can see, as six planes in world coordinates, so that
+ * we can skip drawing chunks which are entirely outside of it.  The planes
+ * come straight from FirstPersonCameraController's yaw, pitch and position,
+ * using the same rotations as applyCameraTransformation(), plus the
+ * perspective we set up in XRay.initGL().  This doesn't touch OpenGL.
+ */
+public class ViewFrustum
+{
+	// Each plane is a normal pointing into the frustum plus an offset, so
+	// that a point is inside when normal . point + offset >= 0
+	private float[][] planes = new float[6][4];
+
+	public ViewFrustum()
+	{
+	}
+
+	/**
+	 * Recomputes our planes for the camera's current orientation.
+	 *
+	 * @param camera The camera we're drawing from
+	 * @param fovY Vertical field of view, in degrees
+	 * @param aspect Width over height of the viewport
+	 * @param near Distance to the near clipping plane
+	 * @param far How far away things can be before we stop drawing them
+	 */
+	public void update(FirstPersonCameraController camera, float fovY, float aspect, float near, float far)
+	{
+		double yaw = Math.toRadians(camera.getYaw());
+		double pitch = Math.toRadians(camera.getPitch());
+		float cy = (float) Math.cos(yaw);
+		float sy = (float) Math.sin(yaw);
+		float cp = (float) Math.cos(pitch);
+		float sp = (float) Math.sin(pitch);
+
+		// Rows of the camera's rotation: the world directions of the view's
+		// right, up and backwards axes
+		float[] right = { cy, 0f, sy };
+		float[] up = { sp * sy, cp, -sp * cy };
+		float[] back = { -cp * sy, sp, cp * cy };
+
+		// The camera translates by its negated position
+		float[] eye = { -camera.getPosition().x, -camera.getPosition().y, -camera.getPosition().z };
+
+		float tanV = (float) Math.tan(Math.toRadians(fovY / 2f));
+		float tanH = tanV * aspect;
+		for (int i = 0; i < 3; i++)
+		{
+			this.planes[0][i] = right[i] - (tanH * back[i]);
+			this.planes[1][i] = -right[i] - (tanH * back[i]);
+			this.planes[2][i] = up[i] - (tanV * back[i]);
+			this.planes[3][i] = -up[i] - (tanV * back[i]);
+			this.planes[4][i] = -back[i];
+			this.planes[5][i] = back[i];
+		}
+		for (float[] plane : this.planes)
+		{
+			plane[3] = -((plane[0] * eye[0]) + (plane[1] * eye[1]) + (plane[2] * eye[2]));
+		}
+		this.planes[4][3] -= near;
+		this.planes[5][3] += far;
+	}
+
+	/**
+	 * Whether any part of the given box might be inside the frustum.  This
+	 * errs on the side of drawing: a box near one of the frustum's edges can
+	 * be outside of it and still pass.
+	 */
+	public boolean intersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+	{
+		for (float[] plane : this.planes)
+		{
+			// Test whichever corner of the box is furthest into the frustum
+			float x = (plane[0] >= 0f) ? maxX : minX;
+			float y = (plane[1] >= 0f) ? maxY : minY;
+			float z = (plane[2] >= 0f) ? maxZ : minZ;
+			if ((plane[0] * x) + (plane[1] * y) + (plane[2] * z) + plane[3] < 0f)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
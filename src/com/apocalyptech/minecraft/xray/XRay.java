@@ -55,6 +55,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
 
 import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
@@ -77,6 +79,16 @@ public class XRay
 	// number of chunks around the camera which are visible (Square)
 	private int visible_chunk_range = 5;
 
+	// Our perspective; the chunk culling in render() needs to match it
+	private static final float FIELD_OF_VIEW = 90.0f;
+	private static final float NEAR_PLANE = 0.1f;
+	private static final float FAR_PLANE = 400.0f;
+
+	// The chunks in range which we drew and culled, last frame
+	private ViewFrustum frustum = new ViewFrustum();
+	private int chunksDrawn;
+	private int chunksCulled;
+
 	private int currentChunkRange = 4;
 
 	private int currentHighlightDistance = 1;
@@ -144,6 +156,7 @@ public class XRay
 		public boolean render_water = true;
 		public boolean highlight_explored = false;
 		public boolean beta19_fences = true;
+		public boolean greedy_meshing = true;
 		public HIGHLIGHT_TYPE highlightOres = Utility.defaultHighlightOre;
 	}
 
@@ -187,6 +200,20 @@ public class XRay
 	// the world chunks we still need to load
 	private LinkedList<Block> mapChunksToLoad;
 
+	// builds the chunks from mapChunksToLoad in the background
+	private ChunkLoader chunkLoader;
+
+	// how many threads chunkLoader uses (0 to pick based on CPU count)
+	private int chunkLoaderThreads = 0;
+
+	// how much heap our loaded chunks may use, in MB (0 to pick based on
+	// the maximum heap size), and that figure in bytes
+	private int chunkMemoryBudgetMB = 0;
+	private long chunkMemoryBudget;
+
+	// the chunk memory figure currently shown in the render details box
+	private int shownChunkMemoryMB = -1;
+
 	// the current (selected) world number
 	private WorldInfo world = null;
 
@@ -366,6 +393,12 @@ public class XRay
 					loadPendingChunks();
 				}
 
+				// Keep the chunk memory figure in our details box current
+				if (renderDetailsToggle && (int) (level.getChunkMemoryUsage() / 1024 / 1024) != this.shownChunkMemoryMB)
+				{
+					this.regenerateRenderDetailsTexture = true;
+				}
+
 				// Regenerate our rendering details window if we've been told to
 				if (this.regenerateRenderDetailsTexture)
 				{
@@ -520,6 +553,46 @@ public class XRay
 		// Read in our saved option states, if we have 'em
 		this.loadOptionStates();
 
+		// Region file reading mode.  Memory-mapping avoids a seek and a copy
+		// for every chunk we read, at the cost of some address space.  It's
+		// off by default: a server truncating a mapped region can crash us
+		// with SIGBUS, and on Windows a mapped region can't be resized by the
+		// server at all.  See RegionFileCache.
+		RegionFileCache.setMemoryMapped(xray_properties.getBooleanProperty("REGION_MEMORY_MAPPED", RegionFileCache.isMemoryMapped()));
+		xray_properties.setBooleanProperty("REGION_MEMORY_MAPPED", RegionFileCache.isMemoryMapped());
+
+		// How many region files we're allowed to keep open at once
+		RegionFileCache.setMaxCacheSize(xray_properties.getIntProperty("REGION_CACHE_SIZE", RegionFileCache.getMaxCacheSize()));
+		xray_properties.setIntProperty("REGION_CACHE_SIZE", RegionFileCache.getMaxCacheSize());
+
+		// How many background threads build chunks for us; 0 means to decide
+		// based on how many CPUs we've got.
+		this.chunkLoaderThreads = Math.max(0, xray_properties.getIntProperty("CHUNK_LOADER_THREADS", 0));
+		xray_properties.setIntProperty("CHUNK_LOADER_THREADS", this.chunkLoaderThreads);
+
+		// Whether Anvil sections with few distinct blocks get palette-packed,
+		// which saves a lot of memory at large view ranges.
+		ChunkSection.setPaletteEnabled(xray_properties.getBooleanProperty("PALETTE_SECTIONS", ChunkSection.isPaletteEnabled()));
+		xray_properties.setBooleanProperty("PALETTE_SECTIONS", ChunkSection.isPaletteEnabled());
+
+		// How much memory (in MB) we can use to keep compressed copies of
+		// chunks we've moved away from; 0 turns that off.
+		ChunkCache.setMaxSize(xray_properties.getIntProperty("CHUNK_CACHE_SIZE", ChunkCache.getMaxSize()));
+		xray_properties.setIntProperty("CHUNK_CACHE_SIZE", ChunkCache.getMaxSize());
+
+		// How much heap loaded chunks are allowed to take up before we start
+		// dropping the furthest ones; 0 means half of the maximum heap.
+		this.chunkMemoryBudgetMB = Math.max(0, xray_properties.getIntProperty("CHUNK_MEMORY_BUDGET", 0));
+		xray_properties.setIntProperty("CHUNK_MEMORY_BUDGET", this.chunkMemoryBudgetMB);
+		if (this.chunkMemoryBudgetMB > 0)
+		{
+			this.chunkMemoryBudget = this.chunkMemoryBudgetMB * 1024L * 1024L;
+		}
+		else
+		{
+			this.chunkMemoryBudget = Runtime.getRuntime().maxMemory() / 2;
+		}
+
 		// Save the file immediately, in case we picked up new defaults which weren't present previously
 		this.savePreferences();
 
@@ -604,18 +677,38 @@ public class XRay
 	}
 
 	/**
-	 * Loads any pending chunks, but won't exceed max_chunkload_time timer ticks
-	 * (unless we're doing the initial load).
+	 * Hands any newly-queued chunks off to our chunk loader, and then adds the
+	 * chunks it's finished building to the level and minimap.  Won't exceed
+	 * max_chunkload_time timer ticks (unless we're doing the initial load, in
+	 * which case we wait for everything, drawing a progress bar as we go).
 	 */
 	public void loadPendingChunks()
 	{
 		Block b;
+		while (!mapChunksToLoad.isEmpty())
+		{
+			b = (Block) mapChunksToLoad.removeFirst();
+
+			// There may be some circumstances where a chunk we're going to load is already loaded.
+			// Mostly while moving diagonally, I think. I'm actually not convinced that it's worth
+			// checking for, as it doesn't happen TOO often.
+			if (level.getChunk(b.x, b.z) != null)
+			{
+				continue;
+			}
+			chunkLoader.request(b.x, b.z);
+		}
+		if (initial_load_done && chunkLoader.getPendingCount() == 0)
+		{
+			return;
+		}
+
 		long time = Sys.getTime();
 		int total = 0;
 		int counter = 0;
 		if (!initial_load_done)
 		{
-			total = mapChunksToLoad.size();
+			total = chunkLoader.getPendingCount();
 			setOrthoOn();
 
 			GL11.glDisable(GL11.GL_BLEND);
@@ -652,33 +745,57 @@ public class XRay
 		boolean got_playerpos_chunk = false;
 		CameraPreset spawn = level.getSpawnPoint();
 		CameraPreset playerpos = level.getPlayerPosition();
-		Chunk c;
-		while (!mapChunksToLoad.isEmpty())
+		ChunkLoader.Result result;
+		boolean installed;
+		while (true)
 		{
-			// Load and draw the chunk
-			b = (Block) mapChunksToLoad.removeFirst();
-			// Utility.logger.debug("Loading chunk " + b.x + "," + b.z);
-
-			// There may be some circumstances where a chunk we're going to load is already loaded.
-			// Mostly while moving diagonally, I think. I'm actually not convinced that it's worth
-			// checking for, as it doesn't happen TOO often.
-			c = level.getChunk(b.x, b.z);
-			if (c != null)
+			if (initial_load_done)
 			{
-				if (c.point.x == b.x && c.point.z == b.z)
+				result = chunkLoader.poll();
+			}
+			else
+			{
+				if (chunkLoader.getPendingCount() == 0)
+				{
+					break;
+				}
+				try
+				{
+					result = chunkLoader.poll(100);
+				}
+				catch (InterruptedException e)
+				{
+					break;
+				}
+				if (result == null)
 				{
 					continue;
 				}
 			}
-			level.loadChunk(b.x, b.z);
-			drawChunkToMap(b.x, b.z);
-			if (spawn.block.cx == b.x && spawn.block.cz == b.z)
+			if (result == null)
 			{
-				got_spawn_chunk = true;
+				break;
 			}
-			if (playerpos.block.cx == b.x && playerpos.block.cz == b.z)
+
+			// Add the chunk to the level, unless the same chunk was requested twice
+			// and the other copy beat this one in.
+			installed = false;
+			if (result.chunk != null)
 			{
-				got_playerpos_chunk = true;
+				if (level.getChunk(result.x, result.z) == null)
+				{
+					level.installChunk(result.chunk);
+					drawChunkToMap(result.chunk, result.minimap);
+					installed = true;
+					if (spawn.block.cx == result.x && spawn.block.cz == result.z)
+					{
+						got_spawn_chunk = true;
+					}
+					if (playerpos.block.cx == result.x && playerpos.block.cz == result.z)
+					{
+						got_playerpos_chunk = true;
+					}
+				}
 			}
 
 			// Make sure we update the minimap
@@ -745,15 +862,15 @@ public class XRay
 					Display.update();
 				}
 			}
-			else
+			else if (installed)
 			{
 				// Otherwise (if our initial load is done), mark any existing adjacent chunks
 				// as dirty so that they re-render. This is needed so that we don't get gaps
 				// in our terrain because the adjacent chunks weren't ready yet.
-				level.markChunkAsDirty(b.x + 1, b.z);
-				level.markChunkAsDirty(b.x - 1, b.z);
-				level.markChunkAsDirty(b.x, b.z + 1);
-				level.markChunkAsDirty(b.x, b.z - 1);
+				level.markChunkAsDirty(result.x + 1, result.z);
+				level.markChunkAsDirty(result.x - 1, result.z);
+				level.markChunkAsDirty(result.x, result.z + 1);
+				level.markChunkAsDirty(result.x, result.z - 1);
 			}
 
 			// If we've taken too long, break out so the GUI can update
@@ -762,6 +879,7 @@ public class XRay
 				break;
 			}
 		}
+		this.enforceChunkMemoryBudget();
 		if (got_spawn_chunk)
 		{
 			drawSpawnMarkerToMinimap();
@@ -828,6 +946,27 @@ public class XRay
 		GL11.glFogf(GL11.GL_FOG_END, max);
 	}
 
+	/**
+	 * How far away something can be and still show up.  In light mode,
+	 * anything past the end of our fog is fogged over completely, so there's
+	 * no point drawing it.  Ore highlighting pushes the fog out a bit, so
+	 * allow for that too.
+	 */
+	private float getViewDistance()
+	{
+		if (!this.lightMode)
+		{
+			return FAR_PLANE;
+		}
+		int lightLevel = Math.min(this.currentLightLevel, this.lightLevelEnd.length-1);
+		int end = this.lightLevelEnd[lightLevel];
+		if (Utility.toggle.highlightOres != HIGHLIGHT_TYPE.OFF)
+		{
+			end += 20;
+		}
+		return Math.min(FAR_PLANE, end);
+	}
+
 	/**
 	 * Alters our grass texture_dir_map to include or not include the fancier
 	 * grass rendering, in case anyone wants that behavior on occasion.
@@ -889,7 +1028,7 @@ public class XRay
 		GL11.glLoadIdentity(); // Reset The Projection Matrix
 
 		// Calculate The Aspect Ratio Of The Window
-		GLU.gluPerspective(90.0f, (float) displayMode.getWidth() / (float) displayMode.getHeight(), 0.1f, 400.0f);
+		GLU.gluPerspective(FIELD_OF_VIEW, (float) displayMode.getWidth() / (float) displayMode.getHeight(), NEAR_PLANE, FAR_PLANE);
 		GL11.glMatrixMode(GL11.GL_MODELVIEW); // Select The Modelview Matrix
 
 		// Really Nice Perspective Calculations
@@ -908,6 +1047,13 @@ public class XRay
 		GL11.glHint(GL11.GL_FOG_HINT, GL11.GL_NICEST);
 		setLightLevel();
 
+		// Greedy meshing needs a shader to repeat textures across merged faces
+		if (Utility.toggle.greedy_meshing && !TiledQuadShader.isAvailable())
+		{
+			Utility.logger.info("GLSL isn't available; turning off greedy meshing");
+			Utility.toggle.greedy_meshing = false;
+		}
+
 	}
 
 	/**
@@ -928,6 +1074,14 @@ public class XRay
 			e1.printStackTrace();
 		}
 
+		// Close out any region files from the world we're leaving
+		Utility.logger.debug("Region cache: " + RegionFileCache.getHits() + " hits, " +
+				RegionFileCache.getMisses() + " misses, " +
+				RegionFileCache.getEvictions() + " evictions, " +
+				RegionFileCache.getInvalidations() + " reopened after changes");
+		RegionFileCache.clear();
+		RegionFileCache.resetStats();
+
 		// level data
 		/*levelBlockX = Integer.MIN_VALUE;
 		levelBlockZ = Integer.MIN_VALUE;*/
@@ -1324,10 +1478,19 @@ public class XRay
 	private void setMinecraftWorld(WorldInfo world)
 	{
 		this.world = world;
+		if (this.level != null)
+		{
+			this.level.dispose();
+		}
 		this.level = new MinecraftLevel(world, minecraftTextures, paintingTexture, Utility.HIGHLIGHT_ORES);
 
 		// determine which chunks are available in this world
 		mapChunksToLoad = new LinkedList<Block>();
+		if (chunkLoader != null)
+		{
+			chunkLoader.shutdown();
+		}
+		chunkLoader = new ChunkLoader(this.level, this.chunkLoaderThreads);
 
 		updateExploredBlocks();
 
@@ -1377,10 +1540,19 @@ public class XRay
 	private void setMinecraftWorld(WorldInfo world, FirstPersonCameraController camera)
 	{
 		this.world = world;
+		if (this.level != null)
+		{
+			this.level.dispose();
+		}
 		this.level = new MinecraftLevel(world, minecraftTextures, paintingTexture, Utility.HIGHLIGHT_ORES);
 
 		// determine which chunks are available in this world
 		mapChunksToLoad = new LinkedList<Block>();
+		if (chunkLoader != null)
+		{
+			chunkLoader.shutdown();
+		}
+		chunkLoader = new ChunkLoader(this.level, this.chunkLoaderThreads);
 
 		updateExploredBlocks();
 
@@ -1501,8 +1673,15 @@ public class XRay
 	 */
 	private void reloadFromDisk()
 	{
+		level.chunkIndex.refresh();
 		Block block = new Block((int)camera.getPosition().x, (int)camera.getPosition().y, (int)camera.getPosition().z);
 		this.moveCameraToPosition(new CameraPreset(-1, "current location", block, camera.getYaw()-180, camera.getPitch()));
+
+		// Moving the camera just snapshotted every chunk it dropped; the whole
+		// point here is to read them from disk again, so throw those away.
+		// Nothing's been handed to the loader yet (that waits for
+		// loadPendingChunks()), so no load can get at them before we do.
+		level.getChunkCache().clear();
 	}
 
 	/**
@@ -1594,18 +1773,17 @@ public class XRay
 						tempchunk = level.getChunk(lx, lz);
 						if (tempchunk != null)
 						{
-							if (tempchunk.point.x == lx && tempchunk.point.z == lz)
+							if (!tempchunk.isOnMinimap)
 							{
-								if (!tempchunk.isOnMinimap)
-								{
-									drawChunkToMap(tempchunk.point.x, tempchunk.point.z);
-									// minimap_changed = true;
-								}
-								continue;
+								drawChunkToMap(tempchunk.point.x, tempchunk.point.z);
+								// minimap_changed = true;
 							}
-							level.clearChunk(lx, lz);
+							continue;
+						}
+						if (level.hasChunk(lx, lz))
+						{
+							mapChunksToLoad.add(new Block(lx, 0, lz));
 						}
-						mapChunksToLoad.add(new Block(lx, 0, lz));
 					}
 				}
 			}
@@ -1632,18 +1810,17 @@ public class XRay
 						tempchunk = level.getChunk(lx, lz);
 						if (tempchunk != null)
 						{
-							if (tempchunk.point.x == lx && tempchunk.point.z == lz)
+							if (!tempchunk.isOnMinimap)
 							{
-								if (!tempchunk.isOnMinimap)
-								{
-									drawChunkToMap(tempchunk.point.x, tempchunk.point.z);
-									// minimap_changed = true;
-								}
-								continue;
+								drawChunkToMap(tempchunk.point.x, tempchunk.point.z);
+								// minimap_changed = true;
 							}
-							level.clearChunk(lx, lz);
+							continue;
+						}
+						if (level.hasChunk(lx, lz))
+						{
+							mapChunksToLoad.add(new Block(lx, 0, lz));
 						}
-						mapChunksToLoad.add(new Block(lx, 0, lz));
 					}
 				}
 			}
@@ -1697,24 +1874,87 @@ public class XRay
 			}
 
 			removeChunklistFromMap(trimList);
+
+			if (dx != 0 || dz != 0)
+			{
+				this.evictDistantChunks(chunkX, chunkZ);
+			}
 		}
 		else
 		{
 			// Utility.logger.trace("Loading world from X: " + (chunkX-loadChunkRange) + " - " + (chunkX+loadChunkRange) + ", Z: " + (chunkZ-loadChunkRange) + " - " + (chunkZ+loadChunkRange));
+			// Anything still on its way in was for our old position
+			mapChunksToLoad.clear();
+			chunkLoader.cancel();
 			for (int lx = chunkX - loadChunkRange; lx <= chunkX + loadChunkRange; lx++)
 			{
 				for (int lz = chunkZ - loadChunkRange; lz <= chunkZ + loadChunkRange; lz++)
 				{
 					level.clearChunk(lx, lz);
-					mapChunksToLoad.add(new Block(lx, 0, lz));
+					if (level.hasChunk(lx, lz))
+					{
+						mapChunksToLoad.add(new Block(lx, 0, lz));
+					}
 				}
 			}
+			this.evictDistantChunks(chunkX, chunkZ);
 			initial_load_queued = true;
 		}
 		cur_chunk.x = chunkX;
 		cur_chunk.z = chunkZ;
 	}
 
+	/**
+	 * Drops any chunks which are further away than we keep on the minimap.
+	 * Chunks used to fall out on their own when something else was loaded
+	 * into their slot; now that we can hold any number of them, we have to
+	 * let them go ourselves.
+	 */
+	private void evictDistantChunks(int chunkX, int chunkZ)
+	{
+		this.removeEvictedFromMap(level.removeChunksOutside(chunkX, chunkZ, minimap_trim_chunk_distance));
+	}
+
+	/**
+	 * Drops the chunks furthest from the camera until what's loaded fits in
+	 * our chunk memory budget.  If that leaves holes in what we're drawing,
+	 * the chunks bordering them get rebuilt so they don't look hollow.
+	 */
+	private void enforceChunkMemoryBudget()
+	{
+		if (level.getChunkMemoryUsage() <= this.chunkMemoryBudget)
+		{
+			return;
+		}
+		ArrayList<Chunk> removed = level.removeChunksOverBudget(cur_chunk.x, cur_chunk.z, this.chunkMemoryBudget);
+		Utility.logger.debug("Chunk memory over budget, dropped " + removed.size() + " chunks (" +
+				(level.getChunkMemoryUsage() / 1024 / 1024) + " MB still loaded)");
+		for (Chunk c : removed)
+		{
+			level.markChunkAsDirty(c.point.x + 1, c.point.z);
+			level.markChunkAsDirty(c.point.x - 1, c.point.z);
+			level.markChunkAsDirty(c.point.x, c.point.z + 1);
+			level.markChunkAsDirty(c.point.x, c.point.z - 1);
+		}
+		this.removeEvictedFromMap(removed);
+	}
+
+	/**
+	 * Takes chunks which have been dropped from the level off the minimap
+	 */
+	private void removeEvictedFromMap(ArrayList<Chunk> removed)
+	{
+		ArrayList<Chunk> mapped = new ArrayList<Chunk>();
+		for (Chunk c : removed)
+		{
+			if (c.isOnMinimap)
+			{
+				mapped.add(c);
+			}
+		}
+		this.removeChunklistFromMap(mapped);
+	}
+
 	/***
 	 * handles all input on all screens
 	 * 
@@ -1950,6 +2190,16 @@ public class XRay
 					invalidateSelectedChunks(true);
 					updateRenderDetails();
 				}
+				else if (key == key_mapping.get(KEY_ACTION.TOGGLE_GREEDY_MESHING))
+				{
+					// Toggle merging of solid faces, if the card can draw them
+					if (Utility.toggle.greedy_meshing || TiledQuadShader.isAvailable())
+					{
+						Utility.toggle.greedy_meshing = !Utility.toggle.greedy_meshing;
+						invalidateSelectedChunks(true);
+						updateRenderDetails();
+					}
+				}
 				else if (key == key_mapping.get(KEY_ACTION.TOGGLE_SILVERFISH))
 				{
 					// Toggle silverfish highlighting
@@ -2347,6 +2597,16 @@ public class XRay
 		minimap.minimapTexture.update();
 	}
 
+	/**
+	 * Squared horizontal distance from the given point to the middle of a chunk
+	 */
+	private static float distanceSq(Chunk k, float x, float z)
+	{
+		float dx = (k.point.x*16 + 7.5f) - x;
+		float dz = (k.point.z*16 + 7.5f) - z;
+		return (dx * dx) + (dz * dz);
+	}
+
 	/***
 	 * Main render loop
 	 *
@@ -2397,9 +2657,14 @@ public class XRay
 			highlight_chunk_range = Utility.HIGHLIGHT_RANGES[currentHighlightDistance];
 		}
 
-		// Get a list of chunks that we'll iterate over, on our various passes
+		// Get a list of chunks that we'll iterate over, on our various passes,
+		// leaving out any which the camera can't see
+		this.frustum.update(camera, FIELD_OF_VIEW, (float) displayMode.getWidth() / (float) displayMode.getHeight(),
+				NEAR_PLANE, this.getViewDistance());
+		boolean drawingSlimes = (world.isDimension(0) && renderSlimeChunks);
 		ArrayList<Chunk> chunkList = new ArrayList<Chunk>();
 		Chunk curChunk = null;
+		this.chunksCulled = 0;
 		for (int lx = currentLevel.x - visible_chunk_range; lx <= currentLevel.x + visible_chunk_range; lx++)
 		{
 			for (int lz = currentLevel.z - visible_chunk_range; lz <= currentLevel.z + visible_chunk_range; lz++)
@@ -2407,14 +2672,37 @@ public class XRay
 				Chunk k = level.getChunk(lx, lz);
 				if (k != null)
 				{
-					chunkList.add(k);
 					if (lx == currentLevel.x && lz == currentLevel.z)
 					{
 						curChunk = k;
 					}
+					if (k.isInFrustum(this.frustum, drawingSlimes && k.willSpawnSlimes))
+					{
+						chunkList.add(k);
+					}
+					else
+					{
+						this.chunksCulled++;
+					}
 				}
 			}
 		}
+		this.chunksDrawn = chunkList.size();
+
+		// Sort nearest first.  The opaque passes (solid and nonstandard blocks)
+		// walk this front to back, so the depth test can skip as much as it
+		// can of whatever's hidden behind nearer chunks; the blended passes
+		// (glass and slime boxes) walk it back to front instead, so that
+		// nearer translucent faces are blended over farther ones rather than
+		// hiding them.
+		final float camX = currentCameraPos.x;
+		final float camZ = currentCameraPos.z;
+		Collections.sort(chunkList, new Comparator<Chunk>() {
+			public int compare(Chunk a, Chunk b)
+			{
+				return Float.compare(distanceSq(a, camX, camZ), distanceSq(b, camX, camZ));
+			}
+		});
 
 		// Now do various passes
 		GL11.glEnable(GL11.GL_TEXTURE_2D);
@@ -2474,8 +2762,9 @@ public class XRay
 		// Now Glass, or anything else we consider glassy
 		for (i=0; i<this.minecraftTextures.size(); i++)
 		{
-			for (Chunk k : chunkList)
+			for (int j = chunkList.size() - 1; j >= 0; j--)
 			{
+				Chunk k = chunkList.get(j);
 				if (k.usesSheet(i))
 				{
 					if (last_tex != i)
@@ -2489,10 +2778,11 @@ public class XRay
 		}
 
 		// Slime chunks!
-		if (world.isDimension(0) && renderSlimeChunks)
+		if (drawingSlimes)
 		{
-			for (Chunk k : chunkList)
+			for (int j = chunkList.size() - 1; j >= 0; j--)
 			{
+				Chunk k = chunkList.get(j);
 				if (k.willSpawnSlimes)
 				{
 					slimeChunkTexture.bind();
@@ -2672,6 +2962,22 @@ public class XRay
 		g.setColor(Color.RED.darker());
 		g.drawString(Integer.toString((int) (heapSize / 1024 / 1024)) + " MB", 20, 22 + 16 + 32 + 16 + 25 + 20);
 
+		g.setColor(Color.BLACK);
+		g.drawString("GL Buffers:", labelX, 22 + 16 + 32 + 16 + 25 + 20 + 22);
+		g.setColor(Color.RED.darker());
+		g.drawString(String.format("%d (%d MB)", VertexBufferPool.getLiveCount(), MeshBuffer.getTotalBytes() / 1024 / 1024), valueX, 22 + 16 + 32 + 16 + 25 + 20 + 22);
+
+		ChunkCache cache = level.getChunkCache();
+		g.setColor(Color.BLACK);
+		g.drawString("Cache Hits:", labelX, 22 + 16 + 32 + 16 + 25 + 20 + 22 + 16);
+		g.setColor(Color.RED.darker());
+		g.drawString(String.format("%.0f%% (%d MB)", cache.getHitRate() * 100f, cache.getSize() / 1024 / 1024), valueX, 22 + 16 + 32 + 16 + 25 + 20 + 22 + 16);
+
+		g.setColor(Color.BLACK);
+		g.drawString("Chunks:", labelX, 22 + 16 + 32 + 16 + 25 + 20 + 22 + 32);
+		g.setColor(Color.RED.darker());
+		g.drawString(String.format("%d of %d", this.chunksDrawn, this.chunksDrawn + this.chunksCulled), valueX, 22 + 16 + 32 + 16 + 25 + 20 + 22 + 32);
+
 		levelInfoTexture.update();
 	}
 
@@ -2847,6 +3153,11 @@ public class XRay
 			line_count++;
 			infoboxTextLabel(g, x_off, line_count * line_h, "\"New\" Fences: ", Color.BLACK, DETAILFONT, "Off", Color.green.darker(), DETAILVALUEFONT);
 		}
+		if (!Utility.toggle.greedy_meshing)
+		{
+			line_count++;
+			infoboxTextLabel(g, x_off, line_count * line_h, "Greedy Meshing: ", Color.BLACK, DETAILFONT, "Off", Color.green.darker(), DETAILVALUEFONT);
+		}
 		if (!silverfishHighlight)
 		{
 			line_count++;
@@ -2857,6 +3168,18 @@ public class XRay
 			line_count++;
 			infoboxTextLabel(g, x_off, line_count * line_h, "Slime Chunks: ", Color.BLACK, DETAILFONT, "On", Color.green.darker(), DETAILVALUEFONT);
 		}
+		if (level != null)
+		{
+			this.shownChunkMemoryMB = (int) (level.getChunkMemoryUsage() / 1024 / 1024);
+			Color memColor = Color.GREEN.darker();
+			if (level.getChunkMemoryUsage() > this.chunkMemoryBudget * 9 / 10)
+			{
+				memColor = Color.RED.darker();
+			}
+			line_count++;
+			infoboxTextLabel(g, x_off, line_count * line_h, "Chunk Memory: ", Color.BLACK, DETAILFONT,
+					this.shownChunkMemoryMB + "/" + (this.chunkMemoryBudget / 1024 / 1024) + " MB", memColor, DETAILVALUEFONT);
+		}
 
 		// Add a note about our keyboard reference, since we have that now.
 		if (key_mapping.get(KEY_ACTION.KEY_HELP) != Keyboard.KEY_NONE)
@@ -3231,17 +3554,17 @@ public class XRay
 	}
 
 	/**
-	 * Clears out the area on the minimap belonging to this chunk
+	 * Clears out the area on the minimap belonging to this chunk.  The chunk
+	 * doesn't have to still be in the level.
 	 *
-	 * @param x
-	 * @param z
+	 * @param c
 	 */
-	public void removeMapChunkFromMap(int x, int z)
+	public void removeMapChunkFromMap(Chunk c)
 	{
 		// minimapGraphics.setColor(new Color(0f, 0f, 0f, 1f));
 		// minimapGraphics.setComposite(AlphaComposite.Src);
-		minimap.minimapGraphics.fillRect(minimap.getMinimapBaseX(x), minimap.getMinimapBaseY(z), 16, 16);
-		level.getChunk(x, z).isOnMinimap = false;
+		minimap.minimapGraphics.fillRect(minimap.getMinimapBaseX(c.point.x), minimap.getMinimapBaseY(c.point.z), 16, 16);
+		c.isOnMinimap = false;
 	}
 
 	/**
@@ -3256,7 +3579,7 @@ public class XRay
 		boolean minimap_changed = false;
 		for (Chunk tempchunk_trim : trimList)
 		{
-			removeMapChunkFromMap(tempchunk_trim.point.x, tempchunk_trim.point.z);
+			removeMapChunkFromMap(tempchunk_trim);
 			minimap_changed = true;
 		}
 		if (minimap_changed)
@@ -3273,18 +3596,27 @@ public class XRay
 	 */
 	public void drawChunkToMap(int x, int z)
 	{
-		short[][] minimap_data;
 		Chunk c = level.getChunk(x, z);
 		if (c == null)
 		{
 			return;
 		}
+		drawChunkToMap(c, c.getMinimapValues());
+	}
 
+	/***
+	 * draws a chunk to the (mini) map, using minimap values which have already
+	 * been computed (by our chunk loader, generally)
+	 *
+	 * @param c
+	 * @param minimap_data
+	 */
+	public void drawChunkToMap(Chunk c, short[][] minimap_data)
+	{
 		c.isOnMinimap = true;
-		minimap_data = c.getMinimapValues();
 
-		int base_x = minimap.getMinimapBaseX(x);
-		int base_y = minimap.getMinimapBaseY(z);
+		int base_x = minimap.getMinimapBaseX(c.point.x);
+		int base_y = minimap.getMinimapBaseY(c.point.z);
 
 		Color blockColor;
 		Graphics2D g = minimap.minimapGraphics;
@@ -3353,6 +3685,7 @@ public class XRay
 		xray_properties.setBooleanProperty("STATE_WATER", Utility.toggle.render_water);
 		xray_properties.setBooleanProperty("STATE_EXPLORED", Utility.toggle.highlight_explored);
 		xray_properties.setBooleanProperty("STATE_BETA19_FENCES", Utility.toggle.beta19_fences);
+		xray_properties.setBooleanProperty("STATE_GREEDY_MESHING", Utility.toggle.greedy_meshing);
 		xray_properties.setProperty("STATE_Utility.HIGHLIGHT_ORES", Utility.toggle.highlightOres.toString());
 		xray_properties.setBooleanProperty("STATE_CAMERA_LOCK", camera_lock);
 		xray_properties.setBooleanProperty("STATE_LIGHTING", lightMode);
@@ -3383,6 +3716,7 @@ public class XRay
 		Utility.toggle.render_water = xray_properties.getBooleanProperty("STATE_WATER", Utility.toggle.render_water);
 		Utility.toggle.highlight_explored = xray_properties.getBooleanProperty("STATE_EXPLORED", Utility.toggle.highlight_explored);
 		Utility.toggle.beta19_fences = xray_properties.getBooleanProperty("STATE_BETA19_FENCES", Utility.toggle.beta19_fences);
+		Utility.toggle.greedy_meshing = xray_properties.getBooleanProperty("STATE_GREEDY_MESHING", Utility.toggle.greedy_meshing);
 		String highlight = xray_properties.getProperty("STATE_Utility.HIGHLIGHT_ORES");
 		if (highlight == null || highlight.equals("1"))
 		{
@@ -27,14 +27,41 @@
 package com.apocalyptech.minecraft.xray.dtf;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class CompoundTag extends Tag {
-	public ArrayList<Tag> value;
+	/**
+	 * Compounds with more children than this get a hashed name index the
+	 * first time getTagWithName() is called; smaller ones are quicker to
+	 * just scan.
+	 */
+	public static final int INDEX_THRESHOLD = 8;
+
+	// Not public, unlike the other tags: LazyCompoundTag decodes this on
+	// first use, which it can only do if everyone goes through getValue().
+	protected ArrayList<Tag> value;
+	private volatile HashMap<String, Tag> index;
+	private int indexedSize;
 	public CompoundTag(String name, ArrayList<Tag> value) {
 		this.name = name;
 		this.value = value;
 	}
+	/**
+	 * Returns our children.  Compounds from DTFBufferReader are only decoded
+	 * when this is first called; everything else in here goes through it.
+	 */
+	public ArrayList<Tag> getValue() {
+		return value;
+	}
 	public Tag getTagWithName(String name) {
+		ArrayList<Tag> value = getValue();
+		if(value.size() > INDEX_THRESHOLD) {
+			HashMap<String, Tag> idx = index;
+			if(idx == null || indexedSize != value.size()) {
+				idx = buildIndex(value);
+			}
+			return idx.get(name);
+		}
 		for(Tag t : value) {
 			if(t.name != null && t.name.equals(name)) {
 				return t;
@@ -42,11 +69,27 @@ public class CompoundTag extends Tag {
 		}
 		return null;
 	}
+	/**
+	 * Builds our name index.  It's rebuilt if value changes size, since
+	 * callers may add to the list getValue() returns.  If a name shows up
+	 * more than once, the first one wins, same as the linear scan.
+	 */
+	private synchronized HashMap<String, Tag> buildIndex(ArrayList<Tag> value) {
+		HashMap<String, Tag> idx = new HashMap<String, Tag>(value.size() * 2);
+		for(Tag t : value) {
+			if(t.name != null && !idx.containsKey(t.name)) {
+				idx.put(t.name, t);
+			}
+		}
+		indexedSize = value.size();
+		index = idx;
+		return idx;
+	}
 	public String toString(int tab) {
 		String f = tab(tab);
 		f += "TAG_Compound(\"" + name + "\")\n";
 		f += tab(tab) + "(\n";
-		for(Tag t : value) {
+		for(Tag t : getValue()) {
 			f += t.toString(tab+1);
 		}
 		f += tab(tab) + "}\n";
@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.dtf;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Reads tag data straight out of a ByteBuffer holding the uncompressed
+ * bytes, rather than through a DataInputStream.  Arrays come out of the
+ * buffer in a single bulk copy (and "Blocks" is widened to shorts directly,
+ * without an intermediate byte array), and compounds are read lazily: a
+ * CompoundTag's children aren't decoded until something first asks for
+ * them.
+ *
+ * Because of that laziness, the buffer's contents have to stay put for as
+ * long as the tree returned by readTagData() is in use.  Buffers from
+ * ChunkDecompressor are reused for the next chunk read on the same thread,
+ * so anything holding on to a tree should read it from its own copy.
+ * visitTagData() has no such restriction, since it's done with the buffer
+ * by the time it returns.
+ */
+public class DTFBufferReader {
+
+	/**
+	 * Reads the root tag from the buffer's current position.  Compounds in
+	 * the returned tree are decoded on first access.
+	 * 
+	 * @param buffer
+	 * @return null if the buffer held no tag data
+	 * @throws IOException
+	 */
+	public static Tag readTagData(ByteBuffer buffer) throws IOException {
+		ByteBuffer buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		try {
+			if(!buf.hasRemaining()) {
+				return null;
+			}
+			byte type = buf.get();
+			if(type == 0) {
+				return null;
+			}
+			String name = readName(buf);
+			return readTag(type, name, buf);
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Truncated tag data");
+		} catch(IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Streams through the tag data in the buffer, reporting only the paths
+	 * selected by the projection to the visitor.  This is the ByteBuffer
+	 * equivalent of DTFReader.visitTagData().
+	 * 
+	 * @param buffer
+	 * @param projection The paths we want to hear about
+	 * @param visitor Receives the projected tags
+	 * @return false if the buffer held no tag data
+	 * @throws IOException
+	 */
+	public static boolean visitTagData(ByteBuffer buffer, DTFProjection projection, DTFVisitor visitor) throws IOException {
+		ByteBuffer buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		try {
+			if(!buf.hasRemaining()) {
+				return false;
+			}
+			byte type = buf.get();
+			if(type == 0) {
+				return false;
+			}
+			if(type != 10) {
+				throw new IOException("Root tag is type " + type + ", not a compound");
+			}
+			skipBytes(buf, buf.getShort() & 0xFFFF);
+			visitCompound(buf, projection.getRoot(), visitor);
+			return true;
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Truncated tag data");
+		} catch(IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the payload of a tag of the given type from the buffer's current
+	 * position.  Compounds are returned undecoded, after checking their extent.
+	 */
+	public static Tag readTag(byte tagType, String name, ByteBuffer buf) {
+		return readTag(tagType, name, buf, true);
+	}
+
+	/**
+	 * Reads the payload of a tag of the given type.  If lazy is false, every
+	 * compound in it is decoded right away, however deeply nested, so that
+	 * nothing in the result refers back to the buffer.
+	 */
+	private static Tag readTag(byte tagType, String name, ByteBuffer buf, boolean lazy) {
+		int len;
+		switch(tagType) {
+			case 0:
+				return new EndTag();
+			case 1:
+				return new ByteTag(name, buf.get());
+			case 2:
+				return new ShortTag(name, buf.getShort());
+			case 3:
+				return new IntTag(name, buf.getInt());
+			case 4:
+				return new LongTag(name, buf.getLong());
+			case 5:
+				return new FloatTag(name, buf.getFloat());
+			case 6:
+				return new DoubleTag(name, buf.getDouble());
+			case 7:
+				len = buf.getInt();
+				checkRemaining(buf, len);
+				// See DTFReader.readTag() for why "Blocks" ends up as shorts
+				if(name.equals("Blocks")) {
+					short[] data = new short[len];
+					if(buf.hasArray()) {
+						byte[] src = buf.array();
+						int start = buf.arrayOffset() + buf.position();
+						for(int i=0;i<len;i++) {
+							data[i] = (short)(src[start+i] & 0xFF);
+						}
+						buf.position(buf.position() + len);
+					} else {
+						for(int i=0;i<len;i++) {
+							data[i] = (short)(buf.get() & 0xFF);
+						}
+					}
+					return new ShortArrayTag(name, data);
+				} else {
+					byte[] data = new byte[len];
+					buf.get(data);
+					return new ByteArrayTag(name, data);
+				}
+			case 8:
+				return new StringTag(name, readString(buf));
+			case 9:
+				byte type = buf.get();
+				int listLength = buf.getInt();
+				ArrayList<Tag> list = new ArrayList<Tag>(listLength);
+				for(int i=0;i<listLength;i++) {
+					list.add(readTag(type, "", buf, lazy));
+				}
+				return new ListTag(name, list);
+			case 10:
+				if(!lazy) {
+					return new CompoundTag(name, readCompound(buf, false));
+				}
+				// Walking over it once up front checks that the whole compound
+				// is well-formed and tells us where it ends
+				int start = buf.position();
+				skipTag(tagType, buf);
+				ByteBuffer children = buf.duplicate();
+				children.limit(buf.position());
+				children.position(start);
+				return new LazyCompoundTag(name, children.slice());
+			case 11:
+				len = buf.getInt();
+				checkRemaining(buf, 4L * len);
+				int[] data = new int[len];
+				buf.asIntBuffer().get(data);
+				buf.position(buf.position() + 4 * len);
+				return new IntArrayTag(name, data);
+		}
+		throw new IllegalArgumentException("Unknown tag type " + tagType);
+	}
+
+	/**
+	 * Decodes the children of a compound, starting at the buffer's position.
+	 * Compounds among them are left undecoded if lazy is true.
+	 */
+	static ArrayList<Tag> readCompound(ByteBuffer buf, boolean lazy) {
+		ArrayList<Tag> compound = new ArrayList<Tag>();
+		byte type;
+		while((type = buf.get()) != 0) {
+			String tagName = readName(buf);
+			compound.add(readTag(type, tagName, buf, lazy));
+		}
+		return compound;
+	}
+
+	/**
+	 * Skips over the payload of a tag of the given type.
+	 */
+	public static void skipTag(byte tagType, ByteBuffer buf) {
+		byte type;
+		switch(tagType) {
+			case 0:
+				return;
+			case 1:
+			case 2:
+			case 3:
+			case 4:
+			case 5:
+			case 6:
+				skipBytes(buf, payloadSize(tagType));
+				return;
+			case 7:
+				skipBytes(buf, buf.getInt());
+				return;
+			case 8:
+				skipBytes(buf, buf.getShort() & 0xFFFF);
+				return;
+			case 9:
+				type = buf.get();
+				skipListElements(type, buf.getInt(), buf);
+				return;
+			case 10:
+				while((type = buf.get()) != 0) {
+					skipBytes(buf, buf.getShort() & 0xFFFF);
+					skipTag(type, buf);
+				}
+				return;
+			case 11:
+				skipBytes(buf, 4L * buf.getInt());
+				return;
+			case 12:
+				// TAG_Long_Array, from much later versions of the format
+				skipBytes(buf, 8L * buf.getInt());
+				return;
+		}
+		throw new IllegalArgumentException("Unknown tag type " + tagType);
+	}
+
+	private static void skipListElements(byte type, int listLength, ByteBuffer buf) {
+		int size = payloadSize(type);
+		if(size > 0) {
+			skipBytes(buf, (long) size * listLength);
+		} else {
+			for(int i=0;i<listLength;i++) {
+				skipTag(type, buf);
+			}
+		}
+	}
+
+	/**
+	 * Size of the payload for fixed-size tag types, or 0 for the rest.
+	 */
+	private static int payloadSize(byte tagType) {
+		switch(tagType) {
+			case 1:
+				return 1;
+			case 2:
+				return 2;
+			case 3:
+			case 5:
+				return 4;
+			case 4:
+			case 6:
+				return 8;
+		}
+		return 0;
+	}
+
+	private static void checkRemaining(ByteBuffer buf, long count) {
+		if(count < 0 || count > buf.remaining()) {
+			throw new BufferUnderflowException();
+		}
+	}
+
+	private static void skipBytes(ByteBuffer buf, long count) {
+		checkRemaining(buf, count);
+		buf.position(buf.position() + (int) count);
+	}
+
+	/**
+	 * Reads a length-prefixed tag string.  Names and values in chunk data are
+	 * plain ASCII in practice, so we decode as UTF-8 rather than Java's
+	 * modified UTF-8.
+	 */
+	private static String readString(ByteBuffer buf) {
+		int len = buf.getShort() & 0xFFFF;
+		checkRemaining(buf, len);
+		try {
+			if(buf.hasArray()) {
+				String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, "UTF-8");
+				buf.position(buf.position() + len);
+				return s;
+			} else {
+				byte[] data = new byte[len];
+				buf.get(data);
+				return new String(data, "UTF-8");
+			}
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a tag name, sharing the String with every other tag of the same
+	 * name via TagNames.
+	 */
+	private static String readName(ByteBuffer buf) {
+		int len = buf.getShort() & 0xFFFF;
+		checkRemaining(buf, len);
+		String name = TagNames.intern(buf, buf.position(), len);
+		if(name == null) {
+			buf.position(buf.position() - 2);
+			return TagNames.intern(readString(buf));
+		}
+		buf.position(buf.position() + len);
+		return name;
+	}
+
+	private static void visitCompound(ByteBuffer buf, DTFProjection.Node node, DTFVisitor visitor) throws IOException {
+		byte type;
+		while((type = buf.get()) != 0) {
+			int len = buf.getShort() & 0xFFFF;
+			checkRemaining(buf, len);
+			DTFProjection.Node child = node.match(buf, buf.position(), len);
+			if(child == null) {
+				buf.position(buf.position() + len);
+				skipTag(type, buf);
+			} else if(child.wildcard) {
+				buf.position(buf.position() - 2);
+				visitNode(buf, child, type, readName(buf), visitor);
+			} else {
+				buf.position(buf.position() + len);
+				visitNode(buf, child, type, child.name, visitor);
+			}
+		}
+	}
+
+	private static void visitList(ByteBuffer buf, DTFProjection.Node node, DTFVisitor visitor) throws IOException {
+		byte type = buf.get();
+		int listLength = buf.getInt();
+		DTFProjection.Node element = node.any;
+		visitor.startList(node.path, listLength);
+		if(element == null) {
+			// Only a wildcard can step into list elements
+			skipListElements(type, listLength, buf);
+		} else {
+			for(int i=0;i<listLength;i++) {
+				visitNode(buf, element, type, "", visitor);
+			}
+		}
+		visitor.endList(node.path);
+	}
+
+	private static void visitNode(ByteBuffer buf, DTFProjection.Node node, byte type, String name, DTFVisitor visitor) throws IOException {
+		if(node.terminal) {
+			// The visitor may keep this around, and our buffer won't stay
+			// valid, so nothing in it can be left lazy
+			Tag tag = readTag(type, name, buf, false);
+			visitor.visitTag(node.path, tag);
+		} else if(type == 10) {
+			visitor.startCompound(node.path);
+			visitCompound(buf, node, visitor);
+			visitor.endCompound(node.path);
+		} else if(type == 9) {
+			visitList(buf, node, visitor);
+		} else {
+			// The projection wants to go deeper, but this is a plain value
+			skipTag(type, buf);
+		}
+	}
+}
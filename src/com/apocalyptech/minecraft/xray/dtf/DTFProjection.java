@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.dtf;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A set of tag paths which a DTFVisitor wants to see, such as
+ * "Level/xPos" or "Level/Sections/*&#47;Blocks".  Path segments are tag names
+ * separated by slashes, starting below the (unnamed) root compound.  A "*"
+ * segment matches any tag name in a compound, and is also the only way to
+ * step into the elements of a list.
+ *
+ * When a path ends at a compound or list, that whole tag is read in.  Any
+ * tag which isn't on the way to one of the paths is skipped without being
+ * decoded.  Projections are immutable once built, so they can be shared
+ * between threads and kept around as constants.
+ */
+public class DTFProjection {
+	public static final String WILDCARD = "*";
+
+	private final String[] paths;
+	private final Node root;
+
+	public DTFProjection(String... paths) {
+		this.paths = paths.clone();
+		this.root = new Node("", "");
+		for (String path : this.paths) {
+			this.add(path);
+		}
+	}
+
+	/**
+	 * Returns a new projection containing our paths plus the given ones.
+	 */
+	public DTFProjection with(String... morePaths) {
+		String[] all = Arrays.copyOf(this.paths, this.paths.length + morePaths.length);
+		System.arraycopy(morePaths, 0, all, this.paths.length, morePaths.length);
+		return new DTFProjection(all);
+	}
+
+	public String[] getPaths() {
+		return this.paths.clone();
+	}
+
+	Node getRoot() {
+		return this.root;
+	}
+
+	private void add(String path) {
+		Node node = this.root;
+		int start = 0;
+		while (start <= path.length()) {
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = path.length();
+			}
+			String segment = path.substring(start, end);
+			if (segment.length() == 0) {
+				throw new IllegalArgumentException("Empty segment in tag path \"" + path + "\"");
+			}
+			Node child = node.getChild(segment);
+			if (child == null) {
+				child = new Node(segment, path.substring(0, end));
+				node.addChild(child);
+			}
+			node = child;
+			start = end + 1;
+		}
+		node.terminal = true;
+	}
+
+	/**
+	 * One segment of the projected paths.
+	 */
+	static class Node {
+		final String name;
+		final String path;
+		final boolean wildcard;
+		final byte[] nameBytes;
+		boolean terminal;
+		Node[] named = new Node[0];
+		Node any;
+
+		Node(String name, String path) {
+			this.name = name;
+			this.path = path;
+			this.wildcard = name.equals(WILDCARD);
+			try {
+				this.nameBytes = name.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		Node getChild(String segment) {
+			if (segment.equals(WILDCARD)) {
+				return this.any;
+			}
+			for (Node n : this.named) {
+				if (n.name.equals(segment)) {
+					return n;
+				}
+			}
+			return null;
+		}
+
+		void addChild(Node child) {
+			if (child.wildcard) {
+				this.any = child;
+			} else {
+				this.named = Arrays.copyOf(this.named, this.named.length + 1);
+				this.named[this.named.length - 1] = child;
+			}
+		}
+
+		/**
+		 * Finds the child matching the raw (modified UTF-8) tag name stored in
+		 * len bytes at the given position of buf, preferring an exact name
+		 * over the wildcard.  The buffer's position is left alone.
+		 */
+		Node match(ByteBuffer buf, int pos, int len) {
+			for (Node n : this.named) {
+				if (n.nameBytes.length == len) {
+					int i = 0;
+					while (i < len && n.nameBytes[i] == buf.get(pos + i)) {
+						i++;
+					}
+					if (i == len) {
+						return n;
+					}
+				}
+			}
+			return this.any;
+		}
+	}
+}
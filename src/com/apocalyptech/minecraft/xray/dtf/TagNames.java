@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.dtf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A shared intern table for tag names.  Every chunk repeats the same few
+ * dozen names ("Level", "Sections", "Blocks", ...) over and over, and without
+ * this each of them would be a separate String for every tag we read.
+ *
+ * Names can be looked up straight from their raw bytes, so a name we've
+ * seen before doesn't allocate anything.  Only plain ASCII names are
+ * interned (which is all of Minecraft's own), and the table stops growing
+ * at MAX_NAMES so that odd data can't fill it up with junk.
+ *
+ * Lookups don't lock: the table only ever gains entries, Strings are safe
+ * to publish through a race, and a reader which misses a brand new entry
+ * just falls through to the synchronized insert, which checks again.
+ */
+public class TagNames {
+	private static final int MAX_NAMES = 4096;
+
+	private static volatile String[] table = new String[256];
+	private static int count = 0;
+
+	/**
+	 * Returns the shared copy of the given name.
+	 */
+	public static String intern(String name) {
+		int len = name.length();
+		int hash = 0;
+		for(int i=0;i<len;i++) {
+			char c = name.charAt(i);
+			if(c >= 0x80) {
+				return name;
+			}
+			hash = 31 * hash + c;
+		}
+		String[] t = table;
+		int mask = t.length - 1;
+		for(int slot = hash & mask; t[slot] != null; slot = (slot + 1) & mask) {
+			if(t[slot].equals(name)) {
+				return t[slot];
+			}
+		}
+		return insert(name, hash);
+	}
+
+	/**
+	 * Returns the shared copy of the name stored in len bytes at the given
+	 * position of buf, only creating a String if we haven't seen it before.
+	 * Returns null if the name isn't plain ASCII, in which case the caller
+	 * should decode it itself.  The buffer's position is left alone.
+	 */
+	public static String intern(ByteBuffer buf, int pos, int len) {
+		int hash = 0;
+		for(int i=0;i<len;i++) {
+			byte b = buf.get(pos + i);
+			if(b < 0) {
+				return null;
+			}
+			hash = 31 * hash + b;
+		}
+		String[] t = table;
+		int mask = t.length - 1;
+		for(int slot = hash & mask; t[slot] != null; slot = (slot + 1) & mask) {
+			if(matches(t[slot], buf, pos, len)) {
+				return t[slot];
+			}
+		}
+		char[] chars = new char[len];
+		for(int i=0;i<len;i++) {
+			chars[i] = (char) buf.get(pos + i);
+		}
+		return insert(new String(chars), hash);
+	}
+
+	/**
+	 * Number of distinct names we're holding on to.
+	 */
+	public static synchronized int size() {
+		return count;
+	}
+
+	private static boolean matches(String name, ByteBuffer buf, int pos, int len) {
+		if(name.length() != len) {
+			return false;
+		}
+		for(int i=0;i<len;i++) {
+			if(name.charAt(i) != buf.get(pos + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static synchronized String insert(String name, int hash) {
+		String[] t = table;
+		int mask = t.length - 1;
+		int slot;
+		for(slot = hash & mask; t[slot] != null; slot = (slot + 1) & mask) {
+			if(t[slot].equals(name)) {
+				return t[slot];
+			}
+		}
+		if(count >= MAX_NAMES) {
+			return name;
+		}
+		if((count + 1) * 2 > t.length) {
+			// Keep the load under half, so probe runs stay short
+			String[] bigger = new String[t.length * 2];
+			int bigMask = bigger.length - 1;
+			for(String s : t) {
+				if(s != null) {
+					int h = s.hashCode() & bigMask;
+					while(bigger[h] != null) {
+						h = (h + 1) & bigMask;
+					}
+					bigger[h] = s;
+				}
+			}
+			int h = hash & bigMask;
+			while(bigger[h] != null) {
+				h = (h + 1) & bigMask;
+			}
+			bigger[h] = name;
+			count++;
+			table = bigger;
+			return name;
+		}
+		t[slot] = name;
+		count++;
+		return name;
+	}
+}
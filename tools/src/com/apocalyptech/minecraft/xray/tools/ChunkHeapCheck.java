@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import com.apocalyptech.minecraft.xray.Chunk;
+import com.apocalyptech.minecraft.xray.MinecraftLevel;
+
+/**
+ * Regression check for how much heap a loaded chunk holds on to.  We decode
+ * a square of chunks from a synthetic world into a MinecraftLevel, headless,
+ * and compare the JVM's live-object class histogram (the same one a heap
+ * dump is summarized into, taken after a full GC) from before and after.
+ * The difference, divided by the number of chunks, is what each chunk
+ * retains; if it's over the limit we exit with 1.  The classes which grew
+ * the most are listed, so a regression points at its culprit.
+ *
+ * Usage: ChunkHeapCheck [-size N] [-max KiB] [-dump file.hprof]
+ *
+ * -size decodes an NxN square of chunks (default 16, at most 32), -max is
+ * the limit in KiB per chunk (default 16), and -dump also writes a heap dump
+ * of the loaded level for poking at in a heap analyzer.
+ */
+public class ChunkHeapCheck
+{
+	private static final int TOP_CLASSES = 8;
+
+	private ChunkHeapCheck()
+	{
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int size = 16;
+		double maxKiB = 16;
+		File dumpFile = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-size"))
+			{
+				size = Math.max(1, Math.min(32, Integer.parseInt(args[++i])));
+			}
+			else if (args[i].equals("-max"))
+			{
+				maxKiB = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("-dump"))
+			{
+				dumpFile = new File(args[++i]);
+			}
+			else
+			{
+				System.err.println("Usage: ChunkHeapCheck [-size N] [-max KiB] [-dump file.hprof]");
+				System.exit(2);
+			}
+		}
+
+		File tempDir = ToolSupport.createTempDir("xray-chunk-heap");
+		boolean ok = true;
+		try
+		{
+			SyntheticWorld.create(tempDir, 1);
+			MinecraftLevel level = ToolSupport.openLevel(tempDir);
+
+			// Decode and throw away one chunk first, so that one-off costs
+			// (decompression buffers, lazily-built tables) land in the baseline.
+			if (level.decodeChunk(31, 31) == null)
+			{
+				throw new IllegalStateException("Couldn't decode the warm-up chunk");
+			}
+
+			Map<String, Long> before = classHistogram();
+			int failures = 0;
+			for (int x = 0; x < size; x++)
+			{
+				for (int z = 0; z < size; z++)
+				{
+					Chunk c = level.decodeChunk(x, z);
+					if (c == null)
+					{
+						failures++;
+						continue;
+					}
+					level.installChunk(c);
+				}
+			}
+			Map<String, Long> after = classHistogram();
+			if (dumpFile != null)
+			{
+				HotSpotDiagnosticMXBean diag = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+				diag.dumpHeap(dumpFile.getPath(), true);
+				System.out.println("Wrote heap dump to " + dumpFile);
+			}
+
+			int chunks = (size * size) - failures;
+			long retained = total(after) - total(before);
+			double perChunk = retained / 1024.0 / Math.max(1, chunks);
+			System.out.println(String.format("%d chunks retain %.1f KiB, %.2f KiB per chunk (limit %.2f)",
+					chunks, retained / 1024.0, perChunk, maxKiB));
+			printTopGrowth(before, after, chunks);
+
+			if (failures > 0)
+			{
+				System.out.println("FAILED: " + failures + " chunk(s) didn't decode");
+				ok = false;
+			}
+			if (perChunk > maxKiB)
+			{
+				System.out.println("FAILED: chunks retain more than " + maxKiB + " KiB each");
+				ok = false;
+			}
+
+			// Keep the level (and so its chunks) reachable until we're done measuring
+			if (level.getChunk(0, 0) == null && failures == 0)
+			{
+				System.out.println("FAILED: chunk (0, 0) wasn't installed");
+				ok = false;
+			}
+		}
+		finally
+		{
+			ToolSupport.deleteTree(tempDir);
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * Runs the VM's GC.class_histogram diagnostic command, which does a full
+	 * GC and then counts live objects, and returns bytes used per class.
+	 */
+	private static Map<String, Long> classHistogram() throws Exception
+	{
+		String output = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+				new ObjectName("com.sun.management:type=DiagnosticCommand"),
+				"gcClassHistogram",
+				new Object[] { new String[0] },
+				new String[] { String[].class.getName() });
+		HashMap<String, Long> bytes = new HashMap<String, Long>();
+		for (String line : output.split("\n"))
+		{
+			// "   1:        12345        678900  [B (java.base@17)"
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length >= 4 && fields[0].endsWith(":"))
+			{
+				bytes.put(fields[3], Long.parseLong(fields[2]));
+			}
+		}
+		return bytes;
+	}
+
+	private static long total(Map<String, Long> histogram)
+	{
+		long total = 0;
+		for (long bytes : histogram.values())
+		{
+			total += bytes;
+		}
+		return total;
+	}
+
+	private static void printTopGrowth(Map<String, Long> before, final Map<String, Long> after, int chunks)
+	{
+		final HashMap<String, Long> growth = new HashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : after.entrySet())
+		{
+			Long old = before.get(entry.getKey());
+			growth.put(entry.getKey(), entry.getValue() - (old == null ? 0 : old));
+		}
+		ArrayList<String> classes = new ArrayList<String>(growth.keySet());
+		Collections.sort(classes, new Comparator<String>() {
+			public int compare(String a, String b)
+			{
+				return Long.compare(growth.get(b), growth.get(a));
+			}
+		});
+		for (int i = 0; i < Math.min(TOP_CLASSES, classes.size()); i++)
+		{
+			long bytes = growth.get(classes.get(i));
+			if (bytes <= 0)
+			{
+				break;
+			}
+			System.out.println(String.format("  %9.1f KiB  %7.0f B/chunk  %s",
+					bytes / 1024.0, bytes / (double) Math.max(1, chunks), classes.get(i)));
+		}
+	}
+}
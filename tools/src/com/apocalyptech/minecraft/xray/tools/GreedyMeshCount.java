@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.apocalyptech.minecraft.xray.Chunk;
+import com.apocalyptech.minecraft.xray.GreedyMesher;
+import com.apocalyptech.minecraft.xray.MeshBuckets;
+import com.apocalyptech.minecraft.xray.MeshBuilder;
+import com.apocalyptech.minecraft.xray.MinecraftLevel;
+import com.apocalyptech.minecraft.xray.Utility;
+import com.apocalyptech.minecraft.xray.enums.RENDER_PASS;
+
+/**
+ * Counts how many quads greedy meshing saves.  We mesh the SOLIDS pass of
+ * a 17x17 square of chunks, with their neighbours loaded, once with greedy
+ * meshing off and once with it on, and report quads and vertex data per
+ * chunk along with the time taken.  Two worlds are done: SyntheticWorld's
+ * usual hills and caves, and a flat one of stone, dirt and grass with
+ * scattered ore, some of it at the surface.
+ *
+ * As a sanity check, the merged quads' areas have to add up to the number
+ * of faces the mesher was given, and that has to be the number of quads
+ * we get without merging; otherwise we exit with 1.
+ *
+ * Usage: GreedyMeshCount [-rounds N] [world directory]
+ *
+ * Given a world directory, that world is counted instead of ours.  -rounds
+ * sets how many times each count is repeated to warm up (default 3); only
+ * the last round is reported.
+ */
+public class GreedyMeshCount
+{
+	private static final int SIZE = 17;
+
+	private GreedyMeshCount()
+	{
+	}
+
+	/**
+	 * Bedrock, then stone up to 59, three layers of dirt and a layer of
+	 * grass at 63.  About 1.5% of the stone and 2.5% of the grass is ore
+	 * instead.
+	 */
+	private static class Flat implements SyntheticWorld.Blocks
+	{
+		private static final int[] ORES = { 14, 15, 16, 21, 56, 73 };
+		private final Random random = new Random(42);
+
+		public int getBlock(int x, int y, int z)
+		{
+			if (y == 0)
+			{
+				return 7;
+			}
+			else if (y < 60)
+			{
+				return (this.random.nextInt(200) < 3) ? ORES[this.random.nextInt(ORES.length)] : 1;
+			}
+			else if (y < 63)
+			{
+				return 3;
+			}
+			else if (y == 63)
+			{
+				return (this.random.nextInt(200) < 5) ? ORES[this.random.nextInt(ORES.length)] : 2;
+			}
+			return 0;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int rounds = 3;
+		File worldDir = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-rounds"))
+			{
+				rounds = Math.max(1, Integer.parseInt(args[++i]));
+			}
+			else if (args[i].startsWith("-") || worldDir != null)
+			{
+				System.err.println("Usage: GreedyMeshCount [-rounds N] [world directory]");
+				System.exit(2);
+			}
+			else
+			{
+				worldDir = new File(args[i]);
+			}
+		}
+
+		boolean ok = true;
+		boolean greedy = Utility.toggle.greedy_meshing;
+		try
+		{
+			if (worldDir != null)
+			{
+				ok &= count(worldDir.getName(), worldDir, rounds);
+			}
+			else
+			{
+				File tempDir = ToolSupport.createTempDir("xray-greedy-count");
+				try
+				{
+					SyntheticWorld.create(tempDir, 1);
+					ok &= count("Hills", tempDir, rounds);
+					ToolSupport.deleteTree(tempDir);
+					SyntheticWorld.create(tempDir, 4, new Flat());
+					ok &= count("Flat", tempDir, rounds);
+				}
+				finally
+				{
+					ToolSupport.deleteTree(tempDir);
+				}
+			}
+		}
+		finally
+		{
+			Utility.toggle.greedy_meshing = greedy;
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * Counts and reports one world
+	 *
+	 * @return Whether the counts add up
+	 */
+	private static boolean count(String name, File dir, int rounds)
+	{
+		MinecraftLevel level = ToolSupport.openLevel(dir);
+		for (int x = 0; x < SIZE + 2; x++)
+		{
+			for (int z = 0; z < SIZE + 2; z++)
+			{
+				Chunk c = level.decodeChunk(x, z);
+				if (c != null)
+				{
+					level.installChunk(c);
+				}
+			}
+		}
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for (int x = 1; x <= SIZE; x++)
+		{
+			for (int z = 1; z <= SIZE; z++)
+			{
+				Chunk c = level.getChunk(x, z);
+				if (c != null)
+				{
+					chunks.add(c);
+				}
+			}
+		}
+		if (chunks.isEmpty())
+		{
+			System.out.println(name + ": FAILED: no chunks to mesh");
+			return false;
+		}
+
+		MeshBuckets buckets = new MeshBuckets();
+		GreedyMesher greedyMesher = level.getGreedyMesher();
+		long plainQuads = 0;
+		long greedyQuads = 0;
+		long plainNanos = 0;
+		long greedyNanos = 0;
+		double area = 0;
+		for (int round = 0; round < rounds; round++)
+		{
+			Utility.toggle.greedy_meshing = false;
+			plainQuads = 0;
+			long start = System.nanoTime();
+			for (Chunk c : chunks)
+			{
+				c.buildMeshes(buckets);
+				plainQuads += buckets.get(0, RENDER_PASS.SOLIDS).getQuadCount();
+			}
+			plainNanos = System.nanoTime() - start;
+
+			Utility.toggle.greedy_meshing = true;
+			greedyMesher.resetCounts();
+			greedyQuads = 0;
+			area = 0;
+			start = System.nanoTime();
+			for (Chunk c : chunks)
+			{
+				c.buildMeshes(buckets);
+				MeshBuilder solids = buckets.get(0, RENDER_PASS.SOLIDS);
+				greedyQuads += solids.getQuadCount();
+				area += area(solids);
+			}
+			greedyNanos = System.nanoTime() - start;
+		}
+
+		int n = chunks.size();
+		int bytesPerQuad = 4 * MeshBuilder.VERTEX_BYTES;
+		System.out.println(String.format("%s, %d chunks:", name, n));
+		System.out.println(String.format("  plain:  %6.1f quads/chunk, %5.1f KB/chunk, %.2f ms/chunk",
+				plainQuads / (double) n, plainQuads * bytesPerQuad / 1024.0 / n, plainNanos / 1e6 / n));
+		System.out.println(String.format("  greedy: %6.1f quads/chunk, %5.1f KB/chunk, %.2f ms/chunk",
+				greedyQuads / (double) n, greedyQuads * bytesPerQuad / 1024.0 / n, greedyNanos / 1e6 / n));
+
+		long faces = greedyMesher.getFaceCount();
+		if (faces != plainQuads || Math.round(area) != faces)
+		{
+			System.out.println(String.format("  FAILED: %d plain quads, %d faces merged, %.0f merged area",
+					plainQuads, faces, area));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The total area of a builder's quads, in block faces
+	 */
+	private static double area(MeshBuilder builder)
+	{
+		int[] data = builder.getData();
+		int stride = MeshBuilder.VERTEX_INTS;
+		double area = 0;
+		for (int q = 0; q < builder.getQuadCount(); q++)
+		{
+			int v0 = q * 4 * stride;
+			area += edge(data, v0, v0 + stride) * edge(data, v0, v0 + (3 * stride));
+		}
+		return area;
+	}
+
+	private static double edge(int[] data, int from, int to)
+	{
+		double length = 0;
+		for (int i = 0; i < 3; i++)
+		{
+			length += Math.abs(Float.intBitsToFloat(data[to + i]) - Float.intBitsToFloat(data[from + i]));
+		}
+		return length;
+	}
+}
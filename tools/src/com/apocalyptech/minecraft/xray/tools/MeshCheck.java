@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.File;
+
+import com.apocalyptech.minecraft.xray.Chunk;
+import com.apocalyptech.minecraft.xray.GreedyMesher;
+import com.apocalyptech.minecraft.xray.MeshBuckets;
+import com.apocalyptech.minecraft.xray.MeshBuilder;
+import com.apocalyptech.minecraft.xray.MinecraftLevel;
+import com.apocalyptech.minecraft.xray.Utility;
+import com.apocalyptech.minecraft.xray.enums.RENDER_PASS;
+
+/**
+ * Regression check for chunk meshing.  We write a chunk with a few known
+ * shapes in it, mesh it headless through Chunk.buildMeshes(), and check
+ * that we get exactly the quads those shapes should give, with greedy
+ * meshing off and on.  Any mismatch exits with 1.
+ *
+ * The shapes, all in chunk (1, 1) and clear of its edges, are:
+ *   - a 4x3x2 box of stone: 52 faces, or 6 quads merged
+ *   - a lone diamond ore: 6 faces, which are also highlighted
+ *   - stone on top of dirt: 10 faces, which can't merge with each other
+ * Every block here is an ordinary cube, so all of this goes through
+ * Chunk.renderBlockTypeDefault().
+ *
+ * Usage: MeshCheck
+ */
+public class MeshCheck
+{
+	private static final int STONE = 1;
+	private static final int DIRT = 3;
+	private static final int DIAMOND_ORE = 56;
+
+	private static final int SOLID_FACES = 52 + 6 + 10;
+	private static final int GREEDY_QUADS = 6 + 6 + 10;
+	private static final int SELECTED_QUADS = 6;
+
+	private MeshCheck()
+	{
+	}
+
+	/**
+	 * Our shapes, and air everywhere else
+	 */
+	private static class Shapes implements SyntheticWorld.Blocks
+	{
+		public int getBlock(int x, int y, int z)
+		{
+			if (x >= 18 && x <= 21 && y >= 40 && y <= 42 && z >= 18 && z <= 19)
+			{
+				return STONE;
+			}
+			if (x == 26 && y == 40 && z == 26)
+			{
+				return DIAMOND_ORE;
+			}
+			if (x == 29 && z == 29)
+			{
+				if (y == 40)
+				{
+					return DIRT;
+				}
+				if (y == 41)
+				{
+					return STONE;
+				}
+			}
+			return 0;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length > 0)
+		{
+			System.err.println("Usage: MeshCheck");
+			System.exit(2);
+		}
+
+		File tempDir = ToolSupport.createTempDir("xray-mesh-check");
+		boolean ok = true;
+		try
+		{
+			SyntheticWorld.create(tempDir, 3, new Shapes());
+			MinecraftLevel level = ToolSupport.openLevel(tempDir);
+			Chunk c = level.decodeChunk(1, 1);
+			if (c == null)
+			{
+				throw new IllegalStateException("Couldn't decode chunk (1, 1)");
+			}
+			level.installChunk(c);
+
+			MeshBuckets buckets = new MeshBuckets();
+			GreedyMesher greedyMesher = level.getGreedyMesher();
+			boolean greedy = Utility.toggle.greedy_meshing;
+			try
+			{
+				Utility.toggle.greedy_meshing = false;
+				c.buildMeshes(buckets);
+				ok &= check("Solid quads, one per face", buckets.get(0, RENDER_PASS.SOLIDS).getQuadCount(), SOLID_FACES);
+				ok &= check("Nonstandard quads", buckets.get(0, RENDER_PASS.NONSTANDARD).getQuadCount(), 0);
+
+				Utility.toggle.greedy_meshing = true;
+				greedyMesher.resetCounts();
+				c.buildMeshes(buckets);
+				MeshBuilder solids = buckets.get(0, RENDER_PASS.SOLIDS);
+				ok &= check("Faces given to the greedy mesher", greedyMesher.getFaceCount(), SOLID_FACES);
+				ok &= check("Solid quads, greedy", solids.getQuadCount(), GREEDY_QUADS);
+				ok &= check("Area of the greedy quads", Math.round(area(solids)), SOLID_FACES);
+
+				c.buildSelectedMeshes(buckets, new boolean[] { true, false });
+				ok &= check("Selected quads", buckets.get(0, RENDER_PASS.SELECTED).getQuadCount(), SELECTED_QUADS);
+			}
+			finally
+			{
+				Utility.toggle.greedy_meshing = greedy;
+			}
+		}
+		finally
+		{
+			ToolSupport.deleteTree(tempDir);
+		}
+		System.out.println(ok ? "OK" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static boolean check(String what, long actual, long expected)
+	{
+		System.out.println(String.format("%-36s %4d (expected %d)", what + ":", actual, expected));
+		return actual == expected;
+	}
+
+	/**
+	 * The total area of a builder's quads, in block faces
+	 */
+	private static double area(MeshBuilder builder)
+	{
+		int[] data = builder.getData();
+		int stride = MeshBuilder.VERTEX_INTS;
+		double area = 0;
+		for (int q = 0; q < builder.getQuadCount(); q++)
+		{
+			int v0 = q * 4 * stride;
+			area += edge(data, v0, v0 + stride) * edge(data, v0, v0 + (3 * stride));
+		}
+		return area;
+	}
+
+	private static double edge(int[] data, int from, int to)
+	{
+		double length = 0;
+		for (int i = 0; i < 3; i++)
+		{
+			length += Math.abs(Float.intBitsToFloat(data[to + i]) - Float.intBitsToFloat(data[from + i]));
+		}
+		return length;
+	}
+}
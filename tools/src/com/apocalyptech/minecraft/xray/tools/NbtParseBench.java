@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import com.apocalyptech.minecraft.xray.RegionFile;
+import com.apocalyptech.minecraft.xray.dtf.ByteTag;
+import com.apocalyptech.minecraft.xray.dtf.CompoundTag;
+import com.apocalyptech.minecraft.xray.dtf.DTFBufferReader;
+import com.apocalyptech.minecraft.xray.dtf.DTFProjection;
+import com.apocalyptech.minecraft.xray.dtf.DTFReader;
+import com.apocalyptech.minecraft.xray.dtf.DTFVisitorAdapter;
+import com.apocalyptech.minecraft.xray.dtf.IntTag;
+import com.apocalyptech.minecraft.xray.dtf.ListTag;
+import com.apocalyptech.minecraft.xray.dtf.ShortArrayTag;
+import com.apocalyptech.minecraft.xray.dtf.Tag;
+
+/**
+ * Times the three ways we have of parsing chunk NBT, over every chunk of a
+ * region file which has been inflated up front, so that only parsing is
+ * measured:
+ *
+ *   stream tree   DTFReader.readTagData() over a DataInputStream
+ *   buffer tree   DTFBufferReader.readTagData(), with its lazy compounds
+ *   buffer visit  DTFBufferReader.visitTagData() with ChunkAnvil's projection
+ *
+ * Each round reports ms and MiB allocated on this thread for each reader.
+ * Every reader has to come up with the same checksum over xPos, each
+ * section's Y, and a block out of each section; otherwise we exit with 1.
+ *
+ * This is a plain timing loop rather than a JMH benchmark, so compare the
+ * later rounds, once the JIT has settled.
+ *
+ * Usage: NbtParseBench [-rounds N] [region file]
+ *
+ * Without a region file, one of SyntheticWorld's is generated.  -rounds
+ * defaults to 20.
+ */
+public class NbtParseBench
+{
+	// The same paths ChunkAnvil asks for
+	private static final DTFProjection PROJECTION = new DTFProjection(
+			"Level/xPos",
+			"Level/zPos",
+			"Level/Entities/*/id",
+			"Level/Entities/*/TileX",
+			"Level/Entities/*/TileY",
+			"Level/Entities/*/TileZ",
+			"Level/Entities/*/Motive",
+			"Level/Entities/*/Dir",
+			"Level/Sections/*/Y",
+			"Level/Sections/*/Blocks",
+			"Level/Sections/*/Data",
+			"Level/Sections/*/Add");
+
+	private static final int BLOCK = 100;
+
+	private NbtParseBench()
+	{
+	}
+
+	private static interface Reader
+	{
+		long read(byte[] chunk) throws IOException;
+	}
+
+	private static class StreamTree implements Reader
+	{
+		public long read(byte[] chunk) throws IOException
+		{
+			return checksum(DTFReader.readTagData(new DataInputStream(new ByteArrayInputStream(chunk))));
+		}
+	}
+
+	private static class BufferTree implements Reader
+	{
+		public long read(byte[] chunk) throws IOException
+		{
+			return checksum(DTFBufferReader.readTagData(ByteBuffer.wrap(chunk)));
+		}
+	}
+
+	private static class BufferVisit extends DTFVisitorAdapter implements Reader
+	{
+		private long sum;
+
+		public long read(byte[] chunk) throws IOException
+		{
+			this.sum = 0;
+			DTFBufferReader.visitTagData(ByteBuffer.wrap(chunk), PROJECTION, this);
+			return this.sum;
+		}
+
+		public void visitTag(String path, Tag tag)
+		{
+			if (path.equals("Level/xPos"))
+			{
+				this.sum += ((IntTag) tag).value;
+			}
+			else if (path.equals("Level/Sections/*/Y"))
+			{
+				this.sum += ((ByteTag) tag).value;
+			}
+			else if (path.equals("Level/Sections/*/Blocks"))
+			{
+				this.sum += ((ShortArrayTag) tag).value[BLOCK];
+			}
+		}
+	}
+
+	/**
+	 * Our checksum, taken from a whole chunk's tag tree
+	 */
+	private static long checksum(Tag root)
+	{
+		CompoundTag level = (CompoundTag) ((CompoundTag) root).getTagWithName("Level");
+		long sum = ((IntTag) level.getTagWithName("xPos")).value;
+		for (Tag t : ((ListTag) level.getTagWithName("Sections")).value)
+		{
+			CompoundTag section = (CompoundTag) t;
+			sum += ((ByteTag) section.getTagWithName("Y")).value;
+			sum += ((ShortArrayTag) section.getTagWithName("Blocks")).value[BLOCK];
+		}
+		return sum;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int rounds = 20;
+		File regionFile = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-rounds"))
+			{
+				rounds = Math.max(1, Integer.parseInt(args[++i]));
+			}
+			else if (args[i].startsWith("-") || regionFile != null)
+			{
+				System.err.println("Usage: NbtParseBench [-rounds N] [region file]");
+				System.exit(2);
+			}
+			else
+			{
+				regionFile = new File(args[i]);
+			}
+		}
+
+		File tempDir = null;
+		byte[][] chunks;
+		try
+		{
+			if (regionFile == null)
+			{
+				tempDir = ToolSupport.createTempDir("xray-nbt-bench");
+				regionFile = new File(tempDir, "r.0.0.mca");
+				SyntheticWorld.writeRegion(regionFile, 0, 0);
+			}
+			chunks = inflate(regionFile);
+		}
+		finally
+		{
+			ToolSupport.deleteTree(tempDir);
+		}
+		System.out.println(String.format("%d chunks, %.1f MiB of NBT", chunks.length, totalLength(chunks) / 1048576.0));
+
+		String[] names = { "stream tree", "buffer tree", "buffer visit" };
+		Reader[] readers = { new StreamTree(), new BufferTree(), new BufferVisit() };
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		boolean ok = true;
+		for (int round = 1; round <= rounds; round++)
+		{
+			StringBuilder line = new StringBuilder("round " + round + ":");
+			long expected = 0;
+			for (int r = 0; r < readers.length; r++)
+			{
+				long allocated = threads.getThreadAllocatedBytes(thread);
+				long start = System.nanoTime();
+				long sum = 0;
+				for (byte[] chunk : chunks)
+				{
+					sum += readers[r].read(chunk);
+				}
+				long nanos = System.nanoTime() - start;
+				allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+				line.append(String.format("  %s %.1f ms, %.1f MiB", names[r], nanos / 1e6, allocated / 1048576.0));
+
+				if (r == 0)
+				{
+					expected = sum;
+				}
+				else if (sum != expected)
+				{
+					line.append(" (checksum " + sum + ", expected " + expected + ")");
+					ok = false;
+				}
+			}
+			System.out.println(line);
+		}
+		if (!ok)
+		{
+			System.out.println("FAILED: the readers disagree");
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * Reads and inflates every chunk in the given region file
+	 */
+	private static byte[][] inflate(File file) throws IOException
+	{
+		RegionFile region = new RegionFile(file);
+		try
+		{
+			int count = 0;
+			byte[][] chunks = new byte[32 * 32][];
+			for (int z = 0; z < 32; z++)
+			{
+				for (int x = 0; x < 32; x++)
+				{
+					ByteBuffer data = region.getChunkDataBuffer(x, z);
+					if (data != null)
+					{
+						chunks[count] = new byte[data.remaining()];
+						data.get(chunks[count]);
+						count++;
+					}
+				}
+			}
+			byte[][] found = new byte[count][];
+			System.arraycopy(chunks, 0, found, 0, count);
+			return found;
+		}
+		finally
+		{
+			region.close();
+		}
+	}
+
+	private static long totalLength(byte[][] chunks)
+	{
+		long total = 0;
+		for (byte[] chunk : chunks)
+		{
+			total += chunk.length;
+		}
+		return total;
+	}
+}
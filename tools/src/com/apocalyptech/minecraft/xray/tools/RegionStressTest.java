@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.apocalyptech.minecraft.xray.RegionFile;
+import com.apocalyptech.minecraft.xray.RegionFileCache;
+import com.apocalyptech.minecraft.xray.MinecraftEnvironment;
+import com.apocalyptech.minecraft.xray.WorldInfo;
+
+/**
+ * Has several threads at once read every chunk of one region file, to show
+ * that RegionFile's reads don't serialize on each other.  Each thread count
+ * reads the same chunks and has to come up with the same checksum as the
+ * single-threaded run; we report chunks per second and the speedup over
+ * one thread.  Scaling obviously tops out at the number of CPUs.
+ *
+ * With -churn, the threads instead read a 2x2-region synthetic world through
+ * RegionFileCache (the same way ChunkLoader does) with the cache limited to
+ * a single open region, so that regions are being evicted and closed while
+ * other threads are still reading from them.  No read may fail.
+ *
+ * Usage: RegionStressTest [-mapped] [-churn] [-rounds N] [-threads 1,2,4,8] [region file]
+ *
+ * Without a region file, a synthetic one is generated in a temp directory.
+ * Exits with 1 if any run disagrees with the first or fails a read.
+ */
+public class RegionStressTest
+{
+	private static final int CHURN_REGIONS = 2;
+
+	private RegionStressTest()
+	{
+	}
+
+	/**
+	 * Something our worker threads can read numbered chunks from.
+	 */
+	private interface ChunkSource
+	{
+		/**
+		 * How many chunks make up one round
+		 */
+		int getChunkCount();
+
+		/**
+		 * Whether chunk n is supposed to exist at all
+		 */
+		boolean hasChunk(int n);
+
+		/**
+		 * Reads chunk n, returning null if the read failed
+		 */
+		ByteBuffer read(int n);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		boolean mapped = false;
+		boolean churn = false;
+		int rounds = 4;
+		int[] threadCounts = { 1, 2, 4, 8 };
+		File regionFile = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-mapped"))
+			{
+				mapped = true;
+			}
+			else if (args[i].equals("-churn"))
+			{
+				churn = true;
+			}
+			else if (args[i].equals("-rounds"))
+			{
+				rounds = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-threads"))
+			{
+				threadCounts = parseCounts(args[++i]);
+			}
+			else
+			{
+				regionFile = new File(args[i]);
+			}
+		}
+
+		File tempDir = null;
+		RegionFile region = null;
+		ChunkSource source;
+		if (churn)
+		{
+			tempDir = ToolSupport.createTempDir("xray-region-churn");
+			SyntheticWorld.create(tempDir, CHURN_REGIONS);
+			RegionFileCache.setMemoryMapped(mapped);
+			RegionFileCache.setMaxCacheSize(1);
+			source = new ChurnSource(tempDir);
+			System.out.println("Synthetic " + CHURN_REGIONS + "x" + CHURN_REGIONS + " world through a one-region cache" +
+					(mapped ? " (memory-mapped)" : "") + ", " + rounds + " round(s), " +
+					Runtime.getRuntime().availableProcessors() + " CPU(s)");
+		}
+		else
+		{
+			if (regionFile == null)
+			{
+				tempDir = ToolSupport.createTempDir("xray-region-stress");
+				SyntheticWorld.writeRegion(new File(tempDir, "r.0.0.mca"), 0, 0);
+				regionFile = new File(tempDir, "r.0.0.mca");
+			}
+			region = new RegionFile(regionFile, mapped);
+			source = new RegionSource(region);
+			System.out.println("Region " + regionFile + (mapped ? " (memory-mapped)" : "") + ", " +
+					rounds + " round(s), " + Runtime.getRuntime().availableProcessors() + " CPU(s)");
+		}
+
+		boolean ok = true;
+		try
+		{
+			// One untimed pass to warm up the JIT and the page cache
+			run(source, 1, 1);
+
+			Result first = null;
+			for (int threads : threadCounts)
+			{
+				Result result = run(source, threads, rounds);
+				if (first == null)
+				{
+					first = result;
+				}
+				boolean matches = (result.checksum == first.checksum && result.chunks == first.chunks && result.failures == 0);
+				ok &= matches;
+				System.out.println(String.format("%2d thread(s): %8.0f chunks/s  %5.2fx  %s",
+						threads, result.getRate(), result.getRate() / first.getRate(),
+						matches ? "ok" : ("MISMATCH (" + result.failures + " failed reads)")));
+			}
+			if (churn)
+			{
+				System.out.println("Region evictions: " + RegionFileCache.getEvictions());
+			}
+		}
+		finally
+		{
+			if (region != null)
+			{
+				region.close();
+			}
+			RegionFileCache.clear();
+			ToolSupport.deleteTree(tempDir);
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static int[] parseCounts(String list)
+	{
+		String[] parts = list.split(",");
+		int[] counts = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+		{
+			counts[i] = Integer.parseInt(parts[i].trim());
+		}
+		return counts;
+	}
+
+	/**
+	 * Reads straight from a single RegionFile
+	 */
+	private static class RegionSource implements ChunkSource
+	{
+		private final RegionFile region;
+
+		RegionSource(RegionFile region)
+		{
+			this.region = region;
+		}
+
+		public int getChunkCount()
+		{
+			return 1024;
+		}
+
+		public boolean hasChunk(int n)
+		{
+			return this.region.hasChunk(n % 32, n / 32);
+		}
+
+		public ByteBuffer read(int n)
+		{
+			return this.region.getChunkDataBuffer(n % 32, n / 32);
+		}
+	}
+
+	/**
+	 * Reads a whole synthetic world through RegionFileCache.  Consecutive
+	 * chunk numbers land in different regions, so that with a one-region
+	 * cache nearly every read evicts the region somebody else is using.
+	 */
+	private static class ChurnSource implements ChunkSource
+	{
+		private final WorldInfo world;
+		private final int regionCount = CHURN_REGIONS * CHURN_REGIONS;
+
+		ChurnSource(File dir)
+		{
+			this.world = new WorldInfo(dir.getPath(), dir.getName(), 0, true);
+			this.world.data_format = WorldInfo.MAP_TYPE.ANVIL;
+		}
+
+		public int getChunkCount()
+		{
+			return this.regionCount * 1024;
+		}
+
+		public boolean hasChunk(int n)
+		{
+			// SyntheticWorld fills in every chunk of every region
+			return true;
+		}
+
+		public ByteBuffer read(int n)
+		{
+			int reg = n % this.regionCount;
+			int local = n / this.regionCount;
+			int x = (reg % CHURN_REGIONS) * 32 + (local % 32);
+			int z = (reg / CHURN_REGIONS) * 32 + (local / 32);
+			return MinecraftEnvironment.getChunkBuffer(this.world, x, z);
+		}
+	}
+
+	private static class Result
+	{
+		long checksum;
+		long chunks;
+		long failures;
+		long nanos;
+
+		double getRate()
+		{
+			return this.chunks * 1e9 / this.nanos;
+		}
+	}
+
+	/**
+	 * Reads every chunk in the source rounds times, spread over the given
+	 * number of threads.  The checksum is a sum of per-chunk CRCs, so it
+	 * doesn't care which thread read what.
+	 */
+	private static Result run(final ChunkSource source, int threads, int rounds) throws InterruptedException
+	{
+		final int perRound = source.getChunkCount();
+		final int total = rounds * perRound;
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicLong checksum = new AtomicLong();
+		final AtomicLong chunks = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+
+		ArrayList<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++)
+		{
+			workers.add(new Thread(new Runnable() {
+				public void run()
+				{
+					CRC32 crc = new CRC32();
+					int n;
+					while ((n = next.getAndIncrement()) < total)
+					{
+						int chunk = n % perRound;
+						if (!source.hasChunk(chunk))
+						{
+							continue;
+						}
+						ByteBuffer data = source.read(chunk);
+						if (data == null)
+						{
+							failures.incrementAndGet();
+							continue;
+						}
+						crc.reset();
+						crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+						checksum.addAndGet(crc.getValue());
+						chunks.incrementAndGet();
+					}
+				}
+			}, "region stress " + t));
+		}
+
+		long start = System.nanoTime();
+		for (Thread worker : workers)
+		{
+			worker.start();
+		}
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		Result result = new Result();
+		result.nanos = System.nanoTime() - start;
+		result.checksum = checksum.get();
+		result.chunks = chunks.get();
+		result.failures = failures.get();
+		return result;
+	}
+}
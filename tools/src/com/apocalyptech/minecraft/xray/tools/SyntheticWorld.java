@@ -0,0 +1,380 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a small Anvil world of generated terrain, so that the tools in
+ * here have something repeatable to chew on without needing a real save.
+ * The terrain is rolling hills with caves, a sprinkling of ores, and water
+ * below sea level; each region is a full 32x32 chunks.
+ *
+ * Usage: SyntheticWorld <directory> [regions]
+ *
+ * Regions are written for region coordinates 0 to regions-1 on each axis.
+ * Tools which need an exact layout rather than terrain can fill a world
+ * with blocks of their own instead; see create(dir, sections, blocks).
+ */
+public class SyntheticWorld
+{
+	/**
+	 * Says which block goes where, for regions which aren't our terrain
+	 */
+	public interface Blocks
+	{
+		/**
+		 * The block ID at the given world coordinates
+		 */
+		int getBlock(int x, int y, int z);
+	}
+
+	private static final int TAG_END = 0;
+	private static final int TAG_BYTE = 1;
+	private static final int TAG_INT = 3;
+	private static final int TAG_LONG = 4;
+	private static final int TAG_BYTE_ARRAY = 7;
+	private static final int TAG_STRING = 8;
+	private static final int TAG_LIST = 9;
+	private static final int TAG_COMPOUND = 10;
+	private static final int TAG_INT_ARRAY = 11;
+
+	private static final int SEA_LEVEL = 62;
+	private static final int[] ORES = { 14, 15, 16, 21, 56, 73 };
+
+	private SyntheticWorld()
+	{
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: SyntheticWorld <directory> [regions]");
+			System.exit(2);
+		}
+		int regions = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+		create(new File(args[0]), regions);
+		System.out.println("Wrote " + (regions * regions) + " region(s) to " + args[0]);
+	}
+
+	/**
+	 * Writes level.dat and regions x regions region files into the given
+	 * directory, creating it if need be.
+	 */
+	public static void create(File dir, int regions) throws IOException
+	{
+		File regionDir = createDirs(dir);
+		for (int rx = 0; rx < regions; rx++)
+		{
+			for (int rz = 0; rz < regions; rz++)
+			{
+				writeRegion(new File(regionDir, "r." + rx + "." + rz + ".mca"), rx, rz);
+			}
+		}
+	}
+
+	/**
+	 * Writes level.dat and the single region 0, 0 into the given directory,
+	 * with chunks of the given number of sections filled from blocks.
+	 */
+	public static void create(File dir, int sections, Blocks blocks) throws IOException
+	{
+		writeRegion(new File(createDirs(dir), "r.0.0.mca"), 0, 0, sections, blocks);
+	}
+
+	/**
+	 * Creates the world's directories and writes its level.dat
+	 *
+	 * @return The region directory
+	 */
+	private static File createDirs(File dir) throws IOException
+	{
+		File regionDir = new File(dir, "region");
+		if (!regionDir.isDirectory() && !regionDir.mkdirs())
+		{
+			throw new IOException("Couldn't create " + regionDir);
+		}
+		writeLevelDat(new File(dir, "level.dat"));
+		return regionDir;
+	}
+
+	private static void name(DataOutputStream out, int type, String name) throws IOException
+	{
+		out.writeByte(type);
+		out.writeUTF(name);
+	}
+
+	private static void writeLevelDat(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+		try
+		{
+			name(out, TAG_COMPOUND, "");
+			name(out, TAG_COMPOUND, "Data");
+			name(out, TAG_STRING, "LevelName");
+			out.writeUTF("Synthetic");
+			name(out, TAG_INT, "version");
+			out.writeInt(19133);
+			name(out, TAG_INT, "SpawnX");
+			out.writeInt(100);
+			name(out, TAG_INT, "SpawnY");
+			out.writeInt(64);
+			name(out, TAG_INT, "SpawnZ");
+			out.writeInt(100);
+			name(out, TAG_LONG, "RandomSeed");
+			out.writeLong(42);
+			out.writeByte(TAG_END);
+			out.writeByte(TAG_END);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes one region file of deflated chunks of our terrain.
+	 */
+	public static void writeRegion(File file, int regionX, int regionZ) throws IOException
+	{
+		writeRegion(file, regionX, regionZ, 0, new Terrain(new Random((regionX * 31L) + regionZ)));
+	}
+
+	/**
+	 * Writes one region file of deflated chunks, each of the given number of
+	 * sections, with blocks from the given source.  If sections is 0, each
+	 * chunk gets just enough to cover our terrain.
+	 */
+	public static void writeRegion(File file, int regionX, int regionZ, int sections, Blocks blocks) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(0);
+			raf.write(new byte[8192]);
+			int sector = 2;
+			for (int z = 0; z < 32; z++)
+			{
+				for (int x = 0; x < 32; x++)
+				{
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					DeflaterOutputStream deflated = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION));
+					deflated.write(chunk((regionX * 32) + x, (regionZ * 32) + z, sections, blocks));
+					deflated.close();
+					byte[] data = bytes.toByteArray();
+					int length = data.length + 1;
+					int sectors = ((length + 4) / 4096) + 1;
+
+					raf.seek(sector * 4096L);
+					raf.writeInt(length);
+					raf.writeByte(2);
+					raf.write(data);
+					raf.seek(4 * (x + (z * 32)));
+					raf.writeInt((sector << 8) | sectors);
+					raf.seek(4096 + (4 * (x + (z * 32))));
+					raf.writeInt(1000);
+					sector += sectors;
+				}
+			}
+			raf.setLength(sector * 4096L);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static int height(int x, int z)
+	{
+		return (int) (68 + (9 * Math.sin(x / 23.0)) + (7 * Math.cos(z / 19.0)) + (3 * Math.sin((x + (2 * z)) / 9.0)));
+	}
+
+	private static boolean cave(int x, int y, int z)
+	{
+		return (Math.sin(x / 7.0) * Math.sin(y / 5.0) * Math.sin(z / 8.0)) + (0.3 * Math.sin((x + y + z) / 4.0)) > 0.75;
+	}
+
+	/**
+	 * Our usual terrain.  Blocks have to be asked for in the order chunk()
+	 * walks them, since the ores come from a shared Random.
+	 */
+	private static class Terrain implements Blocks
+	{
+		private final Random random;
+
+		// Heights for the chunk we were last asked about
+		private final int[] heights = new int[256];
+		private int chunkX = Integer.MIN_VALUE;
+		private int chunkZ = Integer.MIN_VALUE;
+
+		Terrain(Random random)
+		{
+			this.random = random;
+		}
+
+		public int getBlock(int x, int y, int z)
+		{
+			if ((x >> 4) != this.chunkX || (z >> 4) != this.chunkZ)
+			{
+				this.chunkX = x >> 4;
+				this.chunkZ = z >> 4;
+				for (int i = 0; i < 256; i++)
+				{
+					this.heights[i] = height((this.chunkX * 16) + (i % 16), (this.chunkZ * 16) + (i / 16));
+				}
+			}
+			int h = this.heights[((z & 15) * 16) + (x & 15)];
+			if (y == 0)
+			{
+				return 7;
+			}
+			else if (y > h)
+			{
+				return (y <= SEA_LEVEL) ? 9 : 0;
+			}
+			else if (y > 4 && cave(x, y, z))
+			{
+				return (y < 11) ? 11 : 0;
+			}
+			else if (y == h)
+			{
+				return (h <= SEA_LEVEL) ? 12 : 2;
+			}
+			else if (y > h - 4)
+			{
+				return (h <= SEA_LEVEL) ? 12 : 3;
+			}
+
+			int roll = this.random.nextInt(200);
+			if (roll < 3)
+			{
+				return ORES[this.random.nextInt(ORES.length)];
+			}
+			else if (roll < 6)
+			{
+				return 13;
+			}
+			else if (roll < 9)
+			{
+				return 3;
+			}
+			return 1;
+		}
+	}
+
+	/**
+	 * The uncompressed NBT for one Anvil chunk
+	 */
+	private static byte[] chunk(int chunkX, int chunkZ, int sections, Blocks blocks) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		name(out, TAG_COMPOUND, "");
+		name(out, TAG_COMPOUND, "Level");
+		name(out, TAG_INT, "xPos");
+		out.writeInt(chunkX);
+		name(out, TAG_INT, "zPos");
+		out.writeInt(chunkZ);
+		name(out, TAG_LONG, "LastUpdate");
+		out.writeLong(1234);
+		name(out, TAG_LIST, "Entities");
+		out.writeByte(TAG_COMPOUND);
+		out.writeInt(0);
+		name(out, TAG_LIST, "TileEntities");
+		out.writeByte(TAG_BYTE);
+		out.writeInt(0);
+
+		// X-Ray works out its own heightmap, so this is only here for
+		// completeness, and is always that of our terrain.
+		int[] heights = new int[256];
+		int maxHeight = 0;
+		for (int z = 0; z < 16; z++)
+		{
+			for (int x = 0; x < 16; x++)
+			{
+				heights[(z * 16) + x] = height((chunkX * 16) + x, (chunkZ * 16) + z);
+				maxHeight = Math.max(maxHeight, heights[(z * 16) + x]);
+			}
+		}
+		name(out, TAG_INT_ARRAY, "HeightMap");
+		out.writeInt(256);
+		for (int h : heights)
+		{
+			out.writeInt(h + 1);
+		}
+		name(out, TAG_BYTE_ARRAY, "Biomes");
+		out.writeInt(256);
+		out.write(new byte[256]);
+
+		if (sections == 0)
+		{
+			sections = (Math.max(maxHeight, SEA_LEVEL) / 16) + 1;
+		}
+		name(out, TAG_LIST, "Sections");
+		out.writeByte(TAG_COMPOUND);
+		out.writeInt(sections);
+		for (int s = 0; s < sections; s++)
+		{
+			name(out, TAG_BYTE, "Y");
+			out.writeByte(s);
+			byte[] blockIds = new byte[4096];
+			for (int i = 0; i < 4096; i++)
+			{
+				int y = (s * 16) + (i / 256);
+				int z = (i / 16) % 16;
+				int x = i % 16;
+				blockIds[i] = (byte) blocks.getBlock((chunkX * 16) + x, y, (chunkZ * 16) + z);
+			}
+			name(out, TAG_BYTE_ARRAY, "Blocks");
+			out.writeInt(4096);
+			out.write(blockIds);
+			name(out, TAG_BYTE_ARRAY, "Data");
+			out.writeInt(2048);
+			out.write(new byte[2048]);
+			name(out, TAG_BYTE_ARRAY, "SkyLight");
+			out.writeInt(2048);
+			out.write(new byte[2048]);
+			name(out, TAG_BYTE_ARRAY, "BlockLight");
+			out.writeInt(2048);
+			out.write(new byte[2048]);
+			out.writeByte(TAG_END);
+		}
+		out.writeByte(TAG_END);
+		out.writeByte(TAG_END);
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2010-2012, Christopher J. Kucera
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Minecraft X-Ray team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL VINCENT VOLLERS OR CJ KUCERA BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.apocalyptech.minecraft.xray.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.apocalyptech.minecraft.xray.BlockType;
+import com.apocalyptech.minecraft.xray.MinecraftConstants;
+import com.apocalyptech.minecraft.xray.MinecraftEnvironment;
+import com.apocalyptech.minecraft.xray.MinecraftLevel;
+import com.apocalyptech.minecraft.xray.WorldInfo;
+
+/**
+ * Bits and pieces shared by the tools in here
+ */
+public class ToolSupport
+{
+	// A handful of blocks covering everything SyntheticWorld writes
+	private static final int[] BLOCK_IDS = { 1, 2, 3, 7, 9, 11, 12, 13, 14, 15, 16, 21, 56, 73 };
+	private static final int WATER = 9;
+	private static final int LAVA = 11;
+
+	private ToolSupport()
+	{
+	}
+
+	/**
+	 * Opens the Anvil world in the given directory as a MinecraftLevel,
+	 * headless, highlighting diamond and gold ore.  Blocks are set up with
+	 * setupBlocks(), using the world's directory as our base directory.
+	 */
+	public static MinecraftLevel openLevel(File dir)
+	{
+		setupBlocks(dir);
+		WorldInfo world = new WorldInfo(dir.getPath(), dir.getName(), 0, true);
+		world.data_format = WorldInfo.MAP_TYPE.ANVIL;
+		return new MinecraftLevel(world, null, null, new short[] { 56, 14 });
+	}
+
+	/**
+	 * Just enough block setup for MinecraftLevel to decode and mesh chunks
+	 * without loading textures or a real blockdef file.  Every block has a
+	 * texture of its own, on the first sheet, and is an ordinary cube apart
+	 * from water and lava, which get the same types as in minecraft.yaml.
+	 */
+	public static void setupBlocks(File baseDir)
+	{
+		MinecraftEnvironment.xrayBaseDir = baseDir;
+		MinecraftConstants.blockArray = new BlockType[4096];
+		MinecraftConstants.BLOCK_UNKNOWN = new BlockType();
+		MinecraftConstants.exploredBlocks = new HashMap<Short, Boolean>();
+		MinecraftConstants.initSpriteSheetToTextureTable();
+		for (int i = 0; i < BLOCK_IDS.length; i++)
+		{
+			BlockType block = new BlockType();
+			block.setId((short) BLOCK_IDS[i]);
+			block.tex_idx = i;
+			if (BLOCK_IDS[i] == WATER)
+			{
+				block.setType(MinecraftConstants.BLOCK_TYPE.WATER);
+			}
+			else if (BLOCK_IDS[i] == LAVA)
+			{
+				block.setType(MinecraftConstants.BLOCK_TYPE.SEMISOLID);
+			}
+			else
+			{
+				block.setType(MinecraftConstants.BLOCK_TYPE.NORMAL);
+			}
+			block.setTexSheet(0);
+			MinecraftConstants.blockArray[BLOCK_IDS[i]] = block;
+		}
+		MinecraftConstants.BLOCK_BEDROCK = MinecraftConstants.blockArray[7];
+	}
+
+	/**
+	 * Makes a new, empty directory under java.io.tmpdir
+	 */
+	public static File createTempDir(String prefix) throws IOException
+	{
+		File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdir())
+		{
+			throw new IOException("Couldn't create temp directory " + dir);
+		}
+		return dir;
+	}
+
+	/**
+	 * Deletes a directory and everything in it.  Does nothing for null.
+	 */
+	public static void deleteTree(File file)
+	{
+		if (file == null)
+		{
+			return;
+		}
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				deleteTree(child);
+			}
+		}
+		file.delete();
+	}
+}